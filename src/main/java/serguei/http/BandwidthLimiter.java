@@ -0,0 +1,125 @@
+package serguei.http;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bandwidth limits of the server: per connection, per client IP address and for the whole server, separately for
+ * receiving and sending. Zero rate means no limit.
+ *
+ * Buckets of a client are shared by all its connections and are dropped when its last connection is closed.
+ */
+final class BandwidthLimiter {
+
+    private final long connectionReceiveRate;
+    private final long connectionSendRate;
+    private final long clientReceiveRate;
+    private final long clientSendRate;
+    private final TokenBucket serverReceiveBucket;
+    private final TokenBucket serverSendBucket;
+    private final Map<InetAddress, ClientBuckets> clients = new HashMap<>();
+
+    BandwidthLimiter(long connectionReceiveRate, long connectionSendRate, long clientReceiveRate, long clientSendRate,
+            long serverReceiveRate, long serverSendRate) {
+        this.connectionReceiveRate = connectionReceiveRate;
+        this.connectionSendRate = connectionSendRate;
+        this.clientReceiveRate = clientReceiveRate;
+        this.clientSendRate = clientSendRate;
+        this.serverReceiveBucket = createBucket(serverReceiveRate);
+        this.serverSendBucket = createBucket(serverSendRate);
+    }
+
+    /**
+     * @return true if any of the rates is limited
+     */
+    boolean isLimited() {
+        return connectionReceiveRate > 0 || connectionSendRate > 0 || clientReceiveRate > 0 || clientSendRate > 0
+                || serverReceiveBucket != null || serverSendBucket != null;
+    }
+
+    /**
+     * Must be followed by release() when the connection is closed
+     */
+    ConnectionLimits connect(InetAddress address, HttpServerMetrics metrics) {
+        ClientBuckets client = null;
+        if (address != null && (clientReceiveRate > 0 || clientSendRate > 0)) {
+            synchronized (clients) {
+                client = clients.get(address);
+                if (client == null) {
+                    client = new ClientBuckets(createBucket(clientReceiveRate), createBucket(clientSendRate));
+                    clients.put(address, client);
+                }
+                client.connections++;
+            }
+        }
+        return new ConnectionLimits(address, client, metrics);
+    }
+
+    /**
+     * @return number of clients which have buckets (for testing)
+     */
+    int getClientCount() {
+        synchronized (clients) {
+            return clients.size();
+        }
+    }
+
+    private static TokenBucket createBucket(long rate) {
+        return rate > 0 ? new TokenBucket(rate) : null;
+    }
+
+    private static class ClientBuckets {
+
+        private final TokenBucket receiveBucket;
+        private final TokenBucket sendBucket;
+        // guarded by clients
+        private int connections;
+
+        private ClientBuckets(TokenBucket receiveBucket, TokenBucket sendBucket) {
+            this.receiveBucket = receiveBucket;
+            this.sendBucket = sendBucket;
+        }
+    }
+
+    /**
+     * Limits of one connection
+     */
+    final class ConnectionLimits {
+
+        private final InetAddress address;
+        private final ClientBuckets client;
+        private final BandwidthThrottle receiveThrottle;
+        private final BandwidthThrottle sendThrottle;
+
+        private ConnectionLimits(InetAddress address, ClientBuckets client, HttpServerMetrics metrics) {
+            this.address = address;
+            this.client = client;
+            receiveThrottle = new BandwidthThrottle(new TokenBucket[] { createBucket(connectionReceiveRate),
+                    client != null ? client.receiveBucket : null, serverReceiveBucket }, metrics, false);
+            sendThrottle = new BandwidthThrottle(new TokenBucket[] { createBucket(connectionSendRate),
+                    client != null ? client.sendBucket : null, serverSendBucket }, metrics, true);
+        }
+
+        InputStream wrap(InputStream inputStream) {
+            return receiveThrottle.isLimited() ? new ThrottlingInputStream(inputStream, receiveThrottle) : inputStream;
+        }
+
+        OutputStream wrap(OutputStream outputStream) {
+            return sendThrottle.isLimited() ? new ThrottlingOutputStream(outputStream, sendThrottle) : outputStream;
+        }
+
+        void release() {
+            if (client != null) {
+                synchronized (clients) {
+                    if (--client.connections == 0) {
+                        clients.remove(address);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package serguei.http;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits bandwidth of one direction of a connection by several token buckets at once (e.g. of the connection, of the
+ * client and of the server)
+ */
+final class BandwidthThrottle {
+
+    private final TokenBucket[] buckets;
+    private final int maxChunk;
+    private final HttpServerMetrics metrics;
+    private final boolean sending;
+
+    /**
+     * @param buckets
+     *            - buckets to take tokens from, nulls are ignored
+     * @param metrics
+     *            - metrics to report throttled time to, can be null
+     * @param sending
+     *            - true if this throttles data sent to the client
+     */
+    BandwidthThrottle(TokenBucket[] buckets, HttpServerMetrics metrics, boolean sending) {
+        int count = 0;
+        for (TokenBucket bucket : buckets) {
+            if (bucket != null) {
+                count++;
+            }
+        }
+        this.buckets = new TokenBucket[count];
+        long maxChunk = Integer.MAX_VALUE;
+        count = 0;
+        for (TokenBucket bucket : buckets) {
+            if (bucket != null) {
+                this.buckets[count++] = bucket;
+                maxChunk = Math.min(maxChunk, bucket.getCapacity());
+            }
+        }
+        this.maxChunk = (int)maxChunk;
+        this.metrics = metrics;
+        this.sending = sending;
+    }
+
+    /**
+     * @return true if there is at least one bucket
+     */
+    boolean isLimited() {
+        return buckets.length > 0;
+    }
+
+    /**
+     * @return number of bytes which can be transferred at once without going much over the rate
+     */
+    int chunk(int len) {
+        return Math.min(len, maxChunk);
+    }
+
+    /**
+     * Takes tokens for the bytes from all buckets and waits until the slowest of them allows the transfer
+     */
+    void pay(int bytes) throws InterruptedIOException {
+        long waitNanos = 0;
+        for (TokenBucket bucket : buckets) {
+            waitNanos = Math.max(waitNanos, bucket.take(bytes));
+        }
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000, (int)(waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+            if (metrics != null) {
+                metrics.connectionThrottled(waitNanos, sending);
+            }
+        }
+    }
+
+}
@@ -3,6 +3,7 @@ package serguei.http;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 public class ClientHello {
 
@@ -39,6 +40,34 @@ public class ClientHello {
         return clientHello;
     }
 
+    /**
+     * Parses ClientHello from the buffer without changing its position (data between position and limit is used)
+     */
+    static ClientHello read(ByteBuffer byteBuffer) throws IOException {
+        ClientHello clientHello = new ClientHello(new ByteBufferInputStream(byteBuffer.duplicate()));
+        clientHello.parse();
+        clientHello.inputStream = null;
+        clientHello.buffer = null;
+        return clientHello;
+    }
+
+    /**
+     * @return true if the buffer (between position and limit) contains the whole first TLS record or enough data to
+     *         decide that it is not a TLS handshake record, false if more data needs to be read
+     */
+    static boolean isComplete(ByteBuffer byteBuffer) {
+        int remaining = byteBuffer.remaining();
+        if (remaining < TLS_HEADER_LENGTH) {
+            return false;
+        }
+        int pos = byteBuffer.position();
+        if (byteBuffer.get(pos) != 0x16) {
+            return true;
+        }
+        int messageLen = (((byteBuffer.get(pos + 3) & 0xFF) << 8) | (byteBuffer.get(pos + 4) & 0xFF)) + TLS_HEADER_LENGTH;
+        return messageLen > TLS_MESSAGE_BUFFER_SIZE || remaining >= messageLen;
+    }
+
     public String getSniHostName() {
         return sniHostName;
     }
@@ -55,7 +84,7 @@ public class ClientHello {
         return sessionId;
     }
 
-    private ClientHello(MarkAndResetInputStream inputStream) {
+    private ClientHello(InputStream inputStream) {
         this.inputStream = inputStream;
     }
 
@@ -212,4 +241,28 @@ public class ClientHello {
         recordProtocolVersion = new TlsVersion(2, 0);
         return true;
     }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer byteBuffer;
+
+        private ByteBufferInputStream(ByteBuffer byteBuffer) {
+            this.byteBuffer = byteBuffer;
+        }
+
+        @Override
+        public int read() {
+            return byteBuffer.hasRemaining() ? byteBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!byteBuffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, byteBuffer.remaining());
+            byteBuffer.get(b, off, len);
+            return len;
+        }
+    }
 }
@@ -0,0 +1,183 @@
+package serguei.http;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Limits of concurrent connections and of requests per second from one client IP address
+ *
+ * State of clients is kept in a concurrent map, so different clients do not contend for a lock, and checking a new
+ * connection is a counter increment. The counter is decremented by connectionClosed() when processing of the
+ * connection ends. A connection can also be closed before it gets to processing (e.g. its TLS handshake fails), such
+ * sockets are found by sweep() which runs in its own thread (run()) and also drops clients which have been idle for the
+ * expiry period.
+ */
+final class ClientLimiter implements Runnable {
+
+    private static final long DEFAULT_EXPIRY_NANOS = 10_000_000_000L;
+    private static final int SWEEP_INTERVAL_MILS = 1000;
+
+    private final long expiryNanos;
+    private final int maxConnections;
+    private final int maxRequestsPerSecond;
+    private final ConcurrentMap<InetAddress, ClientState> clients = new ConcurrentHashMap<>();
+    // accepted sockets which are counted by their clients
+    private final ConcurrentMap<Socket, ClientState> openSockets = new ConcurrentHashMap<>();
+    private volatile boolean finished;
+
+    /**
+     * @param maxConnections
+     *            - maximum number of open connections from one address, 0 - no limit
+     * @param maxRequestsPerSecond
+     *            - maximum number of requests per second from one address, 0 - no limit
+     */
+    ClientLimiter(int maxConnections, int maxRequestsPerSecond) {
+        this(maxConnections, maxRequestsPerSecond, DEFAULT_EXPIRY_NANOS);
+    }
+
+    ClientLimiter(int maxConnections, int maxRequestsPerSecond, long expiryNanos) {
+        this.expiryNanos = expiryNanos;
+        this.maxConnections = maxConnections;
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    /**
+     * @return true if any of the limits is set
+     */
+    boolean isLimited() {
+        return maxConnections > 0 || maxRequestsPerSecond > 0;
+    }
+
+    /**
+     * Called for each accepted socket before anything else is done with it
+     *
+     * @return true if the connection is within the limit, it is counted until connectionClosed() is called or the
+     *         socket is found closed by sweep()
+     */
+    boolean acceptConnection(Socket socket) {
+        if (maxConnections <= 0) {
+            return true;
+        }
+        InetAddress address = socket.getInetAddress();
+        while (true) {
+            ClientState client = getClient(address);
+            synchronized (client) {
+                if (!client.removed) {
+                    if (client.connections >= maxConnections) {
+                        return false;
+                    }
+                    client.connections++;
+                    openSockets.put(socket, client);
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when processing of the connection ends, calling it more than once or for a socket which was not counted
+     * does nothing
+     *
+     * @param socket
+     *            - the socket passed to acceptConnection()
+     */
+    void connectionClosed(Socket socket) {
+        ClientState client = openSockets.remove(socket);
+        if (client != null) {
+            synchronized (client) {
+                client.connections--;
+                client.lastUsedNanos = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Called for each request
+     *
+     * @return true if the request is within the limit
+     */
+    boolean acceptRequest(InetAddress address) {
+        if (maxRequestsPerSecond <= 0) {
+            return true;
+        }
+        while (true) {
+            ClientState client = getClient(address);
+            synchronized (client) {
+                if (!client.removed) {
+                    client.lastUsedNanos = System.nanoTime();
+                    return client.requests.tryTake(1);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!finished) {
+            try {
+                Thread.sleep(SWEEP_INTERVAL_MILS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            sweep();
+        }
+    }
+
+    void stop() {
+        finished = true;
+    }
+
+    /**
+     * Stops counting sockets which have been closed and drops clients which are idle
+     */
+    void sweep() {
+        for (Socket socket : openSockets.keySet()) {
+            if (socket.isClosed()) {
+                connectionClosed(socket);
+            }
+        }
+        long now = System.nanoTime();
+        for (Iterator<ClientState> iterator = clients.values().iterator(); iterator.hasNext();) {
+            ClientState client = iterator.next();
+            synchronized (client) {
+                if (client.connections == 0 && now - client.lastUsedNanos >= expiryNanos) {
+                    client.removed = true;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of clients which state is kept (for testing)
+     */
+    int getClientCount() {
+        return clients.size();
+    }
+
+    private ClientState getClient(InetAddress address) {
+        ClientState client = clients.get(address);
+        if (client == null) {
+            ClientState newClient = new ClientState();
+            client = clients.putIfAbsent(address, newClient);
+            if (client == null) {
+                client = newClient;
+            }
+        }
+        return client;
+    }
+
+    private class ClientState {
+
+        // guarded by this
+        private int connections;
+        private final TokenBucket requests = maxRequestsPerSecond > 0
+                ? new TokenBucket(maxRequestsPerSecond, maxRequestsPerSecond) : null;
+        private long lastUsedNanos = System.nanoTime();
+        private boolean removed;
+    }
+
+}
@@ -0,0 +1,113 @@
+package serguei.http;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Cache of client SSLContexts, one per origin (host and port the client connects to) and client configuration
+ * (validation of certificates and the key store for client authentication).
+ *
+ * SSLContext keeps the cache of TLS sessions, so reusing the context lets new connections to the same origin resume an
+ * earlier session with an abbreviated handshake. Contexts with client certificates are rebuilt only when the key store
+ * file changes. The number of cached contexts is limited, the least recently used ones are dropped.
+ */
+class ClientSslContextCache {
+
+    private final int maxContexts;
+    private final Map<Key, SSLContext> contexts;
+
+    @SuppressWarnings("serial")
+    ClientSslContextCache(final int maxContexts) {
+        this.maxContexts = maxContexts;
+        this.contexts = new LinkedHashMap<Key, SSLContext>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, SSLContext> eldest) {
+                return size() > ClientSslContextCache.this.maxContexts;
+            }
+        };
+    }
+
+    /**
+     * @return cached context for this origin and configuration, a new context is created by the factory if there is no
+     *         context in the cache
+     *
+     * The lock is held only to look up and store the context, creating a context (which may load the key store) does
+     * not hold up handshakes of other connections. When two threads create a context for the same key at the same
+     * time, the one stored first is used by both.
+     */
+    SSLContext get(String origin, boolean validateCertificates, String keyStorePath, String keyStorePassword,
+            String certificatePassword, Supplier<SSLContext> factory) {
+        long keyStoreModified = keyStorePath != null ? new File(keyStorePath).lastModified() : 0;
+        Key key = new Key(origin, validateCertificates, keyStorePath, keyStorePassword, certificatePassword,
+                keyStoreModified);
+        SSLContext sslContext;
+        synchronized (this) {
+            sslContext = contexts.get(key);
+        }
+        if (sslContext == null) {
+            SSLContext newContext = factory.get();
+            synchronized (this) {
+                sslContext = contexts.get(key);
+                if (sslContext == null) {
+                    sslContext = newContext;
+                    contexts.put(key, sslContext);
+                }
+            }
+        }
+        return sslContext;
+    }
+
+    synchronized void clear() {
+        contexts.clear();
+    }
+
+    synchronized int size() {
+        return contexts.size();
+    }
+
+    private static class Key {
+
+        private final String origin;
+        private final boolean validateCertificates;
+        private final String keyStorePath;
+        private final String keyStorePassword;
+        private final String certificatePassword;
+        private final long keyStoreModified;
+
+        private Key(String origin, boolean validateCertificates, String keyStorePath, String keyStorePassword,
+                String certificatePassword, long keyStoreModified) {
+            this.origin = origin;
+            this.validateCertificates = validateCertificates;
+            this.keyStorePath = keyStorePath;
+            this.keyStorePassword = keyStorePassword;
+            this.certificatePassword = certificatePassword;
+            this.keyStoreModified = keyStoreModified;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return validateCertificates == other.validateCertificates && keyStoreModified == other.keyStoreModified
+                    && origin.equals(other.origin) && Objects.equals(keyStorePath, other.keyStorePath)
+                    && Objects.equals(keyStorePassword, other.keyStorePassword)
+                    && Objects.equals(certificatePassword, other.certificatePassword);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(origin, validateCertificates, keyStorePath, keyStoreModified);
+        }
+    }
+
+}
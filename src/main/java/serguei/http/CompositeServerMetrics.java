@@ -0,0 +1,82 @@
+package serguei.http;
+
+import java.net.InetAddress;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * Passes all calls to two HttpServerMetrics
+ */
+class CompositeServerMetrics implements HttpServerMetrics {
+
+    private final HttpServerMetrics first;
+    private final HttpServerMetrics second;
+
+    private CompositeServerMetrics(HttpServerMetrics first, HttpServerMetrics second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * @return metrics passing calls to both arguments, or one of the arguments if the other is null
+     */
+    static HttpServerMetrics of(HttpServerMetrics first, HttpServerMetrics second) {
+        if (first == null) {
+            return second;
+        } else if (second == null) {
+            return first;
+        } else {
+            return new CompositeServerMetrics(first, second);
+        }
+    }
+
+    @Override
+    public void connectionAccepted(long acceptToDispatchNanos) {
+        first.connectionAccepted(acceptToDispatchNanos);
+        second.connectionAccepted(acceptToDispatchNanos);
+    }
+
+    @Override
+    public void connectionRejected(InetAddress remoteAddress) {
+        first.connectionRejected(remoteAddress);
+        second.connectionRejected(remoteAddress);
+    }
+
+    @Override
+    public void tlsHandshakeCompleted(ClientHello clientHello, SSLSession session, boolean resumed,
+            long handshakeNanos) {
+        first.tlsHandshakeCompleted(clientHello, session, resumed, handshakeNanos);
+        second.tlsHandshakeCompleted(clientHello, session, resumed, handshakeNanos);
+    }
+
+    @Override
+    public void requestHeadersParsed(HttpRequestHeaders requestHeaders, long parseNanos, boolean reusedConnection) {
+        first.requestHeadersParsed(requestHeaders, parseNanos, reusedConnection);
+        second.requestHeadersParsed(requestHeaders, parseNanos, reusedConnection);
+    }
+
+    @Override
+    public void requestRejected(HttpRequestHeaders requestHeaders) {
+        first.requestRejected(requestHeaders);
+        second.requestRejected(requestHeaders);
+    }
+
+    @Override
+    public void requestCompleted(HttpRequest request, long handlerNanos, long bytesReceived, long bytesSent) {
+        first.requestCompleted(request, handlerNanos, bytesReceived, bytesSent);
+        second.requestCompleted(request, handlerNanos, bytesReceived, bytesSent);
+    }
+
+    @Override
+    public void connectionThrottled(long throttledNanos, boolean sending) {
+        first.connectionThrottled(throttledNanos, sending);
+        second.connectionThrottled(throttledNanos, sending);
+    }
+
+    @Override
+    public void connectionClosed(long connectionNanos, int requestCount) {
+        first.connectionClosed(connectionNanos, requestCount);
+        second.connectionClosed(connectionNanos, requestCount);
+    }
+
+}
@@ -8,7 +8,6 @@ import java.security.cert.X509Certificate;
 
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSession;
-import javax.net.ssl.SSLSocket;
 
 /**
  * Context of the client's TCP connection from the point of view of the server
@@ -24,57 +23,24 @@ public class ConnectionContext {
 
     private final Socket socket;
     private final InetSocketAddress remoteSocketAddress;
-    private final boolean ssl;
-    private final TlsVersion negotiatedTlsProtocol;
-    private final String negotiatedCipher;
-    private final String sni;
-    private final X509Certificate[] tlsCertificates;
-    private final byte[] requestedTlsSessionId;
-    private final byte[] tlsSessionId;
+    private final SSLSession sslSession;
+    private final ClientHello clientHello;
+    private final boolean tlsSessionResumed;
+
+    // values below are taken from SSLSession only when requested, most handlers never need them
+    private volatile TlsVersion negotiatedTlsProtocol;
+    private volatile byte[] tlsSessionId;
+    private volatile X509Certificate[] tlsCertificates;
+    private volatile boolean tlsCertificatesRead;
 
     private CloseAction closeAction = CloseAction.NONE;
 
-    ConnectionContext(Socket socket, ClientHello clientHello) {
+    ConnectionContext(Socket socket, SSLSession sslSession, boolean tlsSessionResumed, ClientHello clientHello) {
         this.socket = socket;
         this.remoteSocketAddress = (InetSocketAddress)socket.getRemoteSocketAddress();
-        if (socket instanceof SSLSocket) {
-            ssl = true;
-            SSLSocket sslSocket = (SSLSocket)socket;
-            SSLSession sslSession = sslSocket.getSession();
-            this.negotiatedTlsProtocol = TlsVersion.fromJdkString(sslSession.getProtocol());
-            this.negotiatedCipher = sslSession.getCipherSuite();
-            this.tlsSessionId = sslSession.getId();
-            if (clientHello != null) {
-                this.sni = clientHello.getSniHostName();
-                this.requestedTlsSessionId = clientHello.getSessionId();
-            } else {
-                this.sni = "";
-                this.requestedTlsSessionId = null;
-            }
-            Certificate[] certificates;
-            try {
-                certificates = sslSession.getPeerCertificates();
-            } catch (SSLPeerUnverifiedException e) {
-                certificates = null;
-            }
-            if (certificates != null) {
-                X509Certificate[] x509Certificates = new X509Certificate[certificates.length];
-                for (int i = 0; i < certificates.length; i++) {
-                    x509Certificates[i] = (X509Certificate)certificates[i];
-                }
-                tlsCertificates = x509Certificates;
-            } else {
-                tlsCertificates = null;
-            }
-        } else {
-            ssl = false;
-            this.negotiatedTlsProtocol = null;
-            this.negotiatedCipher = null;
-            this.sni = null;
-            this.tlsCertificates = null;
-            this.tlsSessionId = null;
-            this.requestedTlsSessionId = null;
-        }
+        this.sslSession = sslSession;
+        this.clientHello = clientHello;
+        this.tlsSessionResumed = tlsSessionResumed;
     }
 
     Socket getSocket() {
@@ -106,13 +72,16 @@ public class ConnectionContext {
      * @return true if this is an SSL connection or false if it is plain connection
      */
     public boolean isSsl() {
-        return ssl;
+        return sslSession != null;
     }
 
     /**
      * @return A TLS protocol negotiated during TLS handshake or null if TLS handshake did not happen
      */
     public TlsVersion getNegotiatedTlsProtocol() {
+        if (negotiatedTlsProtocol == null && sslSession != null) {
+            negotiatedTlsProtocol = TlsVersion.fromJdkString(sslSession.getProtocol());
+        }
         return negotiatedTlsProtocol;
     }
 
@@ -120,28 +89,43 @@ public class ConnectionContext {
      * @return A TLS cipher negotiated during TLS handshake or null if TLS handshake did not happen
      */
     public String getNegotiatedCipher() {
-        return negotiatedCipher;
+        return sslSession != null ? sslSession.getCipherSuite() : null;
     }
 
     /**
      * @return A session id or null if TLS handshake did not happen
      */
     public byte[] getTlsSessionId() {
+        if (tlsSessionId == null && sslSession != null) {
+            // SSLSession makes a copy of the id every time
+            tlsSessionId = sslSession.getId();
+        }
         return tlsSessionId;
     }
 
+    /**
+     * @return true if TLS handshake resumed an earlier session (using the session cache or a session ticket), false if
+     *         a full handshake was done or if this is not TLS connection
+     */
+    public boolean isTlsSessionResumed() {
+        return tlsSessionResumed;
+    }
+
     /**
      * @return A session id as received in a ClientHello
      */
     public byte[] getRequestedTlsSessionId() {
-        return requestedTlsSessionId;
+        return sslSession != null && clientHello != null ? clientHello.getSessionId() : null;
     }
 
     /**
      * @return SNIs received from the client during TLS handshake
      */
     public String getSni() {
-        return sni;
+        if (sslSession == null) {
+            return null;
+        }
+        return clientHello != null ? clientHello.getSniHostName() : "";
     }
 
     /**
@@ -149,6 +133,10 @@ public class ConnectionContext {
      *         client did not send any certificates
      */
     public X509Certificate[] getTlsCertificates() {
+        if (!tlsCertificatesRead && sslSession != null) {
+            tlsCertificates = readPeerCertificates(sslSession);
+            tlsCertificatesRead = true;
+        }
         return tlsCertificates;
     }
 
@@ -156,4 +144,21 @@ public class ConnectionContext {
         return closeAction;
     }
 
+    private static X509Certificate[] readPeerCertificates(SSLSession sslSession) {
+        Certificate[] certificates;
+        try {
+            certificates = sslSession.getPeerCertificates();
+        } catch (SSLPeerUnverifiedException e) {
+            return null;
+        }
+        if (certificates == null) {
+            return null;
+        }
+        X509Certificate[] x509Certificates = new X509Certificate[certificates.length];
+        for (int i = 0; i < certificates.length; i++) {
+            x509Certificates[i] = (X509Certificate)certificates[i];
+        }
+        return x509Certificates;
+    }
+
 }
@@ -0,0 +1,210 @@
+package serguei.http;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+
+import serguei.http.utils.Utils;
+
+/**
+ * Read and write deadlines of a server connection kept in TimerWheel instead of socket timeout
+ *
+ * The connection goes through phases: waiting for a request (keep-alive), reading request headers, processing the
+ * request (reading the body and writing the response), and back to waiting. While a read is blocked, its deadline
+ * depends on the phase: keep-alive and body timeouts limit how long one read can wait, the header timeout limits the
+ * time of reading all headers from the first byte of the request (so that a client can not keep the connection by
+ * sending a byte at a time). Any blocked write is limited by the write timeout. Time spent by the request handler
+ * outside reads and writes is not limited.
+ *
+ * When a deadline passes, the thread of the wheel closes the socket (resets it, unless the connection was idle), so
+ * the blocked read or write fails and the connection is finished as if the client closed it.
+ */
+class ConnectionTimer extends TimerWheel.Timer {
+
+    enum Phase {
+        KEEP_ALIVE, HEADERS, BODY
+    }
+
+    private final TimerWheel wheel;
+    private final Socket socket;
+    private final int headerTimeoutMils;
+    private final int bodyTimeoutMils;
+    private final int keepAliveTimeoutMils;
+    private final int writeTimeoutMils;
+    private volatile Phase phase = Phase.KEEP_ALIVE;
+    private volatile boolean writing;
+    private long headersDeadline;
+    private volatile Phase expiredIn;
+
+    /**
+     * @param socket
+     *            - the socket to close when a deadline passes (for TLS connection - the underlying TCP socket)
+     * @param headerTimeoutMils
+     *            - time for reading request headers from the first byte of the request, 0 - no limit
+     * @param bodyTimeoutMils
+     *            - time one read of a request body can wait for data, 0 - no limit
+     * @param keepAliveTimeoutMils
+     *            - time waiting for the next request, 0 - no limit
+     * @param writeTimeoutMils
+     *            - time one write can be blocked, 0 - no limit
+     */
+    ConnectionTimer(TimerWheel wheel, Socket socket, int headerTimeoutMils, int bodyTimeoutMils,
+            int keepAliveTimeoutMils, int writeTimeoutMils) {
+        this.wheel = wheel;
+        this.socket = socket;
+        this.headerTimeoutMils = headerTimeoutMils;
+        this.bodyTimeoutMils = bodyTimeoutMils;
+        this.keepAliveTimeoutMils = keepAliveTimeoutMils;
+        this.writeTimeoutMils = writeTimeoutMils;
+        wheel.add(this);
+    }
+
+    /**
+     * Request headers were read, reads after that are reads of the body
+     */
+    void headersReceived() {
+        phase = Phase.BODY;
+    }
+
+    /**
+     * Request was processed, the connection waits for the next one
+     */
+    void requestCompleted() {
+        phase = Phase.KEEP_ALIVE;
+    }
+
+    /**
+     * @return the phase in which a deadline passed, null if it did not
+     */
+    Phase getExpiredPhase() {
+        return expiredIn;
+    }
+
+    /**
+     * Removes the timer from the wheel when the connection is closed
+     */
+    void cancel() {
+        wheel.remove(this);
+    }
+
+    InputStream wrap(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                startRead();
+                int result = -1;
+                try {
+                    result = super.read();
+                } finally {
+                    endRead(result != -1 ? 1 : -1);
+                }
+                return result;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                startRead();
+                int result = -1;
+                try {
+                    result = super.read(b, off, len);
+                } finally {
+                    endRead(result);
+                }
+                return result;
+            }
+        };
+    }
+
+    OutputStream wrap(OutputStream outputStream) {
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                startWrite();
+                try {
+                    out.write(b);
+                } finally {
+                    endWrite();
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                startWrite();
+                try {
+                    out.write(b, off, len);
+                } finally {
+                    endWrite();
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                startWrite();
+                try {
+                    out.flush();
+                } finally {
+                    endWrite();
+                }
+            }
+        };
+    }
+
+    @Override
+    protected void expire() {
+        expiredIn = phase;
+        if (phase != Phase.KEEP_ALIVE || writing) {
+            try {
+                // a client which is too slow does not get graceful close
+                socket.setSoLinger(true, 0);
+            } catch (SocketException e) {
+                // it is being closed anyway
+            }
+        }
+        Utils.closeQuietly(socket);
+    }
+
+    private void startRead() {
+        switch (phase) {
+            case KEEP_ALIVE:
+                setTimeout(keepAliveTimeoutMils);
+                break;
+            case HEADERS:
+                if (headerTimeoutMils > 0) {
+                    setDeadline(wheel, headersDeadline);
+                }
+                break;
+            default:
+                setTimeout(bodyTimeoutMils);
+        }
+    }
+
+    private void endRead(int read) {
+        clearDeadline();
+        if (phase == Phase.KEEP_ALIVE && read > 0) {
+            // the first bytes of the next request, all headers must arrive by the deadline
+            phase = Phase.HEADERS;
+            headersDeadline = TimerWheel.now() + headerTimeoutMils;
+        }
+    }
+
+    private void startWrite() {
+        writing = true;
+        setTimeout(writeTimeoutMils);
+    }
+
+    private void endWrite() {
+        clearDeadline();
+        writing = false;
+    }
+
+    private void setTimeout(int timeoutMils) {
+        if (timeoutMils > 0) {
+            setDeadline(wheel, TimerWheel.now() + timeoutMils);
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package serguei.http;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct byte buffers of the same size
+ *
+ * Allocating a direct buffer is expensive and memory is freed only by GC, so we keep released buffers for reuse. The
+ * number of buffers kept is limited, buffers released above the limit are left for GC.
+ */
+class DirectBufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger(0);
+
+    DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return cleared buffer of bufferSize capacity
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            buffer.clear();
+            return buffer;
+        } else {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    /**
+     * Returns the buffer to the pool, buffers not acquired from this pool (e.g. because of different size) are ignored
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize) {
+            if (pooled.incrementAndGet() <= maxPooled) {
+                buffers.offer(buffer);
+            } else {
+                pooled.decrementAndGet();
+            }
+        }
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+}
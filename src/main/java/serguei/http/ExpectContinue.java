@@ -0,0 +1,120 @@
+package serguei.http;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Handling of "Expect: 100-continue" for one request on the server side
+ *
+ * The client waits for "100 Continue" before sending the body, so the interim response is sent only when the request
+ * handler starts reading the body. If the handler starts writing its response first (e.g. rejects the request
+ * without reading the body), the interim response is not sent at all.
+ */
+final class ExpectContinue {
+
+    private static final byte[] CONTINUE_RESPONSE = ("HTTP/1.1 100 Continue" + HttpHeaders.LINE_SEPARATOR
+            + HttpHeaders.LINE_SEPARATOR).getBytes();
+
+    private final OutputStream outputStream;
+    private boolean continueSent;
+    private boolean responseStarted;
+
+    /**
+     * @param outputStream
+     *            - stream to write the interim response to
+     */
+    ExpectContinue(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * @return true if the request is HTTP/1.1 request with "Expect: 100-continue" header
+     */
+    static boolean isExpected(HttpRequestHeaders requestHeaders) {
+        return HttpVersion.HTTP_1_1.equals(requestHeaders.getVersion())
+                && "100-continue".equalsIgnoreCase(requestHeaders.getHeader("Expect"));
+    }
+
+    /**
+     * @return the request body stream which sends the interim response before the first read
+     */
+    InputStream wrap(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                sendContinue();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                sendContinue();
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                sendContinue();
+                return super.skip(n);
+            }
+        };
+    }
+
+    /**
+     * @return the response stream which notes that the response has started
+     */
+    OutputStream wrap(OutputStream handlerOutputStream) {
+        return new FilterOutputStream(handlerOutputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                responseStarted = true;
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                responseStarted = true;
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * @return the stream for the handler of request headers, if that handler writes anything (e.g. its own "100
+     *         Continue"), the interim response is considered sent
+     */
+    OutputStream wrapForHeadersHandler(OutputStream headersHandlerOutputStream) {
+        return new FilterOutputStream(headersHandlerOutputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                continueSent = true;
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                continueSent = true;
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * @return true if the client has been told to send the body
+     */
+    boolean isContinueSent() {
+        return continueSent;
+    }
+
+    private void sendContinue() throws IOException {
+        if (!continueSent && !responseStarted) {
+            continueSent = true;
+            outputStream.write(CONTINUE_RESPONSE);
+            outputStream.flush();
+        }
+    }
+
+}
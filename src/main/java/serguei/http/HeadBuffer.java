@@ -0,0 +1,109 @@
+package serguei.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffer for encoding the head of HTTP message (the first line and headers) before writing it with one call
+ *
+ * Characters are encoded as ISO-8859-1 directly into the array (characters which can't be encoded are replaced with
+ * '?', as String.getBytes() does). The buffer is reused by the thread, as every connection is processed by one thread
+ * this means one buffer per connection. A buffer which grew too big is not kept.
+ */
+final class HeadBuffer {
+
+    private static final int INITIAL_SIZE = 1024;
+    private static final int MAX_KEPT_SIZE = 64 * 1024;
+    private static final ThreadLocal<HeadBuffer> buffers = new ThreadLocal<HeadBuffer>() {
+        @Override
+        protected HeadBuffer initialValue() {
+            return new HeadBuffer();
+        }
+    };
+
+    private byte[] data = new byte[INITIAL_SIZE];
+    private int size;
+
+    private HeadBuffer() {
+
+    }
+
+    /**
+     * @return empty buffer of the current thread
+     */
+    static HeadBuffer get() {
+        HeadBuffer buffer = buffers.get();
+        buffer.size = 0;
+        return buffer;
+    }
+
+    HeadBuffer put(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            data[size++] = ch <= 0xFF ? (byte)ch : (byte)'?';
+        }
+        return this;
+    }
+
+    HeadBuffer put(byte[] value) {
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, data, size, value.length);
+        size += value.length;
+        return this;
+    }
+
+    HeadBuffer put(char ch) {
+        ensureCapacity(1);
+        data[size++] = (byte)ch;
+        return this;
+    }
+
+    HeadBuffer putNumber(int value) {
+        if (value < 0) {
+            return put(Integer.toString(value));
+        }
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            data[i] = (byte)('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    HeadBuffer putLineSeparator() {
+        ensureCapacity(2);
+        data[size++] = '\r';
+        data[size++] = '\n';
+        return this;
+    }
+
+    /**
+     * Writes the content of the buffer with one call
+     */
+    void writeTo(OutputStream outputStream) throws IOException {
+        try {
+            outputStream.write(data, 0, size);
+        } finally {
+            size = 0;
+            if (data.length > MAX_KEPT_SIZE) {
+                data = new byte[INITIAL_SIZE];
+            }
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > data.length) {
+            byte[] newData = new byte[Math.max(data.length * 2, size + extra)];
+            System.arraycopy(data, 0, newData, 0, size);
+            data = newData;
+        }
+    }
+
+}
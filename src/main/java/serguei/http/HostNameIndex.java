@@ -0,0 +1,72 @@
+package serguei.http;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of values by host name as received in SNI. Names are either exact (www.example.com) or wildcards
+ * (*.example.com) which match exactly one label in front of the suffix, the same way as wildcard certificates.
+ *
+ * Lookup is two hash map lookups independently of the number of names, so this can hold thousands of hosts. Names are
+ * case-insensitive. This is thread safe, values can be added while lookups are in progress.
+ */
+class HostNameIndex<T> {
+
+    private final Map<String, T> exactNames = new ConcurrentHashMap<>();
+    // keys are suffixes starting with a dot, e.g. ".example.com" for *.example.com
+    private final Map<String, T> wildcardSuffixes = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the value replacing the value added before with the same name
+     */
+    void put(String name, T value) {
+        name = normalize(name);
+        if (name.startsWith("*.")) {
+            wildcardSuffixes.put(name.substring(1), value);
+        } else {
+            exactNames.put(name, value);
+        }
+    }
+
+    /**
+     * @return value for the host name - an exact match or a wildcard match, null if nothing matches
+     */
+    T get(String hostName) {
+        if (hostName == null || hostName.isEmpty()) {
+            return null;
+        }
+        hostName = normalize(hostName);
+        T value = exactNames.get(hostName);
+        if (value == null) {
+            int dot = hostName.indexOf('.');
+            if (dot > 0) {
+                value = wildcardSuffixes.get(hostName.substring(dot));
+            }
+        }
+        return value;
+    }
+
+    Collection<T> values() {
+        List<T> values = new ArrayList<>(exactNames.size() + wildcardSuffixes.size());
+        values.addAll(exactNames.values());
+        values.addAll(wildcardSuffixes.values());
+        return values;
+    }
+
+    int size() {
+        return exactNames.size() + wildcardSuffixes.size();
+    }
+
+    private static String normalize(String name) {
+        name = name.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        return name;
+    }
+
+}
@@ -5,6 +5,8 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
@@ -16,6 +18,13 @@ class HttpBody {
 
     static final String BODY_CODEPAGE = "UTF-8";
     private static final int BUFFER_SIZE = 1024 * 4;
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> transferBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[TRANSFER_BUFFER_SIZE];
+        }
+    };
 
     private final InputStream bodyInputStream;
     private final boolean hasBody;
@@ -69,6 +78,35 @@ class HttpBody {
         return userFacingStream;
     }
 
+    /**
+     * Writes the whole (decompressed) body to the channel
+     *
+     * When the body is not compressed and the user has not taken its stream, the data is read directly from the
+     * length-limiting (or un-chunking) stream: reads of the large buffer bypass the buffer of the connection stream once
+     * it is empty, so the data is copied only once on the way to the channel. The buffer is reused by the thread.
+     *
+     * @return number of bytes written
+     */
+    long transferTo(WritableByteChannel channel) throws IOException {
+        if (!hasBody) {
+            return 0;
+        }
+        InputStream stream = userFacingStream == null && !compressed ? bodyInputStream : getBodyInputStream();
+        byte[] buffer = transferBuffers.get();
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        long total = 0;
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            wrapped.clear();
+            wrapped.limit(read);
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+            total += read;
+        }
+        return total;
+    }
+
     void drain() throws IOException {
         if (hasBody) {
             if (userFacingStream != null) {
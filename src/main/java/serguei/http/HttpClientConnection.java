@@ -11,6 +11,12 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -19,6 +25,7 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.function.Supplier;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -44,9 +51,9 @@ import serguei.http.utils.Utils;
 public class HttpClientConnection implements Closeable {
 
     private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_CACHED_SSL_CONTEXTS = 1024;
 
-    private static SSLContext noHostValidatingContext;
-    private static SSLContext hostValidatingContext;
+    private static final ClientSslContextCache sslContexts = new ClientSslContextCache(MAX_CACHED_SSL_CONTEXTS);
 
     private final InetSocketAddress serverAddress;
     private Socket socket;
@@ -58,9 +65,16 @@ public class HttpClientConnection implements Closeable {
     private TlsVersion negotiatedTlsProtocol;
     private String negotiatedCipher;
     private byte[] tlsSessionId;
+    private boolean tlsSessionResumed;
     private int timeoutMs = 0;
     private int connectTimeoutMs = 0;
     private boolean tcpNoDelay;
+    private int expectContinueTimeoutMs = 0;
+    private boolean closeBeforeNextRequest;
+    // TLS handshake to repeat when the connection is re-established after closeBeforeNextRequest
+    private SSLContext tlsContext;
+    private String tlsHostName;
+    private boolean tlsCheckHostname;
 
     /**
      * Create an instance of HttpClientConnection. We don't connect to the server yet at this point.
@@ -205,13 +219,19 @@ public class HttpClientConnection implements Closeable {
                 requestHeaders.setHeader("Content-Encoding", "deflate");
             }
             requestHeaders.setHeader("Content-Length", Integer.toString(body.length));
-        }
-        requestHeaders.write(outputStream);
-        if (body != null) {
+            HttpResponse response = writeHeadersOfRequestWithBody(requestHeaders);
+            if (response != null) {
+                return response;
+            }
             outputStream.write(body);
+        } else {
+            // the caller sends the body (if any) and so gets interim responses, e.g. 100 Continue
+            requestHeaders.write(outputStream);
+            outputStream.flush();
+            return new HttpResponse(inputStream);
         }
         outputStream.flush();
-        return new HttpResponse(inputStream);
+        return readResponse();
     }
 
     /**
@@ -263,19 +283,168 @@ public class HttpClientConnection implements Closeable {
             bodyStream = new DeflaterOutputStream(bodyStream);
         }
         requestHeaders.setHeader("Transfer-Encoding", "chunked");
-        requestHeaders.write(outputStream);
+        HttpResponse response = writeHeadersOfRequestWithBody(requestHeaders);
+        if (response != null) {
+            return response;
+        }
         byte[] buffer = new byte[BUFFER_SIZE];
         int read;
         while ((read = body.read(buffer)) != -1) {
             bodyStream.write(buffer, 0, read);
         }
         bodyStream.close();
-        return new HttpResponse(inputStream);
+        return readResponse();
+    }
+
+    /**
+     * This sends a request with a body of known length and waits for a response. It will create a connection if
+     * necessary.
+     *
+     * The body is copied from the stream to the connection as it is read, without chunked transfer encoding. This adds
+     * "Content-Length" header to requestHeaders before sending the request. Exactly contentLength bytes are read from
+     * the stream, anything after them is left in the stream.
+     *
+     * @param requestHeaders
+     *            - request headers that will be sent to the server
+     * @param body
+     *            - an input stream from where to read data for the request body
+     * @param contentLength
+     *            - length of the body
+     * @return a response the server sends after receiving the request
+     * @throws IOException
+     *             - also when the stream ends before contentLength bytes were read, the connection is closed then as
+     *             the server still waits for the rest of the body
+     */
+    public HttpResponse send(HttpRequestHeaders requestHeaders, InputStream body, long contentLength)
+            throws IOException {
+        HttpResponse response = startBodyWithLength(requestHeaders, contentLength);
+        if (response != null) {
+            return response;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long left = contentLength;
+        int read;
+        while (left > 0 && (read = body.read(buffer, 0, (int)Math.min(buffer.length, left))) != -1) {
+            outputStream.write(buffer, 0, read);
+            left -= read;
+        }
+        return finishBodyWithLength(contentLength, left);
+    }
+
+    /**
+     * This sends a request with a body of known length and waits for a response. It will create a connection if
+     * necessary.
+     *
+     * The body is copied from the channel (which must be in blocking mode) to the connection as it is read, without
+     * chunked transfer encoding. This adds "Content-Length" header to requestHeaders before sending the request.
+     * Exactly contentLength bytes are read from the channel, anything after them is left in the channel.
+     *
+     * @param requestHeaders
+     *            - request headers that will be sent to the server
+     * @param body
+     *            - a channel from where to read data for the request body
+     * @param contentLength
+     *            - length of the body
+     * @return a response the server sends after receiving the request
+     * @throws IOException
+     *             - also when the channel ends before contentLength bytes were read, the connection is closed then as
+     *             the server still waits for the rest of the body
+     */
+    public HttpResponse send(HttpRequestHeaders requestHeaders, ReadableByteChannel body, long contentLength)
+            throws IOException {
+        HttpResponse response = startBodyWithLength(requestHeaders, contentLength);
+        if (response != null) {
+            return response;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long left = contentLength;
+        int read;
+        while (left > 0) {
+            buffer.clear();
+            buffer.limit((int)Math.min(buffer.capacity(), left));
+            if ((read = body.read(buffer)) == -1) {
+                break;
+            }
+            outputStream.write(buffer.array(), 0, read);
+            left -= read;
+        }
+        return finishBodyWithLength(contentLength, left);
+    }
+
+    /**
+     * This sends a request with the content of the file as a body and waits for a response. It will create a
+     * connection if necessary.
+     *
+     * The file is copied to the connection as it is read. This adds "Content-Length" header with the size of the file
+     * to requestHeaders before sending the request.
+     *
+     * @param requestHeaders
+     *            - request headers that will be sent to the server
+     * @param file
+     *            - file to send
+     * @return a response the server sends after receiving the request
+     * @throws IOException
+     *             - also when the file became shorter while it was sent
+     */
+    public HttpResponse send(HttpRequestHeaders requestHeaders, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return send(requestHeaders, channel, channel.size());
+        }
+    }
+
+    /**
+     * This sends a request with multipart/form-data body and waits for a response. It will create a connection if
+     * necessary.
+     *
+     * Parts of the body are streamed from their sources to the connection. This adds "Content-Type" header with the
+     * boundary of the body and "Content-Length" header when the length of every part is known, otherwise the body is
+     * sent using chunked transfer encoding and "Transfer-Encoding: chunked" is added.
+     *
+     * @param requestHeaders
+     *            - request headers that will be sent to the server
+     * @param body
+     *            - a body of the request
+     * @return a response the server sends after receiving the request
+     * @throws IOException
+     */
+    public HttpResponse send(HttpRequestHeaders requestHeaders, MultipartFormDataRequestBody body) throws IOException {
+        connectIfNecessary();
+        requestHeaders.setHeader("Content-Type", body.getContentType());
+        long contentLength = body.getContentLength();
+        if (contentLength >= 0) {
+            requestHeaders.setHeader("Content-Length", Long.toString(contentLength));
+            HttpResponse response = writeHeadersOfRequestWithBody(requestHeaders);
+            if (response != null) {
+                return response;
+            }
+            writeMultipartBody(body, outputStream);
+            outputStream.flush();
+        } else {
+            requestHeaders.setHeader("Transfer-Encoding", "chunked");
+            HttpResponse response = writeHeadersOfRequestWithBody(requestHeaders);
+            if (response != null) {
+                return response;
+            }
+            OutputStream bodyStream = new ChunkedOutputStream(outputStream, true);
+            writeMultipartBody(body, bodyStream);
+            bodyStream.close();
+        }
+        return readResponse();
+    }
+
+    private void writeMultipartBody(MultipartFormDataRequestBody body, OutputStream bodyStream) throws IOException {
+        try {
+            body.writeTo(bodyStream);
+        } catch (IOException e) {
+            // part of the body has been sent, the server would read the next request as the rest of it
+            abortRequest();
+            throw e;
+        }
     }
 
     /**
      * This sends data to the server and waits for a response. It will create a connection if necessary.
-     * 
+     *
      * @param data
      *            - data to be sent to the server as-is
      * 
@@ -319,7 +488,7 @@ public class HttpClientConnection implements Closeable {
      * @throws IOException
      */
     public void startHandshake() throws IOException {
-        startHandshake(serverAddress.getHostString(), getNoHostValidatingContext(), false);
+        startHandshake(serverAddress.getHostString(), false, null, null, null);
     }
 
     /**
@@ -332,7 +501,7 @@ public class HttpClientConnection implements Closeable {
      * @throws IOException
      */
     public void startHandshake(String hostName) throws IOException {
-        startHandshake(hostName, getNoHostValidatingContext(), false);
+        startHandshake(hostName, false, null, null, null);
     }
 
     /**
@@ -352,8 +521,7 @@ public class HttpClientConnection implements Closeable {
      */
     public void startHandshakeWithClientAuth(String hostName, String keyStorePath, String keyStorePassword,
             String certificatePassword) throws IOException {
-        SSLContext sslContext = createSslContext(false, keyStorePath, keyStorePassword, certificatePassword);
-        startHandshake(hostName, sslContext, false);
+        startHandshake(hostName, false, keyStorePath, keyStorePassword, certificatePassword);
     }
 
     /**
@@ -365,7 +533,7 @@ public class HttpClientConnection implements Closeable {
      * @throws IOException
      */
     public void startHandshakeAndValidate() throws IOException {
-        startHandshake(serverAddress.getHostString(), getHostValidatingContext(), true);
+        startHandshake(serverAddress.getHostString(), true, null, null, null);
     }
 
     /**
@@ -378,7 +546,7 @@ public class HttpClientConnection implements Closeable {
      * @throws IOException
      */
     public void startHandshakeAndValidate(String hostName) throws IOException {
-        startHandshake(hostName, getHostValidatingContext(), true);
+        startHandshake(hostName, true, null, null, null);
     }
 
     /**
@@ -398,12 +566,33 @@ public class HttpClientConnection implements Closeable {
      */
     public void startHandshakeWithClientAuthAndValidate(String hostName, String keyStorePath, String keyStorePassword,
             String certificatePassword) throws IOException {
-        SSLContext sslContext = createSslContext(true, keyStorePath, keyStorePassword, certificatePassword);
-        startHandshake(hostName, sslContext, true);
+        startHandshake(hostName, true, keyStorePath, keyStorePassword, certificatePassword);
+    }
+
+    private void startHandshake(String hostname, final boolean validateCertificates, final String keyStorePath,
+            final String keyStorePassword, final String certificatePassword) throws IOException {
+        String origin = (hostname != null ? hostname : serverAddress.getHostString()) + ":" + serverAddress.getPort();
+        SSLContext sslContext = sslContexts.get(origin, validateCertificates, keyStorePath, keyStorePassword,
+                certificatePassword, new Supplier<SSLContext>() {
+                    @Override
+                    public SSLContext get() {
+                        return createSslContext(validateCertificates, keyStorePath, keyStorePassword,
+                                certificatePassword);
+                    }
+                });
+        startHandshake(hostname, sslContext, validateCertificates);
     }
 
     private void startHandshake(String hostname, SSLContext sslContext, boolean checkHostname) throws IOException {
+        if (closeBeforeNextRequest) {
+            close();
+        }
         connectIfNecessary();
+        handshake(hostname, sslContext, checkHostname);
+    }
+
+    private void handshake(String hostname, SSLContext sslContext, boolean checkHostname) throws IOException {
+        long startMillis = System.currentTimeMillis();
         SSLSocketFactory socketFactory = sslContext.getSocketFactory();
         SSLSocket sslSocket = (SSLSocket)socketFactory.createSocket(socket, hostname, serverAddress.getPort(), true);
         if (enabledTlsProtocols != null) {
@@ -423,12 +612,17 @@ public class HttpClientConnection implements Closeable {
         negotiatedTlsProtocol = TlsVersion.fromJdkString(session.getProtocol());
         negotiatedCipher = session.getCipherSuite();
         tlsSessionId = session.getId();
+        // a new session is created during the handshake, an older one means that the session was resumed
+        tlsSessionResumed = session.getCreationTime() < startMillis;
         if (checkHostname) {
             HostnameChecker hostnameChecker = new HostnameChecker();
             if (!hostnameChecker.check(hostname, tlsCertificates[0])) {
                 throw new SSLException("Hostname " + hostname + " does not match certificate");
             }
         }
+        tlsContext = sslContext;
+        tlsHostName = hostname;
+        tlsCheckHostname = checkHostname;
     }
 
     /**
@@ -445,6 +639,10 @@ public class HttpClientConnection implements Closeable {
         negotiatedTlsProtocol = null;
         negotiatedCipher = null;
         tlsSessionId = null;
+        tlsSessionResumed = false;
+        closeBeforeNextRequest = false;
+        tlsContext = null;
+        tlsHostName = null;
     }
 
     /**
@@ -489,6 +687,14 @@ public class HttpClientConnection implements Closeable {
         return tlsSessionId;
     }
 
+    /**
+     * @return true if TLS handshake resumed a session of an earlier connection to the same origin (abbreviated
+     *         handshake), false if a full handshake was done or if this is not TLS connection
+     */
+    public boolean isTlsSessionResumed() {
+        return tlsSessionResumed;
+    }
+
     /**
      * @param enabledTlsProtocols
      *            - list of allowed TLS protocols
@@ -530,6 +736,21 @@ public class HttpClientConnection implements Closeable {
         setSocket(connectSocket(connectTimeoutMs > 0 ? connectTimeoutMs : timeoutMs));
     }
 
+    /**
+     * Sets how long to wait for "100 Continue" before sending a request body
+     *
+     * When the timeout is positive, requests with a body are sent with "Expect: 100-continue" header and the body is
+     * sent only after the server answers with 100 Continue or the timeout expires. If the server answers with a final
+     * response instead (e.g. rejects a large upload), the body is not sent, the response is returned and the
+     * connection is re-established for the next request (repeating the TLS handshake if it was done).
+     *
+     * @param expectContinueTimeoutMs
+     *            - timeout in milliseconds, 0 (default) - do not send "Expect: 100-continue"
+     */
+    public void setExpectContinueTimeoutMillis(int expectContinueTimeoutMs) {
+        this.expectContinueTimeoutMs = expectContinueTimeoutMs;
+    }
+
     /**
      * Sets timeout for IO operations on socket
      *
@@ -574,18 +795,53 @@ public class HttpClientConnection implements Closeable {
     }
 
     /**
-     * Clear SslContext. This will clear all cached SSL sessions.
+     * Clear SslContexts. This will clear all cached SSL sessions.
+     * 
+     * SSLContexts are shared by all instances of HttpClientConnection, there is one per origin (host name and port)
+     * and client configuration, so connections to the same origin can resume earlier TLS sessions
      */
     public static void clearSslContexts() {
-        synchronized (HttpClientConnection.class) {
-            noHostValidatingContext = null;
-            hostValidatingContext = null;
-        }
+        sslContexts.clear();
     }
 
     private void connectIfNecessary() throws IOException {
-        if (socket == null) {
+        if (closeBeforeNextRequest) {
+            reconnect();
+        } else if (socket == null) {
+            setSocket(connectSocket(connectTimeoutMs > 0 ? connectTimeoutMs : timeoutMs));
+        }
+    }
+
+    /**
+     * Closes the connection when a request could not be sent fully, the next request re-establishes it
+     */
+    private void abortRequest() {
+        Utils.closeQuietly(socket);
+        closeBeforeNextRequest = true;
+    }
+
+    /**
+     * Re-establishes the connection which was closed by this class, repeating the TLS handshake if it was done, so the
+     * next request is never sent in clear text to a TLS server
+     */
+    private void reconnect() throws IOException {
+        SSLContext sslContext = tlsContext;
+        String hostName = tlsHostName;
+        boolean checkHostname = tlsCheckHostname;
+        close();
+        try {
             setSocket(connectSocket(connectTimeoutMs > 0 ? connectTimeoutMs : timeoutMs));
+            if (sslContext != null) {
+                handshake(hostName, sslContext, checkHostname);
+            }
+        } catch (IOException | RuntimeException e) {
+            // the next request tries again rather than going through a connection without TLS
+            close();
+            tlsContext = sslContext;
+            tlsHostName = hostName;
+            tlsCheckHostname = checkHostname;
+            closeBeforeNextRequest = true;
+            throw e;
         }
     }
 
@@ -669,6 +925,94 @@ public class HttpClientConnection implements Closeable {
         }
     }
 
+    /**
+     * @return a final response if the server answered without waiting for the body (see
+     *         setExpectContinueTimeoutMillis()), otherwise null
+     */
+    private HttpResponse startBodyWithLength(HttpRequestHeaders requestHeaders, long contentLength)
+            throws IOException {
+        if (contentLength < 0) {
+            throw new IllegalArgumentException("Content length cannot be negative: " + contentLength);
+        }
+        connectIfNecessary();
+        requestHeaders.removeHeader("Transfer-Encoding");
+        requestHeaders.setHeader("Content-Length", Long.toString(contentLength));
+        return writeHeadersOfRequestWithBody(requestHeaders);
+    }
+
+    private HttpResponse finishBodyWithLength(long contentLength, long left) throws IOException {
+        if (left > 0) {
+            abortRequest();
+            throw new IOException("Request body is shorter than declared: " + (contentLength - left)
+                    + " bytes instead of " + contentLength);
+        }
+        outputStream.flush();
+        return readResponse();
+    }
+
+    /**
+     * Writes headers of a request which has a body, if waiting for 100 Continue is configured, this adds "Expect:
+     * 100-continue" header and waits for the server to ask for the body
+     * 
+     * @return a final response if the server answered without asking for the body (the body must not be sent then),
+     *         otherwise null
+     */
+    private HttpResponse writeHeadersOfRequestWithBody(HttpRequestHeaders requestHeaders) throws IOException {
+        if (expectContinueTimeoutMs <= 0) {
+            requestHeaders.write(outputStream);
+            return null;
+        }
+        requestHeaders.setHeader("Expect", "100-continue");
+        requestHeaders.write(outputStream);
+        outputStream.flush();
+        try {
+            while (true) {
+                socket.setSoTimeout(expectContinueTimeoutMs);
+                inputStream.mark(1);
+                try {
+                    if (inputStream.read() == -1) {
+                        // the server closed the connection, sending the body will fail
+                        return null;
+                    }
+                } catch (SocketTimeoutException e) {
+                    // the server may not support Expect header, the body is sent anyway as RFC 7231 suggests
+                    return null;
+                }
+                inputStream.reset();
+                socket.setSoTimeout(timeoutMs);
+                HttpResponseHeaders responseHeaders = new HttpResponseHeaders(inputStream);
+                int status = responseHeaders.getStatusCode();
+                if (status == HttpStatus.CONTINUE) {
+                    return null;
+                } else if (!isInterimStatus(status)) {
+                    // the server did not read the body, so it will close the connection or read the body as the
+                    // next request
+                    closeBeforeNextRequest = true;
+                    return new HttpResponse(responseHeaders, inputStream);
+                }
+            }
+        } finally {
+            socket.setSoTimeout(timeoutMs);
+        }
+    }
+
+    /**
+     * Reads the response skipping interim (1xx) responses, e.g. 100 Continue which arrived after we stopped waiting
+     * for it
+     */
+    private HttpResponse readResponse() throws IOException {
+        HttpResponseHeaders responseHeaders = new HttpResponseHeaders(inputStream);
+        while (isInterimStatus(responseHeaders.getStatusCode())) {
+            responseHeaders = new HttpResponseHeaders(inputStream);
+        }
+        return new HttpResponse(responseHeaders, inputStream);
+    }
+
+    private static boolean isInterimStatus(int status) {
+        // 101 Switching Protocols is the last response before the connection changes protocol
+        return status >= 100 && status < 200 && status != HttpStatus.SWITCHING_PROTOCOLS;
+    }
+
     private byte[] gzip(byte[] data) throws IOException {
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         GZIPOutputStream gzipOutput = new GZIPOutputStream(output);
@@ -691,32 +1035,4 @@ public class HttpClientConnection implements Closeable {
         this.outputStream = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
     }
 
-    private SSLContext getNoHostValidatingContext() {
-        SSLContext result = noHostValidatingContext;
-        if (result == null) {
-            synchronized (HttpClientConnection.class) {
-                if (noHostValidatingContext == null) {
-                    noHostValidatingContext = createSslContext(false, null, null, null);
-                }
-                return noHostValidatingContext;
-            }
-        } else {
-            return result;
-        }
-    }
-
-    private SSLContext getHostValidatingContext() {
-        SSLContext result = hostValidatingContext;
-        if (result == null) {
-            synchronized (HttpClientConnection.class) {
-                if (hostValidatingContext == null) {
-                    hostValidatingContext = createSslContext(true, null, null, null);
-                }
-                return hostValidatingContext;
-            }
-        } else {
-            return result;
-        }
-    }
-
 }
@@ -0,0 +1,57 @@
+package serguei.http;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Value of Date header (IMF-fixdate from RFC 7231, e.g. "Sun, 06 Nov 1994 08:49:37 GMT") for the current second
+ *
+ * The value changes only once a second, so it is formatted and encoded when the first response in a new second asks
+ * for it, and all other responses in that second get the same String and byte array.
+ */
+final class HttpDate {
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static volatile HttpDate current = new HttpDate(System.currentTimeMillis() / 1000);
+
+    private final long second;
+    private final String value;
+    private final byte[] bytes;
+
+    private HttpDate(long second) {
+        this.second = second;
+        this.value = FORMAT.format(Instant.ofEpochSecond(second));
+        this.bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return date for the current second
+     */
+    static HttpDate now() {
+        HttpDate date = current;
+        long second = System.currentTimeMillis() / 1000;
+        if (date.second != second) {
+            // a race between threads is harmless - they create the same value
+            date = new HttpDate(second);
+            current = date;
+        }
+        return date;
+    }
+
+    String getValue() {
+        return value;
+    }
+
+    /**
+     * @return the value encoded as ISO-8859-1, the array must not be modified
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+
+}
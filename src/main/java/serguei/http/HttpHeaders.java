@@ -3,11 +3,9 @@ package serguei.http;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * HTTP headers
@@ -19,21 +17,22 @@ abstract class HttpHeaders {
 
     static final String LINE_SEPARATOR = "\r\n";
     static final byte[] LINE_SEPARATOR_BYTES = LINE_SEPARATOR.getBytes();
-    protected static final byte[] SPACE = " ".getBytes();
     private static final String KEY_VALUE_SEPARATOR = ": ";
     private static final byte[] KEY_VALUE_SEPARATOR_BYTES = KEY_VALUE_SEPARATOR.getBytes();
     private static final int MAX_HEADER_NUMBER = 1000;
     private static final int UPPER_LOW_DIFF = 'a' - 'A';
     private static final BodyEncoding NO_BODY_ENCODING = new BodyEncoding(false, null);
 
-    private final Map<String, HeaderValues> headers = new LinkedHashMap<>();
+    // the table can be shared between copies of headers, it is copied before the first change (copy-on-write)
+    private HeaderTable headers;
 
     protected HttpHeaders() {
-
+        headers = new HeaderTable();
     }
 
     protected HttpHeaders(HttpHeaders headers) {
-        this.headers.putAll(headers.headers);
+        headers.headers.shared = true;
+        this.headers = headers.headers;
     }
 
     /**
@@ -57,18 +56,16 @@ abstract class HttpHeaders {
      * Returns null if header does not exit
      */
     public String getHeader(String headerName) {
-        headerName = normalize(headerName);
-        HeaderValues values = headers.get(headerName);
-        return values != null ? values.getValue() : null;
+        int index = headers.indexOf(headerName.trim());
+        return index >= 0 ? headers.getValue(index) : null;
     }
 
     /**
      * This returns headers by name, if there are more then one header with this name, all of them will be returned
      */
     public List<String> getHeaders(String headerName) {
-        headerName = normalize(headerName);
-        HeaderValues values = headers.get(headerName);
-        return values != null ? values.getValues() : null;
+        int index = headers.indexOf(headerName.trim());
+        return index >= 0 ? headers.getValues(index) : null;
     }
 
     /**
@@ -113,19 +110,25 @@ abstract class HttpHeaders {
      * Sets header If headers with this name already exists, replaces it
      */
     public void setHeader(String headerName, String value) {
-        headers.put(normalize(headerName), new HeaderValues(headerName, value));
+        HeaderTable table = tableForChange();
+        int index = table.indexOf(headerName.trim());
+        if (index >= 0) {
+            table.set(index, headerName, value);
+        } else {
+            table.add(normalize(headerName), headerName, value);
+        }
     }
 
     /**
      * Adds a header, if header header with this name already exists, it adds a new entry without deleting existing
      */
     public void addHeader(String headerName, String headerValue) {
-        String normalizedHeaderName = normalize(headerName);
-        HeaderValues values = headers.get(normalizedHeaderName);
-        if (values == null) {
-            headers.put(normalizedHeaderName, new HeaderValues(headerName, headerValue));
+        HeaderTable table = tableForChange();
+        int index = table.indexOf(headerName.trim());
+        if (index >= 0) {
+            table.addValue(index, headerValue);
         } else {
-            headers.put(normalizedHeaderName, values.addValue(headerValue));
+            table.add(normalize(headerName), headerName, headerValue);
         }
     }
 
@@ -133,40 +136,68 @@ abstract class HttpHeaders {
      * Removes header with a specified name
      */
     public void removeHeader(String headerName) {
-        headers.remove(normalize(headerName));
+        HeaderTable table = tableForChange();
+        int index = table.indexOf(headerName.trim());
+        if (index >= 0) {
+            table.remove(index);
+        }
     }
 
     /**
      * @return List of header names
      */
     public List<String> listHeaderNames() {
-        return new ArrayList<>(headers.keySet());
+        List<String> result = new ArrayList<>(headers.size);
+        for (int i = 0; i < headers.size; i++) {
+            result.add(headers.keys[i]);
+        }
+        return result;
     }
 
     /**
      * Write headers into the stream
      */
     protected void write(OutputStream output) throws IOException {
-        for (Entry<String, HeaderValues> headerEntry : headers.entrySet()) {
-            if (headerEntry.getValue().getValue() != null) {
-                for (String header : headerEntry.getValue().getValues()) {
-                    output.write(headerEntry.getValue().getName().getBytes());
-                    output.write(KEY_VALUE_SEPARATOR_BYTES);
-                    output.write(header.getBytes());
-                    output.write(LINE_SEPARATOR_BYTES);
+        HeadBuffer buffer = HeadBuffer.get();
+        putHeaders(buffer);
+        buffer.writeTo(output);
+    }
+
+    /**
+     * Puts headers and the empty line ending them into the buffer
+     */
+    void putHeaders(HeadBuffer buffer) {
+        HeaderTable table = headers;
+        for (int i = 0; i < table.size; i++) {
+            Object value = table.values[i];
+            if (value instanceof String) {
+                putHeader(buffer, table.names[i], (String)value);
+            } else if (value != null) {
+                @SuppressWarnings("unchecked")
+                List<String> values = (List<String>)value;
+                for (String header : values) {
+                    putHeader(buffer, table.names[i], header);
                 }
             } else {
-                output.write(headerEntry.getKey().getBytes());
-                output.write(KEY_VALUE_SEPARATOR_BYTES);
-                output.write(LINE_SEPARATOR_BYTES);
+                putHeader(buffer, table.keys[i], "");
             }
         }
-        output.write(LINE_SEPARATOR_BYTES);
-        output.flush();
+        buffer.putLineSeparator();
+    }
+
+    private static void putHeader(HeadBuffer buffer, String name, String value) {
+        buffer.put(name).put(KEY_VALUE_SEPARATOR_BYTES).put(value).putLineSeparator();
     }
 
     boolean isEmpty() {
-        return headers.isEmpty();
+        return headers.size == 0;
+    }
+
+    private HeaderTable tableForChange() {
+        if (headers.shared) {
+            headers = headers.copy();
+        }
+        return headers;
     }
 
     private static String normalize(String name) {
@@ -227,15 +258,16 @@ abstract class HttpHeaders {
     public String toString() {
         boolean firstLine = true;
         StringBuilder builder = new StringBuilder();
-        for (Entry<String, HeaderValues> headerEntry : headers.entrySet()) {
-            if (headerEntry.getValue().getValue() != null) {
-                for (String header : headerEntry.getValue().getValues()) {
+        HeaderTable table = headers;
+        for (int i = 0; i < table.size; i++) {
+            if (table.getValue(i) != null) {
+                for (String header : table.getValues(i)) {
                     if (!firstLine) {
                         builder.append(System.lineSeparator());
                     } else {
                         firstLine = false;
                     }
-                    builder.append(headerEntry.getValue().getName());
+                    builder.append(table.names[i]);
                     builder.append(KEY_VALUE_SEPARATOR);
                     builder.append(header);
                 }
@@ -245,78 +277,169 @@ abstract class HttpHeaders {
                 } else {
                     firstLine = false;
                 }
-                builder.append(headerEntry.getKey());
+                builder.append(table.keys[i]);
                 builder.append(KEY_VALUE_SEPARATOR);
             }
         }
         return builder.toString();
     }
 
-    private static class HeaderValues {
+    /**
+     * Headers in the order they were added, one entry per header name with all its values
+     *
+     * Entries are kept in parallel arrays, a typical message has 10-20 headers, so we find a header by comparing
+     * precomputed (case insensitive) hashes one by one, and compare the names only when the hash matches. A value is a
+     * String for a single value or a List of Strings when a header has several values.
+     */
+    private static class HeaderTable {
+
+        private static final int INITIAL_CAPACITY = 16;
 
-        private final String name;
-        private final String value;
-        private final List<String> values;
+        private int size;
+        private int[] hashes;
+        private String[] keys; // normalized names
+        private String[] names; // names as they were added
+        private Object[] values;
+        private boolean shared;
 
-        private HeaderValues(String name, String value) {
-            this.name = name;
-            this.value = value;
-            this.values = null;
+        private HeaderTable() {
+            this(INITIAL_CAPACITY);
         }
 
-        private HeaderValues(String name, List<String> values) {
-            this.name = name;
-            this.value = null;
-            this.values = values;
+        private HeaderTable(int capacity) {
+            hashes = new int[capacity];
+            keys = new String[capacity];
+            names = new String[capacity];
+            values = new Object[capacity];
         }
 
-        private String getName() {
-            return name;
+        private HeaderTable copy() {
+            HeaderTable copy = new HeaderTable(Math.max(INITIAL_CAPACITY, size + size / 2));
+            copy.size = size;
+            System.arraycopy(hashes, 0, copy.hashes, 0, size);
+            System.arraycopy(keys, 0, copy.keys, 0, size);
+            System.arraycopy(names, 0, copy.names, 0, size);
+            for (int i = 0; i < size; i++) {
+                Object value = values[i];
+                if (value instanceof List) {
+                    // lists of values are changed in place, so they can't be shared
+                    @SuppressWarnings("unchecked")
+                    List<String> list = (List<String>)value;
+                    value = new ArrayList<>(list);
+                }
+                copy.values[i] = value;
+            }
+            return copy;
         }
 
-        private HeaderValues addValue(String value) {
-            if (this.values == null) {
-                List<String> newValues = new ArrayList<>();
-                newValues.add(this.value);
-                newValues.add(value);
-                return new HeaderValues(name, newValues);
-            } else {
-                List<String> newValues = new ArrayList<>(values);
-                newValues.add(value);
-                return new HeaderValues(name, newValues);
+        /**
+         * @return index of the header or -1 if it does not exist, the name is compared ignoring case
+         */
+        private int indexOf(String name) {
+            int hash = hash(name);
+            for (int i = 0; i < size; i++) {
+                if (hashes[i] == hash && equalsIgnoreCase(keys[i], name)) {
+                    return i;
+                }
             }
+            return -1;
         }
 
-        private String getValue() {
-            if (values != null) {
-                return values.get(0);
-            } else {
-                return value;
+        private String getValue(int index) {
+            Object value = values[index];
+            if (value instanceof String || value == null) {
+                return (String)value;
             }
+            @SuppressWarnings("unchecked")
+            List<String> list = (List<String>)value;
+            return list.get(0);
         }
 
-        private List<String> getValues() {
-            if (values != null) {
-                return values;
+        private List<String> getValues(int index) {
+            Object value = values[index];
+            if (value == null) {
+                return Collections.emptyList();
+            }
+            List<String> result = new ArrayList<>();
+            if (value instanceof String) {
+                result.add((String)value);
             } else {
-                if (value != null) {
-                    List<String> result = new ArrayList<>();
-                    result.add(value);
-                    return result;
-                } else {
-                    return Collections.emptyList();
-                }
+                @SuppressWarnings("unchecked")
+                List<String> list = (List<String>)value;
+                result.addAll(list);
+            }
+            return result;
+        }
+
+        private void add(String key, String name, String value) {
+            if (size == keys.length) {
+                int capacity = size * 2;
+                hashes = Arrays.copyOf(hashes, capacity);
+                keys = Arrays.copyOf(keys, capacity);
+                names = Arrays.copyOf(names, capacity);
+                values = Arrays.copyOf(values, capacity);
             }
+            hashes[size] = hash(key);
+            keys[size] = key;
+            names[size] = name;
+            values[size] = value;
+            size++;
+        }
+
+        private void set(int index, String name, String value) {
+            names[index] = name;
+            values[index] = value;
         }
 
-        @Override
-        public String toString() {
-            if (values != null) {
-                return name + " - " + values;
+        private void addValue(int index, String value) {
+            Object oldValue = values[index];
+            if (oldValue instanceof List) {
+                @SuppressWarnings("unchecked")
+                List<String> list = (List<String>)oldValue;
+                list.add(value);
             } else {
-                return name + " - " + value;
+                List<String> list = new ArrayList<>(4);
+                list.add((String)oldValue);
+                list.add(value);
+                values[index] = list;
             }
         }
+
+        private void remove(int index) {
+            int moved = size - index - 1;
+            System.arraycopy(hashes, index + 1, hashes, index, moved);
+            System.arraycopy(keys, index + 1, keys, index, moved);
+            System.arraycopy(names, index + 1, names, index, moved);
+            System.arraycopy(values, index + 1, values, index, moved);
+            size--;
+            keys[size] = null;
+            names[size] = null;
+            values[size] = null;
+        }
+
+        private static int hash(String name) {
+            int hash = 0;
+            for (int i = 0; i < name.length(); i++) {
+                hash = 31 * hash + toLowerCase(name.charAt(i));
+            }
+            return hash;
+        }
+
+        private static boolean equalsIgnoreCase(String key, String name) {
+            if (key.length() != name.length()) {
+                return false;
+            }
+            for (int i = 0; i < key.length(); i++) {
+                if (toLowerCase(key.charAt(i)) != toLowerCase(name.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static char toLowerCase(char ch) {
+            return ch >= 'A' && ch <= 'Z' ? (char)(ch + UPPER_LOW_DIFF) : ch;
+        }
     }
 
     List<String> headerValues(String headerName) {
@@ -392,22 +515,18 @@ abstract class HttpHeaders {
 
     List<String> encodingData() {
         List<String> result = null;
-        HeaderValues header = headers.get("Content-Encoding");
-        if (header != null) {
+        int index = headers.indexOf("Content-Encoding");
+        if (index >= 0) {
             result = new ArrayList<>();
-            result.add(header.getValue());
+            result.add(headers.getValue(index));
         }
-        header = headers.get("Transfer-Encoding");
-        if (header != null) {
+        index = headers.indexOf("Transfer-Encoding");
+        if (index >= 0) {
             if (result == null) {
                 result = new ArrayList<>();
             }
-            if (header.values != null) {
-                for (String value : header.values) {
-                    addCommaDelimitedValues(value, result);
-                }
-            } else {
-                addCommaDelimitedValues(header.value, result);
+            for (String value : headers.getValues(index)) {
+                addCommaDelimitedValues(value, result);
             }
         }
         if (result != null) {
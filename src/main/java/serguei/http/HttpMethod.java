@@ -0,0 +1,59 @@
+package serguei.http;
+
+/**
+ * Standard HTTP methods
+ * 
+ * Methods of parsed requests are always these constants when the method is standard, so they can be compared by
+ * reference (e.g. request.getMethod() == HttpMethod.GET)
+ */
+public final class HttpMethod {
+
+    public static final String GET = "GET";
+    public static final String HEAD = "HEAD";
+    public static final String POST = "POST";
+    public static final String PUT = "PUT";
+    public static final String DELETE = "DELETE";
+    public static final String CONNECT = "CONNECT";
+    public static final String OPTIONS = "OPTIONS";
+    public static final String TRACE = "TRACE";
+    public static final String PATCH = "PATCH";
+
+    private static final String[] STANDARD_METHODS = {GET, HEAD, POST, PUT, DELETE, CONNECT, OPTIONS, TRACE, PATCH};
+
+    private HttpMethod() {
+
+    }
+
+    /**
+     * @return method between start and end of the line - a constant for standard methods, null if it is not a valid
+     *         method name (token)
+     */
+    static String parse(String line, int start, int end) {
+        int length = end - start;
+        for (String method : STANDARD_METHODS) {
+            if (method.length() == length && line.regionMatches(start, method, 0, length)) {
+                return method;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        for (int i = start; i < end; i++) {
+            if (!isTokenChar(line.charAt(i))) {
+                return null;
+            }
+        }
+        return line.substring(start, end);
+    }
+
+    /**
+     * @return true for characters allowed in a token (RFC 7230, section 3.2.6)
+     */
+    private static boolean isTokenChar(char ch) {
+        if (ch >= 'A' && ch <= 'Z' || ch >= 'a' && ch <= 'z' || ch >= '0' && ch <= '9') {
+            return true;
+        }
+        return "!#$%&'*+-.^_`|~".indexOf(ch) >= 0;
+    }
+
+}
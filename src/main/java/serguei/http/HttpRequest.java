@@ -29,7 +29,8 @@ public class HttpRequest {
         this.headers = requestHeaders;
         this.url = headers.getUrl();
         String method = headers.getMethod();
-        if (!method.equals("GET") && !method.equals("CONNECT")) {
+        // parsed standard methods are constants
+        if (method != HttpMethod.GET && method != HttpMethod.CONNECT) {
             HttpHeaders.BodyEncoding bodyEncoding = headers.getBodyEncoding();
             contentLength = headers.getContentLength();
             chunked = contentLength < 0 && bodyEncoding.isChunked();
@@ -159,16 +160,32 @@ public class HttpRequest {
                 throw new HttpException("Boundary not specified in Content-Type header for multi-part request");
             }
             MultipartBodyParser multipartBodyParser = new MultipartBodyParser(body.getBodyInputStream(), boundary);
-            return new RequestValues(multipartBodyParser);
+            RequestValues values = new RequestValues(multipartBodyParser);
+            // the parser stops after the final border, a chunked body still has the last chunk to be read
+            body.drain();
+            return values;
         } else {
-            if (body != null) {
-                return new RequestValues(body.readAsString());
+            if (hasBody()) {
+                return new RequestValues(body.getBodyInputStream());
             } else {
-                return new RequestValues("");
+                return new RequestValues("", 0, 0);
             }
         }
     }
 
+    /**
+     * This parses the query string of the request target (the part of the path after '?' and before '#')
+     */
+    public RequestValues getQueryValues() {
+        String path = headers.getPath();
+        int start = path.indexOf('?');
+        if (start < 0) {
+            return new RequestValues("", 0, 0);
+        }
+        int end = path.indexOf('#', start);
+        return new RequestValues(path, start + 1, end >= 0 ? end : path.length());
+    }
+
     /**
      * This returns the body of the request as a stream
      * 
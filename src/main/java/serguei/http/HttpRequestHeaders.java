@@ -1,6 +1,5 @@
 package serguei.http;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -29,7 +28,7 @@ public final class HttpRequestHeaders extends HttpHeaders {
      * This creates an instance of HttpRequestHeaders
      * 
      * @param requestLine
-     *            - request line, e.g. "GET / HTTP/1."
+     *            - request line, e.g. "GET / HTTP/1.1"
      * @param headers
      *            - headers in the form "Host: www.google.co.uk"
      * @throws HttpException
@@ -103,19 +102,14 @@ public final class HttpRequestHeaders extends HttpHeaders {
      */
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        out.write(method.getBytes());
-        out.write(SPACE);
-        out.write(path.getBytes());
-        out.write(SPACE);
-        out.write(version.getBytes());
-        out.write(LINE_SEPARATOR_BYTES);
-        super.write(out);
-        outputStream.write(out.toByteArray());
+        HeadBuffer buffer = HeadBuffer.get();
+        buffer.put(method).put(' ').put(path).put(' ').put(version).putLineSeparator();
+        putHeaders(buffer);
+        buffer.writeTo(outputStream);
     }
 
     /**
-     * @return request method (e.g. "GET", "POST")
+     * @return request method (e.g. "GET", "POST"), standard methods are constants from HttpMethod
      */
     public String getMethod() {
         return method;
@@ -140,14 +134,28 @@ public final class HttpRequestHeaders extends HttpHeaders {
         return method + " " + path + " " + version + System.lineSeparator() + super.toString();
     }
 
-    private void parseRequestLine(String commandLine) throws HttpException {
-        String[] parts = commandLine.split(" ");
-        if (parts.length != 3) {
-            throw new HttpException("Wrong number of elements in command line: " + commandLine);
+    /**
+     * Parses "method SP request-target SP HTTP-version", the only allocated string is the path (and the method or the
+     * version when they are not standard)
+     */
+    private void parseRequestLine(String requestLine) throws HttpException {
+        int methodEnd = requestLine.indexOf(' ');
+        int pathEnd = methodEnd > 0 ? requestLine.indexOf(' ', methodEnd + 1) : -1;
+        if (pathEnd < 0 || requestLine.indexOf(' ', pathEnd + 1) >= 0) {
+            throw new HttpException("Wrong number of elements in request line: \"" + requestLine + "\"");
+        }
+        if (pathEnd == methodEnd + 1) {
+            throw new HttpException("Empty path in request line: \"" + requestLine + "\"");
+        }
+        method = HttpMethod.parse(requestLine, 0, methodEnd);
+        if (method == null) {
+            throw new HttpException("Wrong method in request line: \"" + requestLine + "\"");
+        }
+        version = HttpVersion.parse(requestLine, pathEnd + 1, requestLine.length());
+        if (version == null) {
+            throw new HttpException("Wrong HTTP version in request line: \"" + requestLine + "\"");
         }
-        method = parts[0];
-        path = parts[1];
-        version = parts[2];
+        path = requestLine.substring(methodEnd + 1, pathEnd);
     }
 
     private URL parseUrl(String line, String host) throws HttpException {
@@ -2,6 +2,10 @@ package serguei.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.List;
 
@@ -20,7 +24,11 @@ public class HttpResponse {
     private final boolean chunked;
 
     public HttpResponse(InputStream inputStream) throws IOException {
-        this.headers = new HttpResponseHeaders(inputStream);
+        this(new HttpResponseHeaders(inputStream), inputStream);
+    }
+
+    HttpResponse(HttpResponseHeaders responseHeaders, InputStream inputStream) throws IOException {
+        this.headers = responseHeaders;
         contentLength = headers.getContentLength();
         HttpHeaders.BodyEncoding bodyEncoding = headers.getBodyEncoding();
         chunked = contentLength < 0 && bodyEncoding.isChunked();
@@ -101,6 +109,32 @@ public class HttpResponse {
         return body.readAsBytes();
     }
 
+    /**
+     * This reads the body of the response and writes it (decompressed) to the file, the file is created or truncated
+     * 
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public long writeBodyTo(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            return writeBodyTo(channel);
+        }
+    }
+
+    /**
+     * This reads the body of the response and writes it (decompressed) to the channel, the channel is not closed
+     * 
+     * This is faster than copying from getBodyAsStream() as the body is read in large blocks and, if it is not
+     * compressed, without intermediate streams.
+     * 
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public long writeBodyTo(WritableByteChannel channel) throws IOException {
+        return body.transferTo(channel);
+    }
+
     /**
      * This returns the body of the response as a stream
      * 
@@ -0,0 +1,160 @@
+package serguei.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Pre-encoded response head - the status line and headers which are the same for many responses
+ *
+ * The head is encoded once when the template is created, writing it adds only dynamic fields (Content-Length and Date
+ * if the template was created with it, see HttpResponseHeaders.setDateHeader()) and passes the whole head to the
+ * stream as one byte array. This class is immutable and can be shared between threads, e.g. kept in a static field of
+ * the request handler:
+ *
+ * <pre>
+ * private static final HttpResponseHeadTemplate OK_JSON = new HttpResponseHeadTemplate(
+ *         new HttpResponseHeaders("HTTP/1.1 200 OK", "Content-Type: application/json"));
+ * ...
+ * OK_JSON.write(outputStream, body.length);
+ * outputStream.write(body);
+ * </pre>
+ */
+public final class HttpResponseHeadTemplate {
+
+    private static final byte[] CONTENT_LENGTH_PREFIX = (HttpHeaders.LINE_SEPARATOR + "Content-Length: ").getBytes();
+    private static final byte[] DATE_PREFIX = (HttpHeaders.LINE_SEPARATOR + "Date: ").getBytes();
+
+    private final HttpResponseHeaders headers;
+    private final byte[] head;
+    private final byte[] completeHead;
+    private final boolean hasContentLength;
+    private final boolean withDate;
+
+    /**
+     * Creates a template from headers, later changes to the headers do not affect the template
+     */
+    public HttpResponseHeadTemplate(HttpResponseHeaders headers) {
+        this(headers, false);
+    }
+
+    /**
+     * Creates a template from headers, later changes to the headers do not affect the template
+     * 
+     * @param withDate
+     *            - when true, Date header with the current time is added every time the head is written
+     * @throws IllegalArgumentException
+     *             - if withDate is true and the headers already have Date header
+     */
+    public HttpResponseHeadTemplate(HttpResponseHeaders headers, boolean withDate) {
+        if (withDate && headers.getHeader("Date") != null) {
+            throw new IllegalArgumentException("Headers already have Date header");
+        }
+        this.withDate = withDate;
+        this.headers = new HttpResponseHeaders(headers);
+        this.hasContentLength = headers.getHeader("Content-Length") != null;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            headers.write(output);
+        } catch (IOException e) {
+            // can never happen
+        }
+        byte[] data = output.toByteArray();
+        // the head is kept without the line separators ending the last header and the head itself, so that dynamic
+        // headers can be appended
+        int length = data.length - HttpHeaders.LINE_SEPARATOR_BYTES.length * 2;
+        head = new byte[length];
+        System.arraycopy(data, 0, head, 0, length);
+        completeHead = withDate ? null : toBytes(-1);
+    }
+
+    /**
+     * @return a mutable copy of the headers (with Date header if the template adds it), e.g. to add headers which
+     *         the template does not have
+     */
+    public HttpResponseHeaders toHeaders() {
+        HttpResponseHeaders result = new HttpResponseHeaders(headers);
+        if (withDate) {
+            result.setDateHeader();
+        }
+        return result;
+    }
+
+    /**
+     * Writes the head as it is in the template
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        outputStream.write(withDate ? toBytes(-1) : completeHead);
+    }
+
+    /**
+     * Writes the head adding Content-Length header
+     *
+     * @throws IllegalArgumentException
+     *             - if contentLength is negative
+     * @throws IllegalStateException
+     *             - if the template already has Content-Length header
+     */
+    public void write(OutputStream outputStream, long contentLength) throws IOException {
+        if (contentLength < 0) {
+            throw new IllegalArgumentException("Content length cannot be negative: " + contentLength);
+        }
+        if (hasContentLength) {
+            throw new IllegalStateException("Template already has Content-Length header");
+        }
+        outputStream.write(toBytes(contentLength));
+    }
+
+    /**
+     * @return the head with Content-Length header if contentLength is not negative
+     */
+    private byte[] toBytes(long contentLength) {
+        int length = head.length + HttpHeaders.LINE_SEPARATOR_BYTES.length * 2;
+        byte[] date = null;
+        if (withDate) {
+            date = HttpDate.now().getBytes();
+            length += DATE_PREFIX.length + date.length;
+        }
+        int digits = 0;
+        if (contentLength >= 0) {
+            digits = numberOfDigits(contentLength);
+            length += CONTENT_LENGTH_PREFIX.length + digits;
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(head, 0, result, 0, head.length);
+        int pos = head.length;
+        if (contentLength >= 0) {
+            System.arraycopy(CONTENT_LENGTH_PREFIX, 0, result, pos, CONTENT_LENGTH_PREFIX.length);
+            pos += CONTENT_LENGTH_PREFIX.length;
+            for (int i = pos + digits - 1; i >= pos; i--) {
+                result[i] = (byte)('0' + contentLength % 10);
+                contentLength /= 10;
+            }
+            pos += digits;
+        }
+        if (date != null) {
+            System.arraycopy(DATE_PREFIX, 0, result, pos, DATE_PREFIX.length);
+            pos += DATE_PREFIX.length;
+            System.arraycopy(date, 0, result, pos, date.length);
+            pos += date.length;
+        }
+        pos = putLineSeparator(result, pos);
+        putLineSeparator(result, pos);
+        return result;
+    }
+
+    private static int numberOfDigits(long value) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int putLineSeparator(byte[] buffer, int pos) {
+        buffer[pos++] = '\r';
+        buffer[pos++] = '\n';
+        return pos;
+    }
+
+}
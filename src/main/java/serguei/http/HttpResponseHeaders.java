@@ -1,6 +1,5 @@
 package serguei.http;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -17,6 +16,8 @@ import java.io.OutputStream;
  */
 public final class HttpResponseHeaders extends HttpHeaders {
 
+    private static final int STATUS_CODE_LENGTH = 3;
+
     private String version;
     private int statusCode;
     private String reason;
@@ -25,7 +26,7 @@ public final class HttpResponseHeaders extends HttpHeaders {
      * This creates an instance of HttpResponseHeaders
      * 
      * @param statusLine
-     *            - status line, e.g. "GET / HTTP/1."
+     *            - status line, e.g. "HTTP/1.1 200 OK"
      * @param headers
      *            - headers in the form "Content-Length: 100"
      * @throws HttpException
@@ -104,15 +105,10 @@ public final class HttpResponseHeaders extends HttpHeaders {
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        output.write(version.getBytes());
-        output.write(SPACE);
-        output.write(Integer.toString(statusCode).getBytes());
-        output.write(SPACE);
-        output.write(reason.getBytes());
-        output.write(LINE_SEPARATOR_BYTES);
-        super.write(output);
-        outputStream.write(output.toByteArray());
+        HeadBuffer buffer = HeadBuffer.get();
+        buffer.put(version).put(' ').putNumber(statusCode).put(' ').put(reason).putLineSeparator();
+        putHeaders(buffer);
+        buffer.writeTo(outputStream);
     }
 
     @Override
@@ -137,27 +133,43 @@ public final class HttpResponseHeaders extends HttpHeaders {
         this.reason = reason;
     }
 
+    /**
+     * Sets Date header to the current time. The value is formatted once a second and shared by all responses, so this
+     * is much cheaper than formatting the date for every response.
+     */
+    public void setDateHeader() {
+        setHeader("Date", HttpDate.now().getValue());
+    }
+
+    /**
+     * Parses "HTTP-version SP status-code [SP reason-phrase]", standard versions and reason phrases are returned as
+     * constants, so a typical status line does not allocate
+     */
     private final void parseResponseLine(String line) throws HttpException {
         int versionEndPos = line.indexOf(' ');
-        if (versionEndPos > 0) {
-            version = line.substring(0, versionEndPos);
-        } else {
+        if (versionEndPos <= 0) {
             throwWrongNumberOfElementsException(line);
         }
-        int statusEndPos = line.indexOf(' ', versionEndPos + 1);
-        String statusCodeAsString;
-        if (statusEndPos > 0) {
-            statusCodeAsString = line.substring(versionEndPos + 1, statusEndPos);
-            reason = line.substring(statusEndPos + 1);
-        } else {
-            statusCodeAsString = line.substring(versionEndPos + 1);
-            reason = "";
+        version = HttpVersion.parse(line, 0, versionEndPos);
+        if (version == null) {
+            // we are not strict about versions sent by servers
+            version = line.substring(0, versionEndPos);
         }
-        try {
-            statusCode = Integer.parseInt(statusCodeAsString);
-        } catch (NumberFormatException e) {
-            throw new HttpException("Cannot parse status code " + statusCodeAsString);
+        int statusStartPos = versionEndPos + 1;
+        int statusEndPos = statusStartPos + STATUS_CODE_LENGTH;
+        if (line.length() < statusEndPos || line.length() > statusEndPos && line.charAt(statusEndPos) != ' ') {
+            throw new HttpException("Cannot parse status code in \"" + line + "\"");
+        }
+        statusCode = 0;
+        for (int i = statusStartPos; i < statusEndPos; i++) {
+            char ch = line.charAt(i);
+            if (ch < '0' || ch > '9') {
+                throw new HttpException("Cannot parse status code in \"" + line + "\"");
+            }
+            statusCode = statusCode * 10 + (ch - '0');
         }
+        int reasonStartPos = Math.min(statusEndPos + 1, line.length());
+        reason = HttpStatus.reason(statusCode, line, reasonStartPos, line.length());
     }
 
     private void throwWrongNumberOfElementsException(String line) throws HttpException {
@@ -2,6 +2,7 @@ package serguei.http;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -14,18 +15,33 @@ import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -46,7 +62,18 @@ import serguei.http.utils.Utils;
 public class HttpServer {
 
     private static final int DEFAULT_TIMEOUT_MILS = 60_000;
+    private static final int DEFAULT_TLS_HANDSHAKE_TIMEOUT_MILS = 10_000;
     private static final int WAIT_FOR_PROCESSES_TO_FINISH_MILS = 10_000;
+    private static final int TIMER_TICK_MILS = 50;
+    private static final int TIMER_SLOTS = 512;
+    private static final Function<Socket, HttpServerMetrics> FLIGHT_RECORDER_METRICS = flightRecorderMetrics();
+    private static final byte[] UNRECOGNIZED_NAME_ALERT = {0x15, 0x03, 0x00, 0x00, 0x02, 0x01, 0x70};
+    private static final byte[] HANDSHAKE_FAILURE_ALERT = {0x15, 0x03, 0x00, 0x00, 0x02, 0x02, 0x28};
+    private static final byte[] TOO_MANY_REQUESTS_RESPONSE = ("HTTP/1.1 429 Too Many Requests"
+            + HttpHeaders.LINE_SEPARATOR + "Retry-After: 1" + HttpHeaders.LINE_SEPARATOR + "Content-Length: 0"
+            + HttpHeaders.LINE_SEPARATOR + "Connection: close" + HttpHeaders.LINE_SEPARATOR
+            + HttpHeaders.LINE_SEPARATOR).getBytes();
+    private static final String SESSION_TICKETS_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
 
     private final ExecutorService threadPool = Executors.newCachedThreadPool();
     private final SocketAddress socketAddress;
@@ -55,21 +82,50 @@ public class HttpServer {
     private final Map<Long, SocketRunner> connections = new ConcurrentHashMap<>();
     private final int numberOfPorts;
     private int timeoutMils;
+    private int headerTimeoutMils = -1;
+    private int bodyTimeoutMils = -1;
+    private int keepAliveTimeoutMils = -1;
+    private int writeTimeoutMils = -1;
+    private volatile TimerWheel timerWheel;
+    private int tlsHandshakeTimeoutMils = DEFAULT_TLS_HANDSHAKE_TIMEOUT_MILS;
 
     private HttpServerOnRequestHeadersProcess onRequestHeadersHandler;
     private HttpServerOnConnectProcess onConnectHandler;
+    private volatile HttpServerMetrics metrics;
     private TlsVersion[] enabledTlsProtocols;
     private String[] enabledCipherSuites;
     private List<ServerSocketRunner> serverSocketRunners = new ArrayList<>();
     private volatile boolean isStopped;
     private AtomicLong connectionNo = new AtomicLong(0);
-    private KeyStoreData defaultKeyStore;
-    private final List<KeyStoreData> keyStores = new ArrayList<>();
+    private final AtomicLong connectionsRejectedByIpFilter = new AtomicLong(0);
+    private volatile KeyStoreData defaultKeyStore;
+    private final HostNameIndex<KeyStoreData> keyStores = new HostNameIndex<>();
+    private final HostNameIndex<InetSocketAddress> passthroughBackends = new HostNameIndex<>();
     private volatile boolean requireSni = false;
     private volatile boolean warnWhenSniNotMatching = false;
     private int throttlingDelayMils = 0;
+    private long connectionReceiveRate;
+    private long connectionSendRate;
+    private long clientReceiveRate;
+    private long clientSendRate;
+    private long serverReceiveRate;
+    private long serverSendRate;
+    private volatile BandwidthLimiter bandwidthLimiter;
+    private int maxConnectionsPerClient;
+    private int maxRequestsPerSecondPerClient;
+    private volatile ClientLimiter clientLimiter;
+    private volatile IpFilter ipFilter;
     private boolean tcpNoDelay;
     private boolean needClientAuthentication;
+    private boolean nonBlockingTlsHandshake;
+    private NonBlockingTlsHandshaker tlsHandshaker;
+    private int tlsHandshakeThreads;
+    private int maxQueuedTlsHandshakes;
+    private ThreadPoolExecutor handshakeExecutor;
+    private int keyStoreWatchIntervalMils;
+    private KeyStoreWatcher keyStoreWatcher;
+    private int tlsSessionCacheSize = -1;
+    private int tlsSessionTimeoutSeconds = -1;
 
     /**
      * Creating an instance of HttpServer listening to one ports (this does not actually start the server - call start()
@@ -371,14 +427,26 @@ public class HttpServer {
         isStopped = false;
         List<ServerSocket> serverSockets = new ArrayList<>();
         List<Boolean> ssl = new ArrayList<>();
+        NonBlockingTlsHandshaker handshaker = null;
+        ThreadPoolExecutor executor = null;
         try {
-            ServerSocket serverSocket = createServerSocket(socketAddress, attempts, timeoutMillis, backlog);
+            ServerSocket serverSocket = createServerSocket(socketAddress, attempts, timeoutMillis, backlog, false);
             serverSockets.add(serverSocket);
             ssl.add(false);
             if (sslSocketAddress != null) {
-                serverSocket = createServerSocket(sslSocketAddress, attempts, timeoutMillis, backlog);
+                serverSocket = createServerSocket(sslSocketAddress, attempts, timeoutMillis, backlog,
+                        nonBlockingTlsHandshake);
                 serverSockets.add(serverSocket);
                 ssl.add(true);
+                if (tlsHandshakeThreads > 0) {
+                    executor = new ThreadPoolExecutor(tlsHandshakeThreads, tlsHandshakeThreads, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<Runnable>(maxQueuedTlsHandshakes), new HandshakeRejectionHandler());
+                    executor.allowCoreThreadTimeOut(true);
+                }
+                if (nonBlockingTlsHandshake) {
+                    handshaker = new NonBlockingTlsHandshaker(new TlsHandshakeListener(), tlsHandshakeTimeoutMils,
+                            executor);
+                }
             }
         } catch (IOException e) {
             for (ServerSocket serverSocket : serverSockets) {
@@ -386,9 +454,34 @@ public class HttpServer {
             }
             throw new IOException(e.getMessage(), e);
         }
+        if (sslSocketAddress != null) {
+            warmUpSslContexts(allKeyStores());
+        }
         synchronized (serverSocketRunners) {
+            handshakeExecutor = executor;
+            timerWheel = new TimerWheel(TIMER_TICK_MILS, TIMER_SLOTS);
+            threadPool.execute(timerWheel);
+            BandwidthLimiter limiter = new BandwidthLimiter(connectionReceiveRate, connectionSendRate,
+                    clientReceiveRate, clientSendRate, serverReceiveRate, serverSendRate);
+            bandwidthLimiter = limiter.isLimited() ? limiter : null;
+            ClientLimiter clientLimiter = new ClientLimiter(maxConnectionsPerClient, maxRequestsPerSecondPerClient);
+            if (clientLimiter.isLimited()) {
+                this.clientLimiter = clientLimiter;
+                threadPool.execute(clientLimiter);
+            } else {
+                this.clientLimiter = null;
+            }
+            if (sslSocketAddress != null && keyStoreWatchIntervalMils > 0) {
+                keyStoreWatcher = new KeyStoreWatcher(keyStoreWatchIntervalMils);
+                threadPool.execute(keyStoreWatcher);
+            }
+            if (handshaker != null) {
+                tlsHandshaker = handshaker;
+                threadPool.execute(handshaker);
+            }
             for (int i = 0; i < serverSockets.size(); i++) {
-                ServerSocketRunner serverSocketRunner = new ServerSocketRunner(serverSockets.get(i), ssl.get(i));
+                ServerSocketRunner serverSocketRunner = new ServerSocketRunner(serverSockets.get(i), ssl.get(i),
+                        ssl.get(i) ? handshaker : null, ssl.get(i) ? executor : null);
                 serverSocketRunners.add(serverSocketRunner);
                 threadPool.execute(serverSocketRunner);
             }
@@ -406,6 +499,7 @@ public class HttpServer {
                     serverSocketRunner.stop();
                 }
                 serverSocketRunners.clear();
+                stopTlsTasks();
             }
             for (SocketRunner runner : connections.values()) {
                 runner.stop();
@@ -419,6 +513,8 @@ public class HttpServer {
                     break;
                 }
             }
+            stopTimerWheel();
+            stopClientLimiter();
             isStopped = true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -435,17 +531,54 @@ public class HttpServer {
                     serverSocketRunner.stop();
                 }
                 serverSocketRunners.clear();
+                stopTlsTasks();
             }
             threadPool.shutdown();
             for (SocketRunner runner : connections.values()) {
                 runner.abort();
             }
+            stopTimerWheel();
+            stopClientLimiter();
             isStopped = true;
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private void stopClientLimiter() {
+        ClientLimiter limiter = clientLimiter;
+        if (limiter != null) {
+            limiter.stop();
+        }
+    }
+
+    private void stopTimerWheel() {
+        TimerWheel wheel = timerWheel;
+        if (wheel != null) {
+            wheel.stop();
+            timerWheel = null;
+        }
+    }
+
+    private void stopTlsTasks() {
+        if (keyStoreWatcher != null) {
+            keyStoreWatcher.stop();
+            keyStoreWatcher = null;
+        }
+        if (tlsHandshaker != null) {
+            tlsHandshaker.stop();
+            tlsHandshaker = null;
+        }
+        if (handshakeExecutor != null) {
+            for (Runnable handshakeRunner : handshakeExecutor.shutdownNow()) {
+                if (handshakeRunner instanceof HandshakeRunner) {
+                    ((HandshakeRunner)handshakeRunner).reject();
+                }
+            }
+            handshakeExecutor = null;
+        }
+    }
+
     /**
      * @return Current number of client connections to the server
      */
@@ -460,6 +593,13 @@ public class HttpServer {
         return connectionNo.get();
     }
 
+    /**
+     * @return Total number of connections closed because IP filter did not allow them
+     */
+    public long getConnectionsRejectedByIpFilter() {
+        return connectionsRejectedByIpFilter.get();
+    }
+
     /**
      * @return true if the server started successfully and accepting incoming connections
      */
@@ -517,12 +657,118 @@ public class HttpServer {
         this.needClientAuthentication = needClientAuthentication;
     }
 
+    /**
+     * When set to true, TLS handshakes are done without blocking a thread: one thread runs handshakes for all new TLS
+     * connections using SSLEngine and a connection is passed to a thread processing requests only when the handshake is
+     * finished. This protects the server from slow clients holding threads during handshakes.
+     * 
+     * When this is used, the socket passed to HttpServerOnConnectProcess is not an instance of SSLSocket (use
+     * ConnectionContext to get information about TLS session).
+     * 
+     * This takes effect when the server is started.
+     * 
+     * @param nonBlockingTlsHandshake
+     *            - true to do handshakes without blocking, false (default) to do them using SSLSocket
+     */
+    public void setNonBlockingTlsHandshake(boolean nonBlockingTlsHandshake) {
+        this.nonBlockingTlsHandshake = nonBlockingTlsHandshake;
+    }
+
+    /**
+     * Makes TLS handshakes run on a separate bounded pool of threads, so a burst of new TLS connections does not slow
+     * down processing of requests on established connections. A connection is passed to a thread processing requests
+     * only when the handshake is finished. When all threads are busy and the queue is full, new TLS connections are
+     * closed.
+     * 
+     * When used with setNonBlockingTlsHandshake(true), the pool is used for tasks delegated by SSLEngine.
+     * 
+     * This takes effect when the server is started.
+     * 
+     * @param threads
+     *            - maximum number of handshakes done at the same time, if zero (default) - handshakes are done on the
+     *            thread which then processes requests
+     * @param maxQueuedHandshakes
+     *            - maximum number of connections waiting for a handshake thread
+     */
+    public void setTlsHandshakeThreads(int threads, int maxQueuedHandshakes) {
+        if (threads < 0 || maxQueuedHandshakes < 1) {
+            throw new IllegalArgumentException("Wrong number of handshake threads or queue size");
+        }
+        this.tlsHandshakeThreads = threads;
+        this.maxQueuedTlsHandshakes = maxQueuedHandshakes;
+    }
+
+    /**
+     * Set timeout for TLS handshake. This is separate from the timeout set by setTimeoutMils, which is used after the
+     * handshake. This is the limit of the whole handshake, so a client sending its handshake a byte at a time can not
+     * keep a thread. For the non-blocking handshake it is counted from accepting the connection, otherwise - from the
+     * start of the handshake on a thread.
+     * 
+     * This will change the timeout only for new connections (for the non-blocking handshake - when the server is
+     * started).
+     * 
+     * @param tlsHandshakeTimeoutMils
+     *            - timeout in milliseconds, default is 10 seconds
+     */
+    public void setTlsHandshakeTimeoutMils(int tlsHandshakeTimeoutMils) {
+        this.tlsHandshakeTimeoutMils = tlsHandshakeTimeoutMils;
+    }
+
+    /**
+     * Configures the cache of TLS sessions which allows clients to resume an earlier session with an abbreviated
+     * handshake (which is much cheaper than the full one). There is a separate cache for each key store.
+     * 
+     * ConnectionContext.isTlsSessionResumed() and ServerMetrics show how often sessions are resumed.
+     * 
+     * @param cacheSize
+     *            - maximum number of cached sessions, zero means no limit
+     * @param timeoutSeconds
+     *            - time after which a session can not be resumed, zero means no limit
+     */
+    public void setTlsSessionCache(int cacheSize, int timeoutSeconds) {
+        if (cacheSize < 0 || timeoutSeconds < 0) {
+            throw new IllegalArgumentException("Wrong TLS session cache size or timeout");
+        }
+        this.tlsSessionCacheSize = cacheSize;
+        this.tlsSessionTimeoutSeconds = timeoutSeconds;
+        applySessionSettings();
+    }
+
+    /**
+     * Switches stateless TLS session tickets (RFC 5077 and TLS 1.3 tickets) on or off for all servers in the JVM. With
+     * tickets the server does not need to keep sessions in the cache to resume them. When this is not called, the
+     * default of JVM is used (tickets are supported by JDK 13 and later).
+     * 
+     * This sets the jdk.tls.server.enableSessionTicketExtension system property, which JDK reads only once, so it has to
+     * be called at startup before the first TLS connection is made or accepted in the JVM. Setting the property on the
+     * command line has the same effect.
+     * 
+     * @param enabled
+     *            - true to issue and accept session tickets, false to resume sessions only from the cache
+     */
+    public static void setTlsSessionTickets(boolean enabled) {
+        System.setProperty(SESSION_TICKETS_PROPERTY, Boolean.toString(enabled));
+    }
+
+    private void applySessionSettings() {
+        if (defaultKeyStore != null) {
+            defaultKeyStore.setSessionSettings(tlsSessionCacheSize, tlsSessionTimeoutSeconds);
+        }
+        for (KeyStoreData keyStore : keyStores.values()) {
+            keyStore.setSessionSettings(tlsSessionCacheSize, tlsSessionTimeoutSeconds);
+        }
+    }
+
     /**
      * Add additional keyStore with keys for a specific host name Choice will be made based on SNI, if nothing matches,
      * the default specified in the constructor will be used
      * 
+     * The server name can be a wildcard (e.g. *.example.com) matching one label in front of the domain, an exact name
+     * takes priority over a wildcard. A key store added for the same name earlier is replaced. When the server is
+     * running, SSLContext for the key store is prepared in background, so the first handshake does not wait for it.
+     * 
      * @param serverName
-     *            - server name received in SNI during TLS handshake
+     *            - server name received in SNI during TLS handshake, "*" replaces the default key store
      * @param keyStorePath
      *            - path to Java keystore file (JKS file)
      * @param keyStorePassword
@@ -533,18 +779,17 @@ public class HttpServer {
     public void addHostSpecificKeystore(String serverName, String keyStorePath, String keyStorePassword,
             String certificatePassword) {
         KeyStoreData keyStore = new KeyStoreData(serverName, keyStorePath, keyStorePassword, certificatePassword, null);
-        keyStores.add(keyStore);
-        if (serverName.equals("*")) {
-            defaultKeyStore = keyStore;
-        }
+        addKeyStore(keyStore);
     }
 
     /**
      * Add additional keyStore with keys for a specific host name Choice will be made based on SNI, if nothing matches,
      * the default specified in the constructor will be used
      * 
+     * The server name can be a wildcard (e.g. *.example.com), see the method above
+     * 
      * @param serverName
-     *            - server name received in SNI during TLS handshake
+     *            - server name received in SNI during TLS handshake, "*" replaces the default key store
      * @param keyStore
      *            - Java keystore
      * @param certificatePassword
@@ -552,9 +797,113 @@ public class HttpServer {
      */
     public void addHostSpecificKeystore(String serverName, KeyStore keyStore, String certificatePassword) {
         KeyStoreData store = new KeyStoreData(serverName, keyStore, certificatePassword, null);
-        keyStores.add(store);
-        if (serverName.equals("*")) {
-            defaultKeyStore = store;
+        addKeyStore(store);
+    }
+
+    /**
+     * Routes TLS connections for a server name to a backend without terminating TLS. ClientHello is parsed on the TLS
+     * port and, when its SNI matches, all bytes received from the client (starting from ClientHello) are sent to the
+     * backend and all bytes received from the backend are sent back to the client. The backend does the handshake with
+     * the client, so the server does not need certificates for this name and can not see requests.
+     * 
+     * Connections with SNI not matching any backend are processed by the server as usual. The server name can be a
+     * wildcard (e.g. *.example.com), see addHostSpecificKeystore(). A backend added for the same name earlier is
+     * replaced.
+     * 
+     * @param serverName
+     *            - server name received in SNI
+     * @param backend
+     *            - address of the server to pass connections to
+     */
+    public void addPassthroughBackend(String serverName, InetSocketAddress backend) {
+        passthroughBackends.put(serverName, backend);
+    }
+
+    /**
+     * Reloads all key stores: files are read again and key stores passed as KeyStore objects are re-read from these
+     * objects. This allows replacing certificates without restarting the server - new TLS connections use new
+     * certificates while established connections are not affected.
+     * 
+     * If a key store can not be loaded (e.g. the file is being written), the previous certificates stay in use for
+     * that host and the exception is thrown after trying all key stores.
+     * 
+     * @throws IOException
+     *             - when at least one of the key stores can not be loaded
+     */
+    public void reloadKeyStores() throws IOException {
+        IOException exception = null;
+        for (KeyStoreData keyStore : allKeyStores()) {
+            try {
+                keyStore.reload();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * If set to a value of more than zero, the server checks periodically whether key store files were modified and
+     * reloads modified key stores (see reloadKeyStores()). Errors of loading are printed and loading is retried on the
+     * next check.
+     * 
+     * This takes effect when the server is started.
+     * 
+     * @param keyStoreWatchIntervalMils
+     *            - interval between checks in milliseconds, when zero (default) - files are not checked
+     */
+    public void setKeyStoreWatchInterval(int keyStoreWatchIntervalMils) {
+        this.keyStoreWatchIntervalMils = keyStoreWatchIntervalMils;
+    }
+
+    private List<KeyStoreData> allKeyStores() {
+        List<KeyStoreData> result = new ArrayList<>();
+        if (defaultKeyStore != null) {
+            result.add(defaultKeyStore);
+        }
+        result.addAll(keyStores.values());
+        return result;
+    }
+
+    private void addKeyStore(KeyStoreData keyStore) {
+        keyStore.setSessionSettings(tlsSessionCacheSize, tlsSessionTimeoutSeconds);
+        if (keyStore.getServerName().equals("*")) {
+            defaultKeyStore = keyStore;
+        } else {
+            keyStores.put(keyStore.getServerName(), keyStore);
+        }
+        boolean started;
+        synchronized (serverSocketRunners) {
+            started = !serverSocketRunners.isEmpty();
+        }
+        if (started && sslSocketAddress != null) {
+            warmUpSslContexts(Collections.singletonList(keyStore));
+        }
+    }
+
+    /**
+     * Creates SSLContexts in background, so that the first handshake for a host does not need to wait for loading the
+     * key store and initialising the context
+     */
+    private void warmUpSslContexts(final Collection<KeyStoreData> keyStoresToWarmUp) {
+        try {
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (KeyStoreData keyStore : keyStoresToWarmUp) {
+                        try {
+                            keyStore.getSslContext();
+                        } catch (IOException e) {
+                            // the same error will happen again on handshake, here we just report it early
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the server is stopping, contexts will be created on the first handshake
         }
     }
 
@@ -597,7 +946,52 @@ public class HttpServer {
     }
 
     /**
-     * If set to a value of more then zero, this introduces a delay between every 100 bytes read from input stream.
+     * Set time allowed for receiving all headers of a request, counted from the first byte of the request. This
+     * protects from clients which keep connections by sending headers very slowly. Unless set, the timeout set by
+     * setTimeoutMils is used. This will affect only new client connections.
+     * 
+     * @param headerTimeoutMils
+     *            - timeout in milliseconds, 0 - no timeout
+     */
+    public void setHeaderTimeoutMils(int headerTimeoutMils) {
+        this.headerTimeoutMils = headerTimeoutMils;
+    }
+
+    /**
+     * Set how long one read of a request body can wait for data. Unless set, the timeout set by setTimeoutMils is used.
+     * This will affect only new client connections.
+     * 
+     * @param bodyTimeoutMils
+     *            - timeout in milliseconds, 0 - no timeout
+     */
+    public void setBodyTimeoutMils(int bodyTimeoutMils) {
+        this.bodyTimeoutMils = bodyTimeoutMils;
+    }
+
+    /**
+     * Set how long an idle connection waits for the next request. Unless set, the timeout set by setTimeoutMils is
+     * used. This will affect only new client connections.
+     * 
+     * @param keepAliveTimeoutMils
+     *            - timeout in milliseconds, 0 - no timeout
+     */
+    public void setKeepAliveTimeoutMils(int keepAliveTimeoutMils) {
+        this.keepAliveTimeoutMils = keepAliveTimeoutMils;
+    }
+
+    /**
+     * Set how long writing a response can be blocked by a client which does not read it. Unless set, the timeout set by
+     * setTimeoutMils is used. This will affect only new client connections.
+     * 
+     * @param writeTimeoutMils
+     *            - timeout in milliseconds, 0 - no timeout
+     */
+    public void setWriteTimeoutMils(int writeTimeoutMils) {
+        this.writeTimeoutMils = writeTimeoutMils;
+    }
+
+    /**
+     * If set to a value of more then zero, this limits reading from a connection to 1000 bytes per the delay.
      * 
      * This is when this library is used in testing. This will affect only new client connections.
      * 
@@ -608,6 +1002,92 @@ public class HttpServer {
         this.throttlingDelayMils = throttlingDelayMils;
     }
 
+    /**
+     * Limit bandwidth of each connection. A connection which goes over the limit waits before reading or writing more.
+     * 
+     * This takes effect when the server is started.
+     * 
+     * @param receiveBytesPerSecond
+     *            - limit of receiving from the client, 0 - no limit
+     * @param sendBytesPerSecond
+     *            - limit of sending to the client, 0 - no limit
+     */
+    public void setConnectionBandwidthLimit(long receiveBytesPerSecond, long sendBytesPerSecond) {
+        this.connectionReceiveRate = receiveBytesPerSecond;
+        this.connectionSendRate = sendBytesPerSecond;
+    }
+
+    /**
+     * Limit bandwidth of all connections from one IP address together.
+     * 
+     * This takes effect when the server is started.
+     * 
+     * @param receiveBytesPerSecond
+     *            - limit of receiving from the client, 0 - no limit
+     * @param sendBytesPerSecond
+     *            - limit of sending to the client, 0 - no limit
+     */
+    public void setClientBandwidthLimit(long receiveBytesPerSecond, long sendBytesPerSecond) {
+        this.clientReceiveRate = receiveBytesPerSecond;
+        this.clientSendRate = sendBytesPerSecond;
+    }
+
+    /**
+     * Limit bandwidth of all connections of the server together.
+     * 
+     * This takes effect when the server is started.
+     * 
+     * @param receiveBytesPerSecond
+     *            - limit of receiving from clients, 0 - no limit
+     * @param sendBytesPerSecond
+     *            - limit of sending to clients, 0 - no limit
+     */
+    public void setServerBandwidthLimit(long receiveBytesPerSecond, long sendBytesPerSecond) {
+        this.serverReceiveRate = receiveBytesPerSecond;
+        this.serverSendRate = sendBytesPerSecond;
+    }
+
+    /**
+     * Set allow and deny lists of client networks. A connection from an address which is not allowed is closed (reset)
+     * right after it is accepted, before TLS handshake or any other processing.
+     * 
+     * This can be called on a running server to replace the lists, new connections are checked against the new filter
+     * from the moment this returns.
+     * 
+     * @param ipFilter
+     *            - the filter, null - all addresses are allowed
+     */
+    public void setIpFilter(IpFilter ipFilter) {
+        this.ipFilter = ipFilter;
+    }
+
+    /**
+     * Limit number of open connections from one IP address. A connection over the limit is closed (reset) right after
+     * it is accepted, before TLS handshake or any other processing.
+     * 
+     * This takes effect when the server is started.
+     * 
+     * @param maxConnectionsPerClient
+     *            - maximum number of connections, 0 - no limit
+     */
+    public void setMaxConnectionsPerClient(int maxConnectionsPerClient) {
+        this.maxConnectionsPerClient = maxConnectionsPerClient;
+    }
+
+    /**
+     * Limit number of requests per second from one IP address (short bursts of up to this number of requests are
+     * allowed). A request over the limit is answered with "429 Too Many Requests" without calling the request handler,
+     * and the connection is closed.
+     * 
+     * This takes effect when the server is started.
+     * 
+     * @param maxRequestsPerSecondPerClient
+     *            - maximum number of requests per second, 0 - no limit
+     */
+    public void setMaxRequestsPerSecondPerClient(int maxRequestsPerSecondPerClient) {
+        this.maxRequestsPerSecondPerClient = maxRequestsPerSecondPerClient;
+    }
+
     /**
      * Switch TCP_NODELAY
      * 
@@ -644,16 +1124,38 @@ public class HttpServer {
         this.onConnectHandler = onConnectHandler;
     }
 
+    /**
+     * Sets metrics that will be notified about connections and requests processed by this server
+     * 
+     * This will affect new connections only
+     * 
+     * Independently of these metrics, when running on JVM with Flight Recorder the server emits events (category "HTTP
+     * Server") for connections accepted while a recording with these events enabled is in progress
+     * 
+     * @param metrics
+     *            - metrics (e.g. an instance of ServerMetrics), if null (default) - nothing is recorded
+     */
+    public void setMetrics(HttpServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return metrics set by setMetrics() or null if they were not set
+     */
+    public HttpServerMetrics getMetrics() {
+        return metrics;
+    }
+
     protected HttpServerRequestHandler getRequestHandler() {
         return requestHandler;
     }
 
-    private ServerSocket createServerSocket(SocketAddress socketAddress, int attempts, int timeoutMillis, int backlog)
-            throws IOException {
+    private ServerSocket createServerSocket(SocketAddress socketAddress, int attempts, int timeoutMillis, int backlog,
+            boolean withChannel) throws IOException {
         int count = 0;
         while (true) {
             try {
-                return createServerSocket(socketAddress, backlog);
+                return createServerSocket(socketAddress, backlog, withChannel);
             } catch (IOException e) {
                 count++;
                 if (count >= attempts) {
@@ -668,13 +1170,34 @@ public class HttpServer {
         }
     }
 
-    private ServerSocket createServerSocket(SocketAddress socketAddress, int backlog) throws IOException {
-        ServerSocket serverSocket = new ServerSocket();
-        serverSocket.bind(socketAddress, backlog);
+    private ServerSocket createServerSocket(SocketAddress socketAddress, int backlog, boolean withChannel)
+            throws IOException {
+        ServerSocket serverSocket = withChannel ? ServerSocketChannel.open().socket() : new ServerSocket();
+        try {
+            serverSocket.bind(socketAddress, backlog);
+        } catch (IOException e) {
+            Utils.closeQuietly(serverSocket);
+            throw e;
+        }
         serverSocket.setSoTimeout(0);
         return serverSocket;
     }
 
+    /**
+     * @return factory of FlightRecorderMetrics or null when it was not built or jdk.jfr is not available
+     */
+    @SuppressWarnings("unchecked")
+    private static Function<Socket, HttpServerMetrics> flightRecorderMetrics() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Function<Socket, HttpServerMetrics>)Class.forName("serguei.http.FlightRecorderMetrics$Factory")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // running on JVM without Flight Recorder
+            return null;
+        }
+    }
+
     private static InetAddress allLocalAddresses() {
         byte[] address = {0, 0, 0, 0};
         try {
@@ -688,12 +1211,17 @@ public class HttpServer {
 
         private final ServerSocket serverSocket;
         private final boolean ssl;
+        private final NonBlockingTlsHandshaker handshaker;
+        private final ExecutorService handshakeExecutor;
         private volatile boolean finished;
         private volatile boolean started;
 
-        public ServerSocketRunner(ServerSocket serverSocket, boolean ssl) {
+        public ServerSocketRunner(ServerSocket serverSocket, boolean ssl, NonBlockingTlsHandshaker handshaker,
+                ExecutorService handshakeExecutor) {
             this.serverSocket = serverSocket;
             this.ssl = ssl;
+            this.handshaker = handshaker;
+            this.handshakeExecutor = handshakeExecutor;
         }
 
         @Override
@@ -702,8 +1230,25 @@ public class HttpServer {
             while (!finished) {
                 try {
                     Socket socket = serverSocket.accept();
-                    SocketRunner socketRunner = new SocketRunner(socket, ssl);
-                    threadPool.execute(socketRunner);
+                    IpFilter filter = ipFilter;
+                    if (filter != null && !filter.isAllowed(socket.getInetAddress())) {
+                        connectionsRejectedByIpFilter.incrementAndGet();
+                        rejectConnection(socket);
+                        continue;
+                    }
+                    ClientLimiter limiter = clientLimiter;
+                    if (limiter != null && !limiter.acceptConnection(socket)) {
+                        rejectConnection(socket);
+                        continue;
+                    }
+                    if (handshaker != null) {
+                        handshaker.register(socket, System.nanoTime());
+                    } else if (handshakeExecutor != null) {
+                        handshakeExecutor.execute(new HandshakeRunner(socket, System.nanoTime()));
+                    } else {
+                        SocketRunner socketRunner = new SocketRunner(socket, ssl, System.nanoTime());
+                        threadPool.execute(socketRunner);
+                    }
                 } catch (IOException e) {
                     // we will get SocketException when serverSocket is closed, meaning it is not an error
                     // if we get this exception after initiating closing serverSocket
@@ -723,51 +1268,262 @@ public class HttpServer {
             serverSocket.close();
         }
 
+        private void rejectConnection(Socket socket) {
+            try {
+                socket.setSoLinger(true, 0);
+            } catch (SocketException e) {
+                // it is closed anyway
+            }
+            Utils.closeQuietly(socket);
+            HttpServerMetrics metrics = HttpServer.this.metrics;
+            if (metrics != null) {
+                metrics.connectionRejected(socket.getInetAddress());
+            }
+        }
+
         public boolean isRunning() {
             return started && !finished;
         }
     }
 
+    /**
+     * Periodically reloads key stores which files were modified
+     */
+    private class KeyStoreWatcher implements Runnable {
+
+        private final int intervalMils;
+        private volatile boolean finished;
+
+        public KeyStoreWatcher(int intervalMils) {
+            this.intervalMils = intervalMils;
+        }
+
+        @Override
+        public void run() {
+            while (!finished) {
+                try {
+                    Thread.sleep(intervalMils);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                for (KeyStoreData keyStore : allKeyStores()) {
+                    if (finished) {
+                        break;
+                    }
+                    try {
+                        keyStore.reloadIfModified();
+                    } catch (IOException e) {
+                        // the old certificates stay in use, we will try again on the next check
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        public void stop() {
+            finished = true;
+        }
+    }
+
     private static class SslConnection {
 
-        private SSLSocket socket;
+        private Socket socket;
         private ClientHello clientHello;
+        private SSLSession session;
+        private boolean resumed;
+        private long handshakeNanos;
+        // not null when the connection is passed through to a backend without the handshake
+        private TlsPassthrough passthrough;
+    }
+
+    /**
+     * Does TLS handshake on the handshake pool and passes the connection for processing of requests
+     */
+    private class HandshakeRunner implements Runnable {
+
+        private final Socket socket;
+        private final long acceptedNanos;
+
+        public HandshakeRunner(Socket socket, long acceptedNanos) {
+            this.socket = socket;
+            this.acceptedNanos = acceptedNanos;
+        }
+
+        @Override
+        public void run() {
+            long handshakeStartNanos = System.nanoTime();
+            try {
+                SslConnection sslConnection = setupSslWithDeadline(socket);
+                if (sslConnection == null) {
+                    socket.close();
+                    return;
+                }
+                sslConnection.handshakeNanos = System.nanoTime() - handshakeStartNanos;
+                threadPool.execute(new SocketRunner(sslConnection, socket, acceptedNanos));
+            } catch (IOException | RuntimeException e) {
+                // handshake failed, timed out or the server is stopping
+                Utils.closeQuietly(socket);
+            }
+        }
+
+        public void reject() {
+            Utils.closeQuietly(socket);
+        }
+    }
+
+    private static class HandshakeRejectionHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (runnable instanceof HandshakeRunner) {
+                // too many connections waiting for a handshake
+                ((HandshakeRunner)runnable).reject();
+            } else {
+                throw new RejectedExecutionException("Too many TLS handshakes in progress");
+            }
+        }
+    }
+
+    private class TlsHandshakeListener implements NonBlockingTlsHandshaker.Listener {
+
+        @Override
+        public InetSocketAddress findPassthroughBackend(ClientHello clientHello) {
+            return passthroughBackends.get(clientHello.getSniHostName());
+        }
+
+        @Override
+        public void passThrough(Socket socket, ClientHello clientHello, InetSocketAddress backend, ByteBuffer received,
+                long acceptedNanos) {
+            SslConnection sslConnection = new SslConnection();
+            sslConnection.socket = socket;
+            sslConnection.clientHello = clientHello;
+            sslConnection.passthrough = new TlsPassthrough(socket, socket.getChannel(), received, backend,
+                    tlsHandshakeTimeoutMils);
+            threadPool.execute(new SocketRunner(sslConnection, socket, acceptedNanos));
+        }
+
+        @Override
+        public SSLEngine createEngine(ClientHello clientHello, SocketChannel channel) throws IOException {
+            String serverName = clientHello.getSniHostName();
+            if (requireSni && serverName.isEmpty()) {
+                channel.write(ByteBuffer.wrap(HANDSHAKE_FAILURE_ALERT));
+                return null;
+            }
+            KeyStoreData keyStore = findKeyStore(serverName);
+            if (keyStore == null) {
+                if (!serverName.isEmpty() && warnWhenSniNotMatching) {
+                    channel.write(ByteBuffer.wrap(UNRECOGNIZED_NAME_ALERT));
+                }
+                keyStore = defaultKeyStore;
+            }
+            SSLEngine engine = keyStore.getSslContext().createSSLEngine();
+            engine.setUseClientMode(false);
+            if (enabledTlsProtocols != null) {
+                engine.setEnabledProtocols(TlsVersion.toJdkStrings(enabledTlsProtocols));
+            }
+            if (enabledCipherSuites != null) {
+                engine.setEnabledCipherSuites(enabledCipherSuites);
+            }
+            if (needClientAuthentication) {
+                engine.setNeedClientAuth(true);
+            }
+            return engine;
+        }
+
+        @Override
+        public void handshakeCompleted(Socket socket, ClientHello clientHello, SSLEngine engine,
+                SslEngineStreams streams, long acceptedNanos, long handshakeStartMillis, long handshakeNanos) {
+            SslConnection sslConnection = new SslConnection();
+            try {
+                sslConnection.socket = new SocketWrapper(socket, streams.getInputStream(), streams.getOutputStream());
+            } catch (IOException e) {
+                Utils.closeQuietly(socket);
+                return;
+            }
+            sslConnection.clientHello = clientHello;
+            sslConnection.session = engine.getSession();
+            sslConnection.resumed = isResumed(sslConnection.session, handshakeStartMillis);
+            sslConnection.handshakeNanos = handshakeNanos;
+            threadPool.execute(new SocketRunner(sslConnection, socket, acceptedNanos));
+        }
     }
 
     private class SocketRunner implements Runnable {
 
         private final boolean ssl;
+        private final long acceptedNanos;
         private ConnectionContext connectionContext;
         private Socket socket;
+        // the socket returned by accept()
+        private final Socket acceptedSocket;
+        private volatile SslConnection sslConnection;
         private volatile boolean finished = false;
 
-        public SocketRunner(Socket socket, boolean ssl) throws IOException {
+        public SocketRunner(Socket socket, boolean ssl, long acceptedNanos) {
             this.socket = socket;
+            this.acceptedSocket = socket;
             this.ssl = ssl;
+            this.acceptedNanos = acceptedNanos;
+        }
+
+        /**
+         * Creates runner for TLS connection when the handshake has already been done
+         */
+        public SocketRunner(SslConnection sslConnection, Socket acceptedSocket, long acceptedNanos) {
+            this.socket = sslConnection.socket;
+            this.acceptedSocket = acceptedSocket;
+            this.ssl = true;
+            this.sslConnection = sslConnection;
+            this.acceptedNanos = acceptedNanos;
         }
 
         @Override
         public void run() {
             Long connNo = connectionNo.incrementAndGet();
             connections.put(connNo, this);
+            long startNanos = System.nanoTime();
+            HttpServerMetrics metrics = HttpServer.this.metrics;
+            if (FLIGHT_RECORDER_METRICS != null) {
+                metrics = CompositeServerMetrics.of(metrics, FLIGHT_RECORDER_METRICS.apply(socket));
+            }
+            if (metrics != null) {
+                metrics.connectionAccepted(startNanos - acceptedNanos);
+            }
             InputStream inputStream = null;
             OutputStream outputStream = null;
             PostponedCloseOutputStream postponedCloseOutputStream = null;
-            SslConnection sslConnection;
+            CountingInputStream countingInputStream = null;
+            CountingOutputStream countingOutputStream = null;
+            int requestCount = 0;
+            ConnectionTimer timer = null;
+            BandwidthLimiter.ConnectionLimits bandwidthLimits = null;
+            // for TLS connection the timer closes the TCP socket under TLS
+            Socket tcpSocket = socket;
             try {
                 socket.setTcpNoDelay(tcpNoDelay);
                 socket.setSoTimeout(timeoutMils);
                 if (ssl) {
-                    sslConnection = setupSsl(socket);
                     if (sslConnection == null) {
-                        connections.remove(connNo);
-                        socket.close();
-                        finished = true;
+                        long handshakeStartNanos = System.nanoTime();
+                        sslConnection = setupSslWithDeadline(socket);
+                        if (sslConnection == null) {
+                            connections.remove(connNo);
+                            socket.close();
+                            finished = true;
+                            return;
+                        }
+                        sslConnection.handshakeNanos = System.nanoTime() - handshakeStartNanos;
+                    }
+                    if (sslConnection.passthrough != null) {
+                        sslConnection.passthrough.run(threadPool);
                         return;
                     }
                     socket = sslConnection.socket;
-                } else {
-                    sslConnection = null;
+                    socket.setSoTimeout(timeoutMils);
+                    if (metrics != null) {
+                        metrics.tlsHandshakeCompleted(sslConnection.clientHello, sslConnection.session,
+                                sslConnection.resumed, sslConnection.handshakeNanos);
+                    }
                 }
                 if (onConnectHandler != null) {
                     if (!onConnectHandler.process(socket, sslConnection != null ? sslConnection.clientHello : null)) {
@@ -777,33 +1533,98 @@ public class HttpServer {
                         return;
                     }
                 }
-                inputStream = socket.getInputStream();
+                TimerWheel wheel = timerWheel;
+                if (wheel == null) {
+                    // the server has been stopped
+                    finished = true;
+                    return;
+                }
+                // from here deadlines are kept by the timer wheel, a timeout closes the socket
+                socket.setSoTimeout(0);
+                timer = new ConnectionTimer(wheel, tcpSocket, timeout(headerTimeoutMils),
+                        timeout(bodyTimeoutMils), timeout(keepAliveTimeoutMils), timeout(writeTimeoutMils));
+                inputStream = timer.wrap(socket.getInputStream());
+                OutputStream socketOutputStream = timer.wrap(socket.getOutputStream());
+                if (metrics != null) {
+                    countingInputStream = new CountingInputStream(inputStream);
+                    inputStream = countingInputStream;
+                    countingOutputStream = new CountingOutputStream(socketOutputStream);
+                    socketOutputStream = countingOutputStream;
+                }
                 if (throttlingDelayMils > 0) {
                     inputStream = new ThrottlingInputStream(inputStream, 1000, throttlingDelayMils);
                 }
+                BandwidthLimiter limiter = bandwidthLimiter;
+                if (limiter != null) {
+                    bandwidthLimits = limiter.connect(socket.getInetAddress(), metrics);
+                    inputStream = bandwidthLimits.wrap(inputStream);
+                    socketOutputStream = bandwidthLimits.wrap(socketOutputStream);
+                }
                 inputStream = new BufferedInputStream(inputStream);
-                postponedCloseOutputStream = new PostponedCloseOutputStream(socket.getOutputStream());
+                postponedCloseOutputStream = new PostponedCloseOutputStream(socketOutputStream);
                 outputStream = new BufferedOutputStream(postponedCloseOutputStream);
-                connectionContext = new ConnectionContext(socket, sslConnection != null ? sslConnection.clientHello : null);
+                if (sslConnection != null) {
+                    connectionContext = new ConnectionContext(socket, sslConnection.session, sslConnection.resumed,
+                            sslConnection.clientHello);
+                } else {
+                    connectionContext = new ConnectionContext(socket, null, false, null);
+                }
+                long bytesReceived = 0;
+                long bytesSent = 0;
                 while (!finished) {
                     HttpRequest request;
+                    ExpectContinue expectContinue;
                     try {
+                        long parseStartNanos = 0;
+                        if (metrics != null) {
+                            if (!waitForData(inputStream)) {
+                                finished = true;
+                                break;
+                            }
+                            parseStartNanos = System.nanoTime();
+                        }
                         HttpRequestHeaders requestHeaders = new HttpRequestHeaders(inputStream);
+                        timer.headersReceived();
+                        requestCount++;
+                        if (metrics != null) {
+                            metrics.requestHeadersParsed(requestHeaders, System.nanoTime() - parseStartNanos,
+                                    requestCount > 1);
+                        }
+                        ClientLimiter requestLimiter = clientLimiter;
+                        if (requestLimiter != null && !requestLimiter.acceptRequest(socket.getInetAddress())) {
+                            if (metrics != null) {
+                                metrics.requestRejected(requestHeaders);
+                            }
+                            outputStream.write(TOO_MANY_REQUESTS_RESPONSE);
+                            outputStream.flush();
+                            finished = true;
+                            break;
+                        }
+                        expectContinue = ExpectContinue.isExpected(requestHeaders) ? new ExpectContinue(outputStream)
+                                : null;
                         if (onRequestHeadersHandler != null) {
                             if (!onRequestHeadersHandler.process(connectionContext, requestHeaders,
-                                    postponedCloseOutputStream)) {
+                                    expectContinue != null
+                                            ? expectContinue.wrapForHeadersHandler(postponedCloseOutputStream)
+                                            : postponedCloseOutputStream)) {
                                 break;
                             }
                         }
-                        request = new HttpRequest(requestHeaders, inputStream);
+                        if (expectContinue != null) {
+                            request = new HttpRequest(requestHeaders, expectContinue.wrap(inputStream));
+                        } else {
+                            request = new HttpRequest(requestHeaders, inputStream);
+                        }
                     } catch (HttpException | SocketTimeoutException | SocketException e) {
                         // this happens when connection is closed by the client or
                         // client sends non-HTTP data
                         finished = true;
                         break;
                     }
+                    long handlerStartNanos = System.nanoTime();
                     try {
-                        requestHandler.process(connectionContext, request, outputStream);
+                        requestHandler.process(connectionContext, request,
+                                expectContinue != null ? expectContinue.wrap(outputStream) : outputStream);
                         if (postponedCloseOutputStream.shouldClose()) {
                             // this will cause the connection to close abnormally
                             finished = true;
@@ -811,11 +1632,24 @@ public class HttpServer {
                             outputStream.flush();
                             if (connectionContext.getCloseAction() != ConnectionContext.CloseAction.NONE) {
                                 finished = true;
+                            } else if (expectContinue != null && !expectContinue.isContinueSent()
+                                    && request.hasBody()) {
+                                // the body was not asked for, the client may or may not send it, so we cannot tell
+                                // where the next request starts
+                                finished = true;
                             }
                         }
                     } catch (IOException e) {
                         finished = true;
                     }
+                    timer.requestCompleted();
+                    if (metrics != null) {
+                        long handlerNanos = System.nanoTime() - handlerStartNanos;
+                        metrics.requestCompleted(request, handlerNanos, countingInputStream.getCount() - bytesReceived,
+                                countingOutputStream.getCount() - bytesSent);
+                        bytesReceived = countingInputStream.getCount();
+                        bytesSent = countingOutputStream.getCount();
+                    }
                 }
                 if (connectionContext.getCloseAction() == ConnectionContext.CloseAction.RESET) {
                     connectionContext.getSocket().setSoLinger(true, 0);
@@ -823,6 +1657,16 @@ public class HttpServer {
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
+                if (timer != null) {
+                    timer.cancel();
+                }
+                if (bandwidthLimits != null) {
+                    bandwidthLimits.release();
+                }
+                ClientLimiter limiter = clientLimiter;
+                if (limiter != null) {
+                    limiter.connectionClosed(acceptedSocket);
+                }
                 if (postponedCloseOutputStream != null) {
                     postponedCloseOutputStream.setClosing();
                 }
@@ -831,6 +1675,9 @@ public class HttpServer {
                 Utils.closeQuietly(outputStream);
                 Utils.closeQuietly(socket);
                 finished = true;
+                if (metrics != null) {
+                    metrics.connectionClosed(System.nanoTime() - startNanos, requestCount);
+                }
             }
         }
 
@@ -841,35 +1688,31 @@ public class HttpServer {
 
         public void stop() {
             finished = true;
+            TlsPassthrough passthrough = sslConnection != null ? sslConnection.passthrough : null;
+            if (passthrough != null) {
+                // there are no requests to wait for
+                passthrough.close();
+            }
         }
 
-        private SslConnection setupSsl(Socket socket) throws IOException {
-            MarkAndResetInputStream inputStream = new MarkAndResetInputStream(socket.getInputStream());
-            socket = new SocketWrapper(socket, inputStream, socket.getOutputStream());
-            ClientHello clientHello = ClientHello.read(inputStream);
-            if (requireSni && clientHello.getSniHostName().isEmpty()) {
-                writeHandshakeFailureAlert(socket.getOutputStream());
-                return null;
-            }
-            SSLSocketFactory socketFactory = getSslSocketFactory(clientHello.getSniHostName(), warnWhenSniNotMatching,
-                    socket.getOutputStream());
-            socket = socketFactory.createSocket(socket, socket.getLocalSocketAddress().toString(), socket.getPort(), true);
-            SSLSocket sslSocket = (SSLSocket)socket;
-            sslSocket.setUseClientMode(false);
-            if (enabledTlsProtocols != null) {
-                sslSocket.setEnabledProtocols(TlsVersion.toJdkStrings(enabledTlsProtocols));
-            }
-            if (enabledCipherSuites != null) {
-                sslSocket.setEnabledCipherSuites(enabledCipherSuites);
-            }
-            if (needClientAuthentication) {
-                sslSocket.setNeedClientAuth(true);
-            }
-            sslSocket.startHandshake();
-            SslConnection result = new SslConnection();
-            result.socket = sslSocket;
-            result.clientHello = clientHello;
-            return result;
+        /**
+         * @return the timeout or, if it was not set, the general timeout
+         */
+        private int timeout(int timeoutMils) {
+            return timeoutMils >= 0 ? timeoutMils : HttpServer.this.timeoutMils;
+        }
+
+        /**
+         * Blocks until the next request starts arriving, so that time spent idle on keep-alive connection is not
+         * counted as parsing time
+         * 
+         * @return false if the connection was closed by the client
+         */
+        private boolean waitForData(InputStream inputStream) throws IOException {
+            inputStream.mark(1);
+            int ch = inputStream.read();
+            inputStream.reset();
+            return ch != -1;
         }
 
     }
@@ -924,7 +1767,10 @@ public class HttpServer {
         private final KeyStore keyStore;
         private final String certificatePassword;
         private final TrustManager clientAuthTrustManager;
-        private SSLSocketFactory sslSocketFactory;
+        private volatile SSLContext sslContext;
+        private volatile long loadedFileModified;
+        private int sessionCacheSize = -1;
+        private int sessionTimeoutSeconds = -1;
 
         public KeyStoreData(String serverName, String keyStorePath, String keyStorePassword, String certificatePassword,
                 TrustManager clientAuthTrustManager) {
@@ -947,31 +1793,93 @@ public class HttpServer {
         }
 
         public SSLSocketFactory getSslSocketFactory() throws IOException {
-            if (sslSocketFactory == null) {
+            return getSslContext().getSocketFactory();
+        }
+
+        public SSLContext getSslContext() throws IOException {
+            if (sslContext == null) {
                 synchronized (this) {
-                    if (sslSocketFactory == null) {
-                        try {
-                            sslSocketFactory = createSSLSocketFactory();
-                        } catch (GeneralSecurityException e) {
-                            throw new IOException(e.getMessage(), e);
-                        }
+                    if (sslContext == null) {
+                        load();
                     }
                 }
             }
-            return sslSocketFactory;
+            return sslContext;
+        }
+
+        /**
+         * Creates a new SSLContext (reading the key store file again) and replaces the current one. New handshakes use
+         * the new context, connections established before keep using the old one. If loading fails, the current
+         * context stays in use.
+         */
+        public synchronized void reload() throws IOException {
+            load();
+        }
+
+        /**
+         * Reloads the key store if its file was modified since it was loaded. Nothing is done before the first load,
+         * the file is read then anyway.
+         * 
+         * @return true if the key store was reloaded
+         */
+        public boolean reloadIfModified() throws IOException {
+            if (keyStorePath == null || sslContext == null) {
+                return false;
+            }
+            synchronized (this) {
+                if (new File(keyStorePath).lastModified() == loadedFileModified) {
+                    return false;
+                }
+                load();
+                return true;
+            }
+        }
+
+        private void load() throws IOException {
+            // taken before reading, so that a change made while reading is picked up next time
+            long fileModified = keyStorePath != null ? new File(keyStorePath).lastModified() : 0;
+            try {
+                sslContext = createSslContext();
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            loadedFileModified = fileModified;
         }
 
         public String getServerName() {
             return serverName;
         }
 
-        private SSLSocketFactory createSSLSocketFactory() throws IOException, GeneralSecurityException {
+        /**
+         * Negative values mean JVM defaults. The settings are applied immediately if the context already exists.
+         */
+        public synchronized void setSessionSettings(int cacheSize, int timeoutSeconds) {
+            this.sessionCacheSize = cacheSize;
+            this.sessionTimeoutSeconds = timeoutSeconds;
+            if (sslContext != null) {
+                applySessionCacheSettings(sslContext);
+            }
+        }
+
+        private void applySessionCacheSettings(SSLContext sslContext) {
+            SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+            if (sessionCacheSize >= 0) {
+                sessionContext.setSessionCacheSize(sessionCacheSize);
+            }
+            if (sessionTimeoutSeconds >= 0) {
+                sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+            }
+        }
+
+        private SSLContext createSslContext() throws IOException, GeneralSecurityException {
             KeyStore keyStore;
             if (this.keyStore != null) {
                 keyStore = this.keyStore;
             } else {
                 keyStore = KeyStore.getInstance("JKS");
-                keyStore.load(new FileInputStream(keyStorePath), keyStorePassword.toCharArray());
+                try (InputStream inputStream = new FileInputStream(keyStorePath)) {
+                    keyStore.load(inputStream, keyStorePassword.toCharArray());
+                }
             }
             String algorithm = KeyManagerFactory.getDefaultAlgorithm();
             KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(algorithm);
@@ -987,34 +1895,114 @@ public class HttpServer {
             }
             SSLContext sslContext = SSLContext.getInstance("SSL");
             sslContext.init(keyManagerFactory.getKeyManagers(), trustManagers, null);
-            return sslContext.getSocketFactory();
+            applySessionCacheSettings(sslContext);
+            return sslContext;
+        }
+
+    }
+
+    /**
+     * Does blocking TLS handshake limited by tlsHandshakeTimeoutMils. SO_TIMEOUT limits only one read, so the whole
+     * handshake is limited by a deadline in the timer wheel which closes the socket, otherwise a client sending a byte
+     * at a time could keep the thread.
+     */
+    private SslConnection setupSslWithDeadline(final Socket socket) throws IOException {
+        socket.setSoTimeout(tlsHandshakeTimeoutMils);
+        TimerWheel wheel = timerWheel;
+        if (wheel == null || tlsHandshakeTimeoutMils <= 0) {
+            return setupSsl(socket);
+        }
+        TimerWheel.Timer deadline = new TimerWheel.Timer() {
+            @Override
+            protected void expire() {
+                // closed the same way as when a read times out
+                Utils.closeQuietly(socket);
+            }
+        };
+        wheel.add(deadline);
+        deadline.setDeadline(wheel, TimerWheel.now() + tlsHandshakeTimeoutMils);
+        try {
+            return setupSsl(socket);
+        } finally {
+            wheel.remove(deadline);
+        }
+    }
+
+    private SslConnection setupSsl(Socket socket) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        MarkAndResetInputStream inputStream = new MarkAndResetInputStream(socket.getInputStream());
+        Socket originalSocket = socket;
+        socket = new SocketWrapper(socket, inputStream, socket.getOutputStream());
+        ClientHello clientHello = ClientHello.read(inputStream);
+        InetSocketAddress backend = passthroughBackends.get(clientHello.getSniHostName());
+        if (backend != null) {
+            SslConnection result = new SslConnection();
+            result.socket = originalSocket;
+            result.clientHello = clientHello;
+            // ClientHello is replayed by the stream after reset
+            result.passthrough = new TlsPassthrough(originalSocket, Channels.newChannel(inputStream), null, backend,
+                    tlsHandshakeTimeoutMils);
+            return result;
+        }
+        if (requireSni && clientHello.getSniHostName().isEmpty()) {
+            writeHandshakeFailureAlert(socket.getOutputStream());
+            return null;
+        }
+        SSLSocketFactory socketFactory = getSslSocketFactory(clientHello.getSniHostName(), warnWhenSniNotMatching,
+                socket.getOutputStream());
+        socket = socketFactory.createSocket(socket, socket.getLocalSocketAddress().toString(), socket.getPort(), true);
+        SSLSocket sslSocket = (SSLSocket)socket;
+        sslSocket.setUseClientMode(false);
+        if (enabledTlsProtocols != null) {
+            sslSocket.setEnabledProtocols(TlsVersion.toJdkStrings(enabledTlsProtocols));
+        }
+        if (enabledCipherSuites != null) {
+            sslSocket.setEnabledCipherSuites(enabledCipherSuites);
         }
+        if (needClientAuthentication) {
+            sslSocket.setNeedClientAuth(true);
+        }
+        sslSocket.startHandshake();
+        SslConnection result = new SslConnection();
+        result.socket = sslSocket;
+        result.clientHello = clientHello;
+        result.session = sslSocket.getSession();
+        result.resumed = isResumed(result.session, startMillis);
+        return result;
+    }
 
+    /**
+     * A new session is created during the handshake, so a session created before the handshake started was resumed
+     */
+    private static boolean isResumed(SSLSession session, long handshakeStartMillis) {
+        return session.getCreationTime() < handshakeStartMillis;
     }
 
     SSLSocketFactory getSslSocketFactory(String serverName, boolean warnWhenSniNotMatching, OutputStream outputStream)
             throws IOException {
-        if (!serverName.isEmpty()) {
-            for (KeyStoreData keyStore : keyStores) {
-                if (keyStore.getServerName().equals(serverName)) {
-                    return keyStore.getSslSocketFactory();
-                }
-            }
-            if (warnWhenSniNotMatching) {
-                writeUnrecognizedNameAlert(outputStream);
-            }
+        KeyStoreData keyStore = findKeyStore(serverName);
+        if (keyStore != null) {
+            return keyStore.getSslSocketFactory();
+        }
+        if (!serverName.isEmpty() && warnWhenSniNotMatching) {
+            writeUnrecognizedNameAlert(outputStream);
         }
         return defaultKeyStore.getSslSocketFactory();
     }
 
+    /**
+     * @return key store for the server name or null if there is no host-specific key store for this name
+     */
+    private KeyStoreData findKeyStore(String serverName) {
+        return keyStores.get(serverName);
+    }
+
     private void writeUnrecognizedNameAlert(OutputStream outputStream) throws IOException {
-        byte[] data = {0x15, 0x03, 0x00, 0x00, 0x02, 0x01, 0x70};
-        outputStream.write(data);
+        outputStream.write(UNRECOGNIZED_NAME_ALERT);
     }
 
     private void writeHandshakeFailureAlert(OutputStream outputStream) throws IOException {
-        byte[] data = {0x15, 0x03, 0x00, 0x00, 0x02, 0x02, 0x28};
-        outputStream.write(data);
+        outputStream.write(HANDSHAKE_FAILURE_ALERT);
         outputStream.flush();
     }
 
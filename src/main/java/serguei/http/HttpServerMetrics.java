@@ -0,0 +1,103 @@
+package serguei.http;
+
+import java.net.InetAddress;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * Instrumentation of the server. An implementation receives a call for each phase of the connection's life and decides
+ * what to record (see ServerMetrics for a ready to use implementation)
+ *
+ * Methods are called from the thread processing the connection, implementations must be thread safe and should not
+ * block
+ */
+public interface HttpServerMetrics {
+
+    /**
+     * Called when a thread starts processing a newly accepted connection
+     *
+     * @param acceptToDispatchNanos
+     *            - time in nanoseconds between accepting the connection and starting to process it
+     */
+    public void connectionAccepted(long acceptToDispatchNanos);
+
+    /**
+     * Called from the thread accepting connections when a connection is closed right after accepting because its
+     * client is over a limit or is not allowed by IP filter
+     *
+     * @param remoteAddress
+     *            - address of the client
+     */
+    public void connectionRejected(InetAddress remoteAddress);
+
+    /**
+     * Called after TLS handshake is completed successfully
+     *
+     * @param clientHello
+     *            - ClientHello received from the client
+     * @param session
+     *            - the negotiated TLS session
+     * @param resumed
+     *            - true if this was an abbreviated handshake resuming an earlier session (from the session cache or a
+     *            session ticket)
+     * @param handshakeNanos
+     *            - time in nanoseconds taken by the handshake (including reading ClientHello)
+     */
+    public void tlsHandshakeCompleted(ClientHello clientHello, SSLSession session, boolean resumed,
+            long handshakeNanos);
+
+    /**
+     * Called after the request line and headers are read
+     *
+     * @param requestHeaders
+     *            - headers of the request
+     * @param parseNanos
+     *            - time in nanoseconds between receiving the first byte of the request and reading all headers
+     * @param reusedConnection
+     *            - true if this is not the first request on this connection (keep-alive)
+     */
+    public void requestHeadersParsed(HttpRequestHeaders requestHeaders, long parseNanos, boolean reusedConnection);
+
+    /**
+     * Called when a request is answered with 429 Too Many Requests without calling the request handler
+     *
+     * @param requestHeaders
+     *            - headers of the request
+     */
+    public void requestRejected(HttpRequestHeaders requestHeaders);
+
+    /**
+     * Called after the request handler returned and the response was flushed
+     *
+     * @param request
+     *            - the request
+     * @param handlerNanos
+     *            - time in nanoseconds taken by the request handler
+     * @param bytesReceived
+     *            - number of bytes received from the client since the previous request
+     * @param bytesSent
+     *            - number of bytes sent to the client since the previous request
+     */
+    public void requestCompleted(HttpRequest request, long handlerNanos, long bytesReceived, long bytesSent);
+
+    /**
+     * Called after reading or writing waited because of a bandwidth limit
+     *
+     * @param throttledNanos
+     *            - time in nanoseconds the connection waited
+     * @param sending
+     *            - true if sending to the client was delayed, false if receiving
+     */
+    public void connectionThrottled(long throttledNanos, boolean sending);
+
+    /**
+     * Called when the connection is closed
+     *
+     * @param connectionNanos
+     *            - time in nanoseconds the connection was processed
+     * @param requestCount
+     *            - number of requests received on this connection
+     */
+    public void connectionClosed(long connectionNanos, int requestCount);
+
+}
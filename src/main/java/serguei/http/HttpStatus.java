@@ -0,0 +1,95 @@
+package serguei.http;
+
+/**
+ * Standard reason phrases of HTTP status codes (RFC 7231 and other registered codes)
+ */
+final class HttpStatus {
+
+    static final int CONTINUE = 100;
+    static final int SWITCHING_PROTOCOLS = 101;
+
+    private static final String[] REASONS = new String[600];
+
+    static {
+        REASONS[100] = "Continue";
+        REASONS[101] = "Switching Protocols";
+        REASONS[102] = "Processing";
+        REASONS[103] = "Early Hints";
+        REASONS[200] = "OK";
+        REASONS[201] = "Created";
+        REASONS[202] = "Accepted";
+        REASONS[203] = "Non-Authoritative Information";
+        REASONS[204] = "No Content";
+        REASONS[205] = "Reset Content";
+        REASONS[206] = "Partial Content";
+        REASONS[207] = "Multi-Status";
+        REASONS[300] = "Multiple Choices";
+        REASONS[301] = "Moved Permanently";
+        REASONS[302] = "Found";
+        REASONS[303] = "See Other";
+        REASONS[304] = "Not Modified";
+        REASONS[305] = "Use Proxy";
+        REASONS[307] = "Temporary Redirect";
+        REASONS[308] = "Permanent Redirect";
+        REASONS[400] = "Bad Request";
+        REASONS[401] = "Unauthorized";
+        REASONS[402] = "Payment Required";
+        REASONS[403] = "Forbidden";
+        REASONS[404] = "Not Found";
+        REASONS[405] = "Method Not Allowed";
+        REASONS[406] = "Not Acceptable";
+        REASONS[407] = "Proxy Authentication Required";
+        REASONS[408] = "Request Timeout";
+        REASONS[409] = "Conflict";
+        REASONS[410] = "Gone";
+        REASONS[411] = "Length Required";
+        REASONS[412] = "Precondition Failed";
+        REASONS[413] = "Payload Too Large";
+        REASONS[414] = "URI Too Long";
+        REASONS[415] = "Unsupported Media Type";
+        REASONS[416] = "Range Not Satisfiable";
+        REASONS[417] = "Expectation Failed";
+        REASONS[421] = "Misdirected Request";
+        REASONS[422] = "Unprocessable Entity";
+        REASONS[425] = "Too Early";
+        REASONS[426] = "Upgrade Required";
+        REASONS[428] = "Precondition Required";
+        REASONS[429] = "Too Many Requests";
+        REASONS[431] = "Request Header Fields Too Large";
+        REASONS[451] = "Unavailable For Legal Reasons";
+        REASONS[500] = "Internal Server Error";
+        REASONS[501] = "Not Implemented";
+        REASONS[502] = "Bad Gateway";
+        REASONS[503] = "Service Unavailable";
+        REASONS[504] = "Gateway Timeout";
+        REASONS[505] = "HTTP Version Not Supported";
+        REASONS[511] = "Network Authentication Required";
+    }
+
+    private HttpStatus() {
+
+    }
+
+    /**
+     * @return standard reason phrase for the status code or null if the code is not known
+     */
+    static String reason(int statusCode) {
+        return statusCode >= 0 && statusCode < REASONS.length ? REASONS[statusCode] : null;
+    }
+
+    /**
+     * @return reason phrase between start and end of the line, the standard phrase constant when the line has it
+     */
+    static String reason(int statusCode, String line, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return "";
+        }
+        String reason = reason(statusCode);
+        if (reason != null && reason.length() == length && line.regionMatches(start, reason, 0, length)) {
+            return reason;
+        }
+        return line.substring(start, end);
+    }
+
+}
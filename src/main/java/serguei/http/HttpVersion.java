@@ -0,0 +1,45 @@
+package serguei.http;
+
+/**
+ * Parsing of HTTP version (e.g. "HTTP/1.1") in request and status lines
+ */
+final class HttpVersion {
+
+    static final String HTTP_1_0 = "HTTP/1.0";
+    static final String HTTP_1_1 = "HTTP/1.1";
+
+    private static final String PREFIX = "HTTP/";
+    private static final int LENGTH = HTTP_1_1.length();
+
+    private HttpVersion() {
+
+    }
+
+    /**
+     * @return version between start and end of the line - a constant for HTTP/1.0 and HTTP/1.1, null if it is not in
+     *         the form HTTP/digit.digit
+     */
+    static String parse(String line, int start, int end) {
+        if (end - start != LENGTH || !line.startsWith(PREFIX, start)) {
+            return null;
+        }
+        char major = line.charAt(start + PREFIX.length());
+        char dot = line.charAt(start + PREFIX.length() + 1);
+        char minor = line.charAt(start + PREFIX.length() + 2);
+        if (!isDigit(major) || dot != '.' || !isDigit(minor)) {
+            return null;
+        }
+        if (major == '1' && minor == '1') {
+            return HTTP_1_1;
+        } else if (major == '1' && minor == '0') {
+            return HTTP_1_0;
+        } else {
+            return line.substring(start, end);
+        }
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+}
@@ -0,0 +1,143 @@
+package serguei.http;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import serguei.http.utils.Utils;
+
+/**
+ * Allow and deny lists of IPv4 and IPv6 networks in CIDR notation (e.g. "10.0.0.0/8", "2001:db8::/32", a single address
+ * is a network with the full prefix)
+ *
+ * An address is checked against the most specific network which contains it, so "10.0.0.0/8" can be allowed while
+ * "10.1.0.0/16" is denied. When a network is in both lists, it is denied. An address which is not in any network is
+ * allowed if the allow list is empty, otherwise it is denied.
+ *
+ * Networks are kept in a binary prefix trie stored in arrays, so a check takes at most 32 (128 for IPv6) steps
+ * whatever the number of networks is. The filter can not be changed, to change the lists at runtime create a new
+ * filter and pass it to HttpServer.setIpFilter(), the server switches to it atomically.
+ */
+public final class IpFilter {
+
+    private static final byte NONE = 0;
+    private static final byte ALLOW = 1;
+    private static final byte DENY = 2;
+
+    private final Trie ipv4 = new Trie();
+    private final Trie ipv6 = new Trie();
+    private final boolean allowByDefault;
+
+    /**
+     * @param allowed
+     *            - networks which are allowed, null or empty - all networks which are not denied are allowed
+     * @param denied
+     *            - networks which are denied, can be null
+     * @throws IllegalArgumentException
+     *             - when a network is not a valid CIDR
+     */
+    public IpFilter(Collection<String> allowed, Collection<String> denied) {
+        allowed = allowed != null ? allowed : Collections.<String> emptyList();
+        denied = denied != null ? denied : Collections.<String> emptyList();
+        this.allowByDefault = allowed.isEmpty();
+        for (String network : allowed) {
+            add(network, ALLOW);
+        }
+        for (String network : denied) {
+            add(network, DENY);
+        }
+        ipv4.trim();
+        ipv6.trim();
+    }
+
+    /**
+     * @return true if connections from the address are allowed
+     */
+    public boolean isAllowed(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        byte action = (bytes.length == 4 ? ipv4 : ipv6).find(bytes);
+        return action == NONE ? allowByDefault : action == ALLOW;
+    }
+
+    private void add(String network, byte action) {
+        int slash = network.indexOf('/');
+        String address = (slash >= 0 ? network.substring(0, slash) : network).trim();
+        byte[] bytes = Utils.ipAddressToBytes(address);
+        if (bytes == null) {
+            throw new IllegalArgumentException("Not an IP address in " + network);
+        }
+        int prefixLength = bytes.length * 8;
+        if (slash >= 0) {
+            try {
+                prefixLength = Integer.parseInt(network.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid prefix length in " + network);
+            }
+            if (prefixLength < 0 || prefixLength > bytes.length * 8) {
+                throw new IllegalArgumentException("Invalid prefix length in " + network);
+            }
+        }
+        (bytes.length == 4 ? ipv4 : ipv6).add(bytes, prefixLength, action);
+    }
+
+    private static int bit(byte[] address, int index) {
+        return (address[index >> 3] >> (7 - (index & 7))) & 1;
+    }
+
+    /**
+     * Binary trie, node 0 is the root, a child index 0 means no child
+     */
+    private static class Trie {
+
+        private int[] children = new int[64];
+        private byte[] actions = new byte[32];
+        private int size = 1;
+
+        private void add(byte[] address, int prefixLength, byte action) {
+            int node = 0;
+            for (int i = 0; i < prefixLength; i++) {
+                int child = node * 2 + bit(address, i);
+                if (children[child] == 0) {
+                    // not in one expression as newNode() can replace the array
+                    int created = newNode();
+                    children[child] = created;
+                }
+                node = children[child];
+            }
+            // deny wins when the same network is in both lists
+            if (actions[node] != DENY) {
+                actions[node] = action;
+            }
+        }
+
+        private byte find(byte[] address) {
+            int node = 0;
+            byte action = actions[0];
+            for (int i = 0; i < address.length * 8; i++) {
+                node = children[node * 2 + bit(address, i)];
+                if (node == 0) {
+                    break;
+                }
+                if (actions[node] != NONE) {
+                    action = actions[node];
+                }
+            }
+            return action;
+        }
+
+        private int newNode() {
+            if (size == actions.length) {
+                actions = Arrays.copyOf(actions, size * 2);
+                children = Arrays.copyOf(children, size * 4);
+            }
+            return size++;
+        }
+
+        private void trim() {
+            actions = Arrays.copyOf(actions, size);
+            children = Arrays.copyOf(children, size * 2);
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+package serguei.http;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations
+ *
+ * Values are counted in buckets with upper bounds growing as powers of two microseconds (1us, 2us, 4us ... about 33
+ * seconds), anything above the last bound goes into the overflow bucket. Recording a value is an increment of an
+ * atomic counter, so it can be called from many threads without contention on a lock.
+ *
+ */
+public class LatencyHistogram {
+
+    static final int BUCKET_NUMBER = 26;
+    private static final long NANOS_IN_MICRO = 1000L;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_NUMBER + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Records one value
+     *
+     * @param nanos
+     *            - duration in nanoseconds, negative values are treated as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return sum of all recorded values in nanoseconds
+     */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * @return number of buckets excluding the overflow bucket
+     */
+    public int getBucketNumber() {
+        return BUCKET_NUMBER;
+    }
+
+    /**
+     * @param index
+     *            - index of the bucket, from 0 to getBucketNumber() - 1
+     * @return upper bound (inclusive) of the bucket in nanoseconds
+     */
+    public long getBucketUpperBoundNanos(int index) {
+        return (1L << index) * NANOS_IN_MICRO;
+    }
+
+    /**
+     * @param index
+     *            - index of the bucket, from 0 to getBucketNumber(), the last index is the overflow bucket
+     * @return number of values recorded in this bucket (not cumulative)
+     */
+    public long getBucketCount(int index) {
+        return buckets.get(index);
+    }
+
+    /**
+     * @return cumulative counts of the buckets, the element with index getBucketNumber() is a total of all buckets
+     *         including overflow. This is taken without a lock, hence the total might differ slightly from getCount()
+     *         when values are recorded concurrently.
+     */
+    public long[] getCumulativeCounts() {
+        long[] result = new long[BUCKET_NUMBER + 1];
+        long total = 0;
+        for (int i = 0; i <= BUCKET_NUMBER; i++) {
+            total += buckets.get(i);
+            result[i] = total;
+        }
+        return result;
+    }
+
+    static int bucketIndex(long nanos) {
+        long micros = (nanos + NANOS_IN_MICRO - 1) / NANOS_IN_MICRO;
+        if (micros <= 1) {
+            return 0;
+        }
+        int index = 64 - Long.numberOfLeadingZeros(micros - 1);
+        return index < BUCKET_NUMBER ? index : BUCKET_NUMBER;
+    }
+
+}
@@ -0,0 +1,47 @@
+package serguei.http;
+
+import java.io.IOException;
+
+/**
+ * Receives values of metrics when ServerMetrics.export() is called. An implementation converts them into a format
+ * understood by a monitoring system (see PrometheusMetricsExporter)
+ */
+public interface MetricsExporter {
+
+    /**
+     * Exports a counter - a value that only grows
+     *
+     * @param name
+     *            - name of the metric
+     * @param help
+     *            - description of the metric
+     * @param value
+     *            - current value
+     */
+    public void counter(String name, String help, long value) throws IOException;
+
+    /**
+     * Exports a gauge - a value that might go up and down
+     *
+     * @param name
+     *            - name of the metric
+     * @param help
+     *            - description of the metric
+     * @param value
+     *            - current value
+     */
+    public void gauge(String name, String help, long value) throws IOException;
+
+    /**
+     * Exports a histogram of durations
+     *
+     * @param name
+     *            - name of the metric
+     * @param help
+     *            - description of the metric
+     * @param histogram
+     *            - the histogram
+     */
+    public void histogram(String name, String help, LatencyHistogram histogram) throws IOException;
+
+}
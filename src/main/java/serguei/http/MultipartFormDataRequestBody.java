@@ -1,18 +1,35 @@
 package serguei.http;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Body of multipart/form-data request
+ *
+ * Parts can be byte arrays, streams or files. Streams and files are not read until the body is written, so the body
+ * does not need to fit into memory. When the sizes of all parts are known, the length of the body is known before
+ * writing it and the request can be sent with Content-Length header, otherwise it has to be sent chunked.
+ */
 public class MultipartFormDataRequestBody {
 
+    private static final int BUFFER_SIZE = 8192;
+
     private final byte[] END = "--".getBytes();
 
+    private final String boundary;
     private final byte[] border;
 
-    private final List<byte[]> dataList = new ArrayList<>();
+    private final List<Part> parts = new ArrayList<>();
 
     public MultipartFormDataRequestBody(String border) {
+        this.boundary = border;
         this.border = ("--" + border).getBytes();
     }
 
@@ -33,29 +50,90 @@ public class MultipartFormDataRequestBody {
     }
 
     public void add(byte[] data, String name, String fileName, String contentType) {
-        dataList.add(this.border);
-        dataList.add(HttpHeaders.LINE_SEPARATOR_BYTES);
-        dataList.add(buildHeaders(name, fileName, contentType));
-        dataList.add(data);
-        dataList.add(HttpHeaders.LINE_SEPARATOR_BYTES);
+        parts.add(new BytesPart(buildHeaders(name, fileName, contentType), data));
+    }
+
+    /**
+     * Adds a part which content is read from the stream when the body is written, the stream is not closed
+     *
+     * @param length
+     *            - number of bytes the stream will provide, -1 if it is not known (the body will be sent chunked then)
+     */
+    public void add(InputStream data, long length, String name, String fileName, String contentType) {
+        parts.add(new StreamPart(buildHeaders(name, fileName, contentType), data, length));
+    }
+
+    /**
+     * Adds a part which content is read from the file when the body is written
+     *
+     * @throws IOException
+     *             - if the size of the file cannot be read
+     */
+    public void add(Path file, String name, String fileName, String contentType) throws IOException {
+        parts.add(new FilePart(buildHeaders(name, fileName, contentType), file, Files.size(file)));
+    }
+
+    /**
+     * @return value of Content-Type header for this body
+     */
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    /**
+     * @return length of the body in bytes, -1 if some parts have unknown length
+     */
+    public long getContentLength() {
+        long len = 0;
+        for (Part part : parts) {
+            if (part.length < 0) {
+                return -1;
+            }
+            len += border.length + HttpHeaders.LINE_SEPARATOR_BYTES.length + part.headers.length + part.length
+                    + HttpHeaders.LINE_SEPARATOR_BYTES.length;
+        }
+        return len + border.length + END.length + HttpHeaders.LINE_SEPARATOR_BYTES.length;
     }
 
+    /**
+     * This reads all parts into memory, use writeTo() to stream them instead
+     */
     public byte[] getBody() {
-        int len = 0;
-        for (byte[] data : dataList) {
-            len += data.length;
+        long len = getContentLength();
+        if (len > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Body is too big for an array: " + len);
         }
-        len += border.length;
-        len += END.length;
-        len += HttpHeaders.LINE_SEPARATOR_BYTES.length;
-        ResultBuilder result = new ResultBuilder(len);
-        for (byte[] data : dataList) {
-            result.add(data);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(len >= 0 ? (int)len : BUFFER_SIZE);
+        try {
+            writeTo(output);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read body part", e);
         }
-        result.add(border);
-        result.add(END);
-        result.add(HttpHeaders.LINE_SEPARATOR_BYTES);
-        return result.result;
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes the body to the stream reading streams and files of the parts
+     *
+     * @throws IOException
+     *             - if writing failed or a stream provided a different number of bytes than specified when it was
+     *             added
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        byte[] buffer = null;
+        for (Part part : parts) {
+            outputStream.write(border);
+            outputStream.write(HttpHeaders.LINE_SEPARATOR_BYTES);
+            outputStream.write(part.headers);
+            if (buffer == null && !(part instanceof BytesPart)) {
+                buffer = new byte[BUFFER_SIZE];
+            }
+            part.writeContent(outputStream, buffer);
+            outputStream.write(HttpHeaders.LINE_SEPARATOR_BYTES);
+        }
+        outputStream.write(border);
+        outputStream.write(END);
+        outputStream.write(HttpHeaders.LINE_SEPARATOR_BYTES);
     }
 
     private byte[] buildHeaders(String name, String fileName, String contentType) {
@@ -77,18 +155,83 @@ public class MultipartFormDataRequestBody {
         return builder.toString().getBytes();
     }
 
-    private static class ResultBuilder {
+    /**
+     * Copies the stream to the output
+     *
+     * @param length
+     *            - expected number of bytes, -1 to copy until the end of the stream
+     */
+    private static void copy(InputStream input, OutputStream output, long length, byte[] buffer) throws IOException {
+        long copied = 0;
+        int read;
+        while ((read = input.read(buffer, 0, length < 0 ? buffer.length
+                : (int)Math.min(buffer.length, length - copied))) > 0) {
+            output.write(buffer, 0, read);
+            copied += read;
+        }
+        if (length >= 0 && copied != length) {
+            throw new IOException("Body part is shorter than declared: " + copied + " bytes instead of " + length);
+        }
+    }
+
+    private abstract static class Part {
+
+        final byte[] headers;
+        final long length;
+
+        private Part(byte[] headers, long length) {
+            this.headers = headers;
+            this.length = length;
+        }
+
+        abstract void writeContent(OutputStream outputStream, byte[] buffer) throws IOException;
+    }
+
+    private static class BytesPart extends Part {
+
+        private final byte[] data;
+
+        private BytesPart(byte[] headers, byte[] data) {
+            super(headers, data.length);
+            this.data = data;
+        }
+
+        @Override
+        void writeContent(OutputStream outputStream, byte[] buffer) throws IOException {
+            outputStream.write(data);
+        }
+    }
+
+    private static class StreamPart extends Part {
+
+        private final InputStream data;
+
+        private StreamPart(byte[] headers, InputStream data, long length) {
+            super(headers, length);
+            this.data = data;
+        }
+
+        @Override
+        void writeContent(OutputStream outputStream, byte[] buffer) throws IOException {
+            copy(data, outputStream, length, buffer);
+        }
+    }
+
+    private static class FilePart extends Part {
 
-        private byte[] result;
-        private int pos;
+        private final Path file;
 
-        private ResultBuilder(int size) {
-            result = new byte[size];
+        private FilePart(byte[] headers, Path file, long length) {
+            super(headers, length);
+            this.file = file;
         }
 
-        private void add(byte[] data) {
-            System.arraycopy(data, 0, result, pos, data.length);
-            pos += data.length;
+        @Override
+        void writeContent(OutputStream outputStream, byte[] buffer) throws IOException {
+            try (InputStream input = Files.newInputStream(file)) {
+                // the file could have changed since it was added, but Content-Length has been sent already
+                copy(input, outputStream, length, buffer);
+            }
         }
     }
 }
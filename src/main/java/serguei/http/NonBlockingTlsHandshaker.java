@@ -0,0 +1,458 @@
+package serguei.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import serguei.http.utils.Utils;
+
+/**
+ * Performs TLS handshakes for many connections on one thread using a selector and SSLEngine
+ *
+ * A thread is not blocked waiting for slow clients, the connection is passed for processing of requests (in the
+ * blocking mode) only after the handshake is finished. ClientHello is parsed directly from the network buffer to choose
+ * the key store based on SNI. Network buffers used during handshake are direct buffers taken from a pool.
+ *
+ * Tasks delegated by SSLEngine (e.g. validation of certificates) are run on the task executor when it is provided, so
+ * they do not hold up other handshakes.
+ *
+ * Connections which the listener passes through to a backend (based on SNI) are handed over right after ClientHello is
+ * received, without a handshake.
+ */
+class NonBlockingTlsHandshaker implements Runnable {
+
+    static final int BUFFER_SIZE = 17 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final long SELECT_TIMEOUT_MILS = 1000;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * Callback into the server
+     */
+    interface Listener {
+
+        /**
+         * @return backend to pass the connection through to without terminating TLS, or null if the handshake needs to
+         *         be done
+         */
+        InetSocketAddress findPassthroughBackend(ClientHello clientHello);
+
+        /**
+         * Called instead of creating an engine when the connection needs to be passed through, at this point the
+         * channel is in the blocking mode
+         *
+         * @param received
+         *            - data read from the channel so far (starting from ClientHello)
+         */
+        void passThrough(Socket socket, ClientHello clientHello, InetSocketAddress backend, ByteBuffer received,
+                long acceptedNanos);
+
+        /**
+         * @return an engine in server mode configured for this connection or null if the connection needs to be closed
+         *         (after sending an alert if required)
+         */
+        SSLEngine createEngine(ClientHello clientHello, SocketChannel channel) throws IOException;
+
+        /**
+         * Called when the handshake is finished, at this point the channel is in the blocking mode
+         */
+        void handshakeCompleted(Socket socket, ClientHello clientHello, SSLEngine engine, SslEngineStreams streams,
+                long acceptedNanos, long handshakeStartMillis, long handshakeNanos);
+    }
+
+    private final Listener listener;
+    private final long handshakeTimeoutNanos;
+    private final Executor taskExecutor;
+    private final Selector selector;
+    private final DirectBufferPool bufferPool = new DirectBufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final Queue<Handshake> newHandshakes = new ConcurrentLinkedQueue<>();
+    private final Queue<Handshake> resumedHandshakes = new ConcurrentLinkedQueue<>();
+    private volatile boolean finished;
+
+    /**
+     * @param listener
+     *            - callback into the server
+     * @param handshakeTimeoutMils
+     *            - maximum time of the handshake, the connection is closed when the handshake takes longer
+     * @param taskExecutor
+     *            - executor for tasks delegated by SSLEngine, if null - tasks are run on the selector thread
+     */
+    NonBlockingTlsHandshaker(Listener listener, int handshakeTimeoutMils, Executor taskExecutor) throws IOException {
+        this.listener = listener;
+        this.handshakeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(handshakeTimeoutMils);
+        this.taskExecutor = taskExecutor;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Passes an accepted socket for handshake, the socket must have a channel (created by ServerSocketChannel)
+     */
+    void register(Socket socket, long acceptedNanos) {
+        if (finished) {
+            Utils.closeQuietly(socket);
+            return;
+        }
+        newHandshakes.offer(new Handshake(socket, acceptedNanos));
+        selector.wakeup();
+    }
+
+    void stop() {
+        finished = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!finished) {
+                selector.select(SELECT_TIMEOUT_MILS);
+                registerNewHandshakes();
+                List<Handshake> completed = new ArrayList<>();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    process(key, completed);
+                }
+                Handshake resumed;
+                while ((resumed = resumedHandshakes.poll()) != null) {
+                    SelectionKey key = resumed.channel.keyFor(selector);
+                    if (key != null) {
+                        process(key, completed);
+                    }
+                }
+                closeExpiredHandshakes();
+                if (!completed.isEmpty()) {
+                    // cancelled keys are deregistered on the next select, only then we can switch to blocking mode
+                    selector.selectNow();
+                    for (Handshake handshake : completed) {
+                        handshake.complete();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!finished) {
+                e.printStackTrace();
+            }
+        } finally {
+            finished = true;
+            closeAll();
+        }
+    }
+
+    private void process(SelectionKey key, List<Handshake> completed) {
+        Handshake handshake = (Handshake)key.attachment();
+        try {
+            if (key.isValid() && !handshake.runningTasks && handshake.process()) {
+                key.cancel();
+                completed.add(handshake);
+            }
+        } catch (IOException | RuntimeException e) {
+            handshake.close();
+        }
+    }
+
+    private void registerNewHandshakes() {
+        Handshake handshake;
+        while ((handshake = newHandshakes.poll()) != null) {
+            try {
+                handshake.channel.configureBlocking(false);
+                handshake.channel.register(selector, SelectionKey.OP_READ, handshake);
+            } catch (IOException | RuntimeException e) {
+                handshake.close();
+            }
+        }
+    }
+
+    private void closeExpiredHandshakes() {
+        long now = System.nanoTime();
+        for (SelectionKey key : selector.keys()) {
+            Handshake handshake = (Handshake)key.attachment();
+            if (key.isValid() && now - handshake.startNanos > handshakeTimeoutNanos) {
+                key.cancel();
+                handshake.close();
+            }
+        }
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                ((Handshake)key.attachment()).close();
+            }
+        } catch (ClosedSelectorException e) {
+            // nothing to close
+        }
+        Handshake handshake;
+        while ((handshake = newHandshakes.poll()) != null) {
+            handshake.close();
+        }
+        Utils.closeQuietly(selector);
+    }
+
+    private class Handshake {
+
+        private final Socket socket;
+        private final SocketChannel channel;
+        private final long acceptedNanos;
+        private final long startNanos;
+        private final long startMillis;
+        private ByteBuffer netIn = bufferPool.acquire();
+        private ByteBuffer netOut = bufferPool.acquire();
+        private ByteBuffer appIn = bufferPool.acquire();
+        private ClientHello clientHello;
+        private SSLEngine engine;
+        private InetSocketAddress passthroughBackend;
+        private volatile boolean runningTasks;
+        private boolean closed;
+
+        private Handshake(Socket socket, long acceptedNanos) {
+            this.socket = socket;
+            this.channel = socket.getChannel();
+            this.acceptedNanos = acceptedNanos;
+            this.startNanos = System.nanoTime();
+            this.startMillis = System.currentTimeMillis();
+            // all buffers are kept in "read" mode (data between position and limit) except when filled
+            netIn.flip();
+            netOut.flip();
+            appIn.flip();
+        }
+
+        /**
+         * Moves the handshake forward as far as possible without blocking
+         *
+         * @return true if the handshake is finished
+         */
+        private boolean process() throws IOException {
+            if (!flush()) {
+                return false;
+            }
+            if (engine == null) {
+                if (readFromChannel() < 0) {
+                    throw new SSLException("Connection closed before ClientHello received");
+                }
+                if (!ClientHello.isComplete(netIn)) {
+                    return false;
+                }
+                clientHello = ClientHello.read(netIn);
+                passthroughBackend = listener.findPassthroughBackend(clientHello);
+                if (passthroughBackend != null) {
+                    return true;
+                }
+                engine = listener.createEngine(clientHello, channel);
+                if (engine == null) {
+                    throw new SSLException("Connection rejected");
+                }
+                engine.beginHandshake();
+            }
+            while (true) {
+                HandshakeStatus status = engine.getHandshakeStatus();
+                switch (status) {
+                    case NEED_TASK:
+                        if (taskExecutor != null) {
+                            runTasksOnExecutor();
+                            return false;
+                        }
+                        runTasks();
+                        break;
+                    case NEED_WRAP:
+                        wrap();
+                        if (!flush()) {
+                            return false;
+                        }
+                        break;
+                    case NEED_UNWRAP:
+                        if (!unwrap()) {
+                            return false;
+                        }
+                        break;
+                    case NOT_HANDSHAKING:
+                    case FINISHED:
+                        return flush();
+                    default:
+                        // NEED_UNWRAP_AGAIN is used only by DTLS
+                        if (!unwrap()) {
+                            return false;
+                        }
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+
+        /**
+         * Stops selecting the channel until tasks are finished, then the handshake is processed again on the selector
+         * thread
+         */
+        private void runTasksOnExecutor() throws SSLException {
+            SelectionKey key = channel.keyFor(selector);
+            key.interestOps(0);
+            runningTasks = true;
+            try {
+                taskExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runTasks();
+                        } finally {
+                            runningTasks = false;
+                            resumedHandshakes.offer(Handshake.this);
+                            selector.wakeup();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                runningTasks = false;
+                throw new SSLException("Too many TLS handshakes in progress", e);
+            }
+        }
+
+        private void wrap() throws IOException {
+            netOut.compact();
+            try {
+                SSLEngineResult result = engine.wrap(EMPTY, netOut);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    netOut.flip();
+                    netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                    netOut.compact();
+                } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("TLS engine closed during handshake");
+                }
+            } finally {
+                netOut.flip();
+            }
+        }
+
+        /**
+         * @return false if we need to wait for more data
+         */
+        private boolean unwrap() throws IOException {
+            appIn.compact();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                appIn.flip();
+            }
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    int read = readFromChannel();
+                    if (read < 0) {
+                        throw new SSLException("Connection closed during TLS handshake");
+                    }
+                    return read > 0;
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                    return true;
+                case CLOSED:
+                    throw new SSLException("TLS engine closed during handshake");
+                default:
+                    return true;
+            }
+        }
+
+        private int readFromChannel() throws IOException {
+            if (engine != null && netIn.capacity() < engine.getSession().getPacketBufferSize()) {
+                netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+            }
+            netIn.compact();
+            try {
+                return channel.read(netIn);
+            } finally {
+                netIn.flip();
+            }
+        }
+
+        /**
+         * @return true if all data is written, otherwise waits until the channel is writable
+         */
+        private boolean flush() throws IOException {
+            if (netOut.hasRemaining()) {
+                channel.write(netOut);
+            }
+            SelectionKey key = channel.keyFor(selector);
+            if (netOut.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return false;
+            }
+            try {
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (CancelledKeyException e) {
+                // the handshake is finished or closed
+            }
+            return true;
+        }
+
+        private ByteBuffer enlarge(ByteBuffer buffer, int minSize) {
+            ByteBuffer newBuffer = ByteBuffer.allocateDirect(Math.max(minSize, buffer.capacity() * 2));
+            newBuffer.put(buffer);
+            newBuffer.flip();
+            bufferPool.release(buffer);
+            return newBuffer;
+        }
+
+        private void complete() {
+            long handshakeNanos = System.nanoTime() - startNanos;
+            try {
+                channel.configureBlocking(true);
+                if (passthroughBackend != null) {
+                    ByteBuffer received = ByteBuffer.allocate(netIn.remaining());
+                    received.put(netIn);
+                    received.flip();
+                    releaseBuffers();
+                    listener.passThrough(socket, clientHello, passthroughBackend, received, acceptedNanos);
+                    return;
+                }
+                SslEngineStreams streams = new SslEngineStreams(engine, socket.getInputStream(), socket.getOutputStream(),
+                        netIn, appIn);
+                releaseBuffers();
+                listener.handshakeCompleted(socket, clientHello, engine, streams, acceptedNanos, startMillis,
+                        handshakeNanos);
+            } catch (IOException | RuntimeException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                Utils.closeQuietly(socket);
+                releaseBuffers();
+            }
+        }
+
+        private void releaseBuffers() {
+            bufferPool.release(netIn);
+            bufferPool.release(netOut);
+            bufferPool.release(appIn);
+            netIn = EMPTY;
+            netOut = EMPTY;
+            appIn = EMPTY;
+        }
+    }
+
+}
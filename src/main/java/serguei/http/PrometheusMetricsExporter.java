@@ -0,0 +1,81 @@
+package serguei.http;
+
+import java.io.IOException;
+
+/**
+ * Renders metrics in Prometheus text exposition format (version 0.0.4)
+ *
+ * Durations are exported in seconds as recommended by Prometheus. Typical use:
+ *
+ * <pre>
+ * PrometheusMetricsExporter exporter = new PrometheusMetricsExporter();
+ * serverMetrics.export(exporter);
+ * String text = exporter.getText();
+ * </pre>
+ */
+public class PrometheusMetricsExporter implements MetricsExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double NANOS_IN_SECOND = 1_000_000_000d;
+
+    private final StringBuilder output;
+
+    public PrometheusMetricsExporter() {
+        this(new StringBuilder());
+    }
+
+    /**
+     * @param output
+     *            - builder to which the metrics will be appended
+     */
+    public PrometheusMetricsExporter(StringBuilder output) {
+        this.output = output;
+    }
+
+    @Override
+    public void counter(String name, String help, long value) throws IOException {
+        writeHeader(name, help, "counter");
+        output.append(name).append(' ').append(value).append('\n');
+    }
+
+    @Override
+    public void gauge(String name, String help, long value) throws IOException {
+        writeHeader(name, help, "gauge");
+        output.append(name).append(' ').append(value).append('\n');
+    }
+
+    @Override
+    public void histogram(String name, String help, LatencyHistogram histogram) throws IOException {
+        writeHeader(name, help, "histogram");
+        long[] cumulativeCounts = histogram.getCumulativeCounts();
+        int bucketNumber = histogram.getBucketNumber();
+        for (int i = 0; i < bucketNumber; i++) {
+            output.append(name).append("_bucket{le=\"");
+            output.append(histogram.getBucketUpperBoundNanos(i) / NANOS_IN_SECOND);
+            output.append("\"} ").append(cumulativeCounts[i]).append('\n');
+        }
+        long total = cumulativeCounts[bucketNumber];
+        output.append(name).append("_bucket{le=\"+Inf\"} ").append(total).append('\n');
+        output.append(name).append("_sum ").append(histogram.getSumNanos() / NANOS_IN_SECOND).append('\n');
+        output.append(name).append("_count ").append(total).append('\n');
+    }
+
+    /**
+     * @return exported metrics as text
+     */
+    public String getText() {
+        return output.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+
+    private void writeHeader(String name, String help, String type) {
+        output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        output.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+}
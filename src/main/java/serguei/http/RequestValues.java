@@ -1,25 +1,63 @@
 package serguei.http;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Values of HTML form (application/x-www-form-urlencoded or multipart/form-data body) or of the query string
+ *
+ * A name can have several values. Url-encoded data is parsed from the stream as it arrives: raw bytes of values are
+ * kept in one array and percent-decoded only when a value is requested.
+ */
 public class RequestValues {
 
-    private final Map<String, Object> values = new HashMap<>();
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int READ_BUFFER_SIZE = 8192;
 
-    RequestValues(String requestBody) {
-        String[] nameAndValuePairs = requestBody.split("&");
-        for (String nameAndValue : nameAndValuePairs) {
-            int pos = nameAndValue.indexOf('=');
-            if (pos > 0) {
-                String name = nameAndValue.substring(0, pos);
-                String value = decode(nameAndValue.substring(pos + 1));
-                values.put(name, value);
+    // entries in the order they were received, indexed by name; entries with the same name are linked by nextIndex
+    private final Map<String, Integer> firstIndex = new HashMap<>();
+    private int size;
+    private String[] names = new String[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY]; // null - not decoded yet, String or FileValue
+    private int[] nextIndex = new int[INITIAL_CAPACITY];
+    private int[] lastIndex = new int[INITIAL_CAPACITY]; // only valid for the first entry of the name
+    // url-encoded data: raw value of entry i is between valueStart[i] and valueEnd[i] of data
+    private byte[] data;
+    private int dataSize;
+    private int[] valueStart;
+    private int[] valueEnd;
+
+    /**
+     * Parses application/x-www-form-urlencoded data from the stream
+     */
+    RequestValues(InputStream inputStream) throws IOException {
+        UrlEncodedParser parser = new UrlEncodedParser();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int len;
+        while ((len = inputStream.read(buffer)) > 0) {
+            for (int i = 0; i < len; i++) {
+                parser.accept(buffer[i]);
             }
         }
+        parser.finish();
+    }
+
+    /**
+     * Parses url-encoded data between start and end of the string (e.g. query string of the request target)
+     */
+    RequestValues(String urlEncoded, int start, int end) {
+        UrlEncodedParser parser = new UrlEncodedParser();
+        for (int i = start; i < end; i++) {
+            // request line is read as ISO-8859-1, so every character is one byte
+            parser.accept((byte)urlEncoded.charAt(i));
+        }
+        parser.finish();
     }
 
     RequestValues(MultipartBodyParser multipartBodyParser) throws IOException {
@@ -28,13 +66,16 @@ public class RequestValues {
             if (bodyPart.getName() != null) {
                 FileValue value = new FileValue(bodyPart.getContentType(), bodyPart.getFilename(),
                         bodyPart.getContentAsBytes());
-                values.put(bodyPart.getName(), value);
+                add(bodyPart.getName(), value);
             }
         }
     }
 
+    /**
+     * @return value for the name, if the name has several values - the last one, null if there is no such name
+     */
     public String getValue(String name) {
-        Object value = values.get(name);
+        Object value = lastValue(name);
         if (value != null) {
             return value.toString();
         } else {
@@ -42,8 +83,36 @@ public class RequestValues {
         }
     }
 
+    /**
+     * @return all values of the name in the order they were received, an empty list if there is no such name
+     */
+    public List<String> getValues(String name) {
+        Integer index = firstIndex.get(name);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = index; i >= 0; i = nextIndex[i]) {
+            result.add(value(i).toString());
+        }
+        return result;
+    }
+
+    /**
+     * @return names in the order they were first received
+     */
+    public List<String> getNames() {
+        List<String> result = new ArrayList<>(firstIndex.size());
+        for (int i = 0; i < size; i++) {
+            if (firstIndex.get(names[i]) == i) {
+                result.add(names[i]);
+            }
+        }
+        return result;
+    }
+
     public byte[] getBytesValue(String name) {
-        Object value = values.get(name);
+        Object value = lastValue(name);
         if (value != null) {
             if (value instanceof FileValue) {
                 return ((FileValue)value).data;
@@ -56,7 +125,7 @@ public class RequestValues {
     }
 
     public String getContentType(String name) {
-        Object value = values.get(name);
+        Object value = lastValue(name);
         if (value != null) {
             if (value instanceof FileValue) {
                 return ((FileValue)value).contentType;
@@ -69,7 +138,7 @@ public class RequestValues {
     }
 
     public String getFileName(String name) {
-        Object value = values.get(name);
+        Object value = lastValue(name);
         if (value != null) {
             if (value instanceof FileValue) {
                 return ((FileValue)value).fileName;
@@ -81,14 +150,141 @@ public class RequestValues {
         }
     }
 
-    private String decode(String value) {
+    private Object lastValue(String name) {
+        Integer index = firstIndex.get(name);
+        return index != null ? value(lastIndex[index]) : null;
+    }
+
+    private Object value(int index) {
+        Object value = values[index];
+        if (value == null) {
+            value = decode(data, valueStart[index], valueEnd[index]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    private int add(String name, Object value) {
+        if (size == names.length) {
+            int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+            nextIndex = Arrays.copyOf(nextIndex, capacity);
+            lastIndex = Arrays.copyOf(lastIndex, capacity);
+            if (valueStart != null) {
+                valueStart = Arrays.copyOf(valueStart, capacity);
+                valueEnd = Arrays.copyOf(valueEnd, capacity);
+            }
+        }
+        int index = size++;
+        names[index] = name;
+        values[index] = value;
+        nextIndex[index] = -1;
+        Integer first = firstIndex.get(name);
+        if (first == null) {
+            firstIndex.put(name, index);
+        } else {
+            nextIndex[lastIndex[first]] = index;
+        }
+        lastIndex[first != null ? first : index] = index;
+        return index;
+    }
+
+    /**
+     * Decodes percent-encoding ('+' is a space) into bytes and then the bytes as UTF-8, incorrect percent-encoding is
+     * kept as it is
+     */
+    private static String decode(byte[] data, int start, int end) {
+        byte[] decoded = null;
+        int pos = 0;
+        for (int i = start; i < end; i++) {
+            byte b = data[i];
+            if (b == '+' || b == '%') {
+                if (decoded == null) {
+                    decoded = new byte[end - start];
+                    pos = i - start;
+                    System.arraycopy(data, start, decoded, 0, pos);
+                }
+                if (b == '+') {
+                    decoded[pos++] = ' ';
+                    continue;
+                }
+                int high = i + 2 < end ? Character.digit(data[i + 1], 16) : -1;
+                int low = high >= 0 ? Character.digit(data[i + 2], 16) : -1;
+                if (low >= 0) {
+                    decoded[pos++] = (byte)((high << 4) + low);
+                    i += 2;
+                    continue;
+                }
+            }
+            if (decoded != null) {
+                decoded[pos++] = b;
+            }
+        }
         try {
-            return URLDecoder.decode(value, HttpBody.BODY_CODEPAGE);
-        } catch (UnsupportedEncodingException e) {
+            if (decoded == null) {
+                return new String(data, start, end - start, HttpBody.BODY_CODEPAGE);
+            } else {
+                return new String(decoded, 0, pos, HttpBody.BODY_CODEPAGE);
+            }
+        } catch (IOException e) {
             throw new RuntimeException("Character set " + HttpBody.BODY_CODEPAGE + " is not supported");
         }
     }
 
+    /**
+     * Splits url-encoded bytes into names and values, names are decoded straight away as we need them for the index,
+     * raw bytes of values are appended to data
+     */
+    private class UrlEncodedParser {
+
+        private byte[] name = new byte[64];
+        private int nameLength;
+        private boolean inValue;
+        private int start;
+
+        private UrlEncodedParser() {
+            data = new byte[256];
+            valueStart = new int[names.length];
+            valueEnd = new int[names.length];
+        }
+
+        private void accept(byte b) {
+            if (b == '&') {
+                finish();
+            } else if (inValue) {
+                if (dataSize == data.length) {
+                    data = Arrays.copyOf(data, dataSize * 2);
+                }
+                data[dataSize++] = b;
+            } else if (b == '=') {
+                inValue = true;
+                start = dataSize;
+            } else {
+                if (nameLength == name.length) {
+                    name = Arrays.copyOf(name, nameLength * 2);
+                }
+                name[nameLength++] = b;
+            }
+        }
+
+        /**
+         * Adds the current pair, pairs without '=' or with an empty name are ignored
+         */
+        private void finish() {
+            if (inValue && nameLength > 0) {
+                int index = add(decode(name, 0, nameLength), null);
+                valueStart[index] = start;
+                valueEnd[index] = dataSize;
+            } else {
+                dataSize = start;
+            }
+            nameLength = 0;
+            inValue = false;
+            start = dataSize;
+        }
+    }
+
     private static class FileValue {
 
         private final String contentType;
@@ -0,0 +1,203 @@
+package serguei.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * Default implementation of HttpServerMetrics - keeps counters and histograms of durations for all phases of the
+ * processing of connections and requests. All values are recorded without locking.
+ *
+ * To use, pass an instance to HttpServer.setMetrics() and periodically call export() with an exporter (e.g.
+ * PrometheusMetricsExporter)
+ */
+public class ServerMetrics implements HttpServerMetrics {
+
+    private static final String PREFIX = "http_server_";
+
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder connectionsRejected = new LongAdder();
+    private final LongAdder requestsRejected = new LongAdder();
+    private final LongAdder tlsHandshakes = new LongAdder();
+    private final LongAdder tlsResumedHandshakes = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder keepAliveReuses = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LatencyHistogram acceptToDispatchTime = new LatencyHistogram();
+    private final LatencyHistogram tlsHandshakeTime = new LatencyHistogram();
+    private final LatencyHistogram headerParseTime = new LatencyHistogram();
+    private final LatencyHistogram handlerTime = new LatencyHistogram();
+    private final LatencyHistogram receiveThrottledTime = new LatencyHistogram();
+    private final LatencyHistogram sendThrottledTime = new LatencyHistogram();
+
+    @Override
+    public void connectionAccepted(long acceptToDispatchNanos) {
+        connectionsAccepted.increment();
+        acceptToDispatchTime.record(acceptToDispatchNanos);
+    }
+
+    @Override
+    public void connectionRejected(InetAddress remoteAddress) {
+        connectionsRejected.increment();
+    }
+
+    @Override
+    public void tlsHandshakeCompleted(ClientHello clientHello, SSLSession session, boolean resumed,
+            long handshakeNanos) {
+        tlsHandshakes.increment();
+        if (resumed) {
+            tlsResumedHandshakes.increment();
+        }
+        tlsHandshakeTime.record(handshakeNanos);
+    }
+
+    @Override
+    public void requestHeadersParsed(HttpRequestHeaders requestHeaders, long parseNanos, boolean reusedConnection) {
+        requests.increment();
+        if (reusedConnection) {
+            keepAliveReuses.increment();
+        }
+        headerParseTime.record(parseNanos);
+    }
+
+    @Override
+    public void requestRejected(HttpRequestHeaders requestHeaders) {
+        requestsRejected.increment();
+    }
+
+    @Override
+    public void requestCompleted(HttpRequest request, long handlerNanos, long bytesReceived, long bytesSent) {
+        handlerTime.record(handlerNanos);
+        this.bytesReceived.add(bytesReceived);
+        this.bytesSent.add(bytesSent);
+    }
+
+    @Override
+    public void connectionThrottled(long throttledNanos, boolean sending) {
+        (sending ? sendThrottledTime : receiveThrottledTime).record(throttledNanos);
+    }
+
+    @Override
+    public void connectionClosed(long connectionNanos, int requestCount) {
+        connectionsClosed.increment();
+    }
+
+    /**
+     * Passes all metrics to the exporter
+     *
+     * @param exporter
+     *            - the exporter
+     * @throws IOException
+     *             - when the exporter fails to write metrics
+     */
+    public void export(MetricsExporter exporter) throws IOException {
+        exporter.counter(PREFIX + "connections_accepted_total", "Number of accepted connections",
+                getConnectionsAccepted());
+        exporter.counter(PREFIX + "connections_closed_total", "Number of closed connections", getConnectionsClosed());
+        exporter.counter(PREFIX + "connections_rejected_total",
+                "Number of connections closed right after accepting because of client limits or IP filter",
+                getConnectionsRejected());
+        exporter.gauge(PREFIX + "connections_active", "Number of connections being processed", getActiveConnections());
+        exporter.counter(PREFIX + "tls_handshakes_total", "Number of successful TLS handshakes", getTlsHandshakes());
+        exporter.counter(PREFIX + "tls_resumed_handshakes_total",
+                "Number of TLS handshakes which resumed an earlier session", getTlsResumedHandshakes());
+        exporter.counter(PREFIX + "requests_total", "Number of received requests", getRequests());
+        exporter.counter(PREFIX + "requests_rejected_total",
+                "Number of requests answered with 429 because of client limits", getRequestsRejected());
+        exporter.counter(PREFIX + "keep_alive_reuses_total", "Number of requests received on a reused connection",
+                getKeepAliveReuses());
+        exporter.counter(PREFIX + "received_bytes_total", "Number of bytes received from clients", getBytesReceived());
+        exporter.counter(PREFIX + "sent_bytes_total", "Number of bytes sent to clients", getBytesSent());
+        exporter.histogram(PREFIX + "accept_to_dispatch_seconds",
+                "Time between accepting a connection and starting to process it", acceptToDispatchTime);
+        exporter.histogram(PREFIX + "tls_handshake_seconds", "Time taken by TLS handshakes", tlsHandshakeTime);
+        exporter.histogram(PREFIX + "header_parse_seconds", "Time taken to read request line and headers",
+                headerParseTime);
+        exporter.histogram(PREFIX + "handler_seconds", "Time taken by the request handler", handlerTime);
+        exporter.histogram(PREFIX + "receive_throttled_seconds", "Time reading waited because of bandwidth limits",
+                receiveThrottledTime);
+        exporter.histogram(PREFIX + "send_throttled_seconds", "Time writing waited because of bandwidth limits",
+                sendThrottledTime);
+    }
+
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    public long getConnectionsRejected() {
+        return connectionsRejected.sum();
+    }
+
+    public long getRequestsRejected() {
+        return requestsRejected.sum();
+    }
+
+    public long getActiveConnections() {
+        return connectionsAccepted.sum() - connectionsClosed.sum();
+    }
+
+    public long getTlsHandshakes() {
+        return tlsHandshakes.sum();
+    }
+
+    public long getTlsResumedHandshakes() {
+        return tlsResumedHandshakes.sum();
+    }
+
+    /**
+     * @return share of TLS handshakes which resumed an earlier session (between 0 and 1), 0 if there were no handshakes
+     */
+    public double getTlsResumptionRate() {
+        long handshakes = tlsHandshakes.sum();
+        return handshakes > 0 ? (double)tlsResumedHandshakes.sum() / handshakes : 0;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getKeepAliveReuses() {
+        return keepAliveReuses.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public LatencyHistogram getAcceptToDispatchTime() {
+        return acceptToDispatchTime;
+    }
+
+    public LatencyHistogram getTlsHandshakeTime() {
+        return tlsHandshakeTime;
+    }
+
+    public LatencyHistogram getHeaderParseTime() {
+        return headerParseTime;
+    }
+
+    public LatencyHistogram getHandlerTime() {
+        return handlerTime;
+    }
+
+    public LatencyHistogram getReceiveThrottledTime() {
+        return receiveThrottledTime;
+    }
+
+    public LatencyHistogram getSendThrottledTime() {
+        return sendThrottledTime;
+    }
+
+}
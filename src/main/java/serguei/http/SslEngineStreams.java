@@ -0,0 +1,246 @@
+package serguei.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * Blocking input and output streams sending and receiving data over TLS connection using SSLEngine
+ *
+ * This is used after non-blocking TLS handshake has been done by NonBlockingTlsHandshaker, the socket is switched to
+ * the blocking mode and the request processing continues in the same way as for SSLSocket (including socket timeout).
+ */
+class SslEngineStreams {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+    private final InputStream socketInputStream;
+    private final OutputStream socketOutputStream;
+    private final EngineInputStream inputStream = new EngineInputStream();
+    private final EngineOutputStream outputStream = new EngineOutputStream();
+    private final Object writeLock = new Object();
+
+    // buffers are in "read" mode (data between position and limit) except when filled
+    private ByteBuffer netIn;
+    private ByteBuffer appIn;
+    private ByteBuffer netOut;
+
+    /**
+     * @param engine
+     *            - engine that finished the handshake
+     * @param socketInputStream
+     *            - stream to read network data
+     * @param socketOutputStream
+     *            - stream to write network data
+     * @param netInLeftover
+     *            - network data read during handshake but not processed by the engine yet
+     * @param appInLeftover
+     *            - application data unwrapped during handshake
+     */
+    SslEngineStreams(SSLEngine engine, InputStream socketInputStream, OutputStream socketOutputStream,
+            ByteBuffer netInLeftover, ByteBuffer appInLeftover) {
+        this.engine = engine;
+        this.socketInputStream = socketInputStream;
+        this.socketOutputStream = socketOutputStream;
+        int packetSize = engine.getSession().getPacketBufferSize();
+        int appSize = engine.getSession().getApplicationBufferSize();
+        netIn = ByteBuffer.allocate(Math.max(packetSize, netInLeftover.remaining()));
+        netIn.put(netInLeftover);
+        netIn.flip();
+        appIn = ByteBuffer.allocate(Math.max(appSize, appInLeftover.remaining()));
+        appIn.put(appInLeftover);
+        appIn.flip();
+        netOut = ByteBuffer.allocate(packetSize);
+    }
+
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    private int readIntoAppBuffer() throws IOException {
+        while (!appIn.hasRemaining()) {
+            if (engine.isInboundDone()) {
+                return -1;
+            }
+            appIn.clear();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                appIn.flip();
+            }
+            switch (result.getStatus()) {
+                case OK:
+                    processHandshakeStatus(result.getHandshakeStatus());
+                    break;
+                case BUFFER_UNDERFLOW:
+                    if (readFromSocket() < 0) {
+                        return -1;
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize() + appIn.capacity());
+                    appIn.flip();
+                    break;
+                case CLOSED:
+                    return -1;
+            }
+        }
+        return appIn.remaining();
+    }
+
+    private int readFromSocket() throws IOException {
+        int packetSize = engine.getSession().getPacketBufferSize();
+        if (netIn.capacity() < packetSize) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(packetSize);
+            newBuffer.put(netIn);
+            netIn = newBuffer;
+        } else {
+            netIn.compact();
+        }
+        int read = socketInputStream.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+        if (read > 0) {
+            netIn.position(netIn.position() + read);
+        }
+        netIn.flip();
+        return read;
+    }
+
+    private void processHandshakeStatus(SSLEngineResult.HandshakeStatus handshakeStatus) throws IOException {
+        // post-handshake messages (e.g. TLS 1.3 KeyUpdate) might require a response or tasks
+        while (true) {
+            if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+            } else if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                synchronized (writeLock) {
+                    wrapAndWrite(EMPTY);
+                    socketOutputStream.flush();
+                }
+            } else {
+                return;
+            }
+            handshakeStatus = engine.getHandshakeStatus();
+        }
+    }
+
+    private void wrapAndWrite(ByteBuffer data) throws IOException {
+        do {
+            netOut.clear();
+            SSLEngineResult result = engine.wrap(data, netOut);
+            switch (result.getStatus()) {
+                case OK:
+                    writeNetOut();
+                    if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize() + netOut.capacity());
+                    break;
+                case CLOSED:
+                    writeNetOut();
+                    if (data.hasRemaining()) {
+                        throw new SSLException("TLS connection is closed");
+                    }
+                    return;
+                default:
+                    throw new SSLException("Unexpected result of wrapping data " + result.getStatus());
+            }
+        } while (data.hasRemaining());
+    }
+
+    private void writeNetOut() throws IOException {
+        netOut.flip();
+        if (netOut.hasRemaining()) {
+            socketOutputStream.write(netOut.array(), netOut.arrayOffset() + netOut.position(), netOut.remaining());
+        }
+    }
+
+    private class EngineInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            if (readIntoAppBuffer() < 0) {
+                return -1;
+            }
+            return appIn.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (readIntoAppBuffer() < 0) {
+                return -1;
+            }
+            len = Math.min(len, appIn.remaining());
+            appIn.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return appIn.remaining();
+        }
+
+        @Override
+        public void close() {
+            // the socket is closed when the output stream is closed (after sending close_notify)
+        }
+    }
+
+    private class EngineOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (writeLock) {
+                wrapAndWrite(ByteBuffer.wrap(b, off, len));
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (writeLock) {
+                socketOutputStream.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (writeLock) {
+                try {
+                    if (!engine.isOutboundDone()) {
+                        engine.closeOutbound();
+                        wrapAndWrite(EMPTY);
+                        socketOutputStream.flush();
+                    }
+                } finally {
+                    socketOutputStream.close();
+                }
+            }
+        }
+    }
+
+}
@@ -4,48 +4,55 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+/**
+ * Limits the rate of reading, after bytes are read the stream waits until the token buckets allow them
+ */
 public class ThrottlingInputStream extends FilterInputStream {
 
-    private final int timeoutMils;
-    private final int bytesBetweenDelays;
-    private int count = 0;
-    
+    private final BandwidthThrottle throttle;
+
+    /**
+     * @param bytesBetweenDelays
+     *            - number of bytes which can be read every timeoutMils
+     * @param timeoutMils
+     *            - period in milliseconds
+     */
     protected ThrottlingInputStream(InputStream in, int bytesBetweenDelays, int timeoutMils) {
+        this(in, new BandwidthThrottle(
+                new TokenBucket[] { new TokenBucket(Math.max(bytesBetweenDelays * 1000L / timeoutMils, 1)) }, null,
+                false));
+    }
+
+    ThrottlingInputStream(InputStream in, BandwidthThrottle throttle) {
         super(in);
-        this.bytesBetweenDelays = bytesBetweenDelays;
-        this.timeoutMils = timeoutMils;
+        this.throttle = throttle;
     }
 
-    public synchronized int read() throws IOException {
-        if (count >= bytesBetweenDelays) {
-            count -= bytesBetweenDelays;
-            pause();
+    @Override
+    public int read() throws IOException {
+        int result = in.read();
+        if (result != -1) {
+            throttle.pay(1);
         }
-        count++;
-        return in.read();
+        return result;
     }
 
-    public synchronized int read(byte b[], int off, int len) throws IOException {
-        if (count >= bytesBetweenDelays) {
-            count -= bytesBetweenDelays;
-            pause();
-        }
-        if (count + len > bytesBetweenDelays) {
-            len = bytesBetweenDelays - count;
-            if (len <= 0) {
-                len = 1;
-            }
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        int read = in.read(b, off, throttle.chunk(len));
+        if (read > 0) {
+            throttle.pay(read);
         }
-        count += len;
-        return in.read(b, off, len);
+        return read;
     }
 
-    private void pause() {
-        try {
-            Thread.sleep(timeoutMils);
-        } catch (InterruptedException e) {
-            // nothing can be done
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(Math.min(n, throttle.chunk(Integer.MAX_VALUE)));
+        if (skipped > 0) {
+            throttle.pay((int)skipped);
         }
+        return skipped;
     }
 
 }
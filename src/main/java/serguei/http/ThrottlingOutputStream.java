@@ -0,0 +1,36 @@
+package serguei.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Limits the rate of writing, each chunk of data waits until the token buckets allow it to be written
+ */
+class ThrottlingOutputStream extends FilterOutputStream {
+
+    private final BandwidthThrottle throttle;
+
+    ThrottlingOutputStream(OutputStream out, BandwidthThrottle throttle) {
+        super(out);
+        this.throttle = throttle;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        throttle.pay(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte b[], int off, int len) throws IOException {
+        while (len > 0) {
+            int chunk = throttle.chunk(len);
+            throttle.pay(chunk);
+            out.write(b, off, chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+package serguei.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel for deadlines which change much more often than they expire (e.g. read and write deadlines of
+ * connections)
+ *
+ * The wheel is an array of slots, each slot is a list of timers which must be checked at a tick of the slot. One
+ * thread (run()) moves from slot to slot every tick and expires all timers which deadline has passed, so many
+ * connections can be closed in one pass.
+ *
+ * Setting a deadline is cheap for the owner of a timer: it is a write of a volatile field, the wheel lock is taken only
+ * when the new deadline is earlier than the time the timer is going to be checked. Timers which deadline moved further
+ * (or which are not active) are moved to a later slot when the wheel gets to them.
+ */
+final class TimerWheel implements Runnable {
+
+    private final long tickMils;
+    private final int mask;
+    private final Timer[] slots;
+    // guarded by this
+    private long lastTick;
+    private volatile boolean finished;
+
+    /**
+     * @param tickMils
+     *            - precision of the wheel (timers expire up to one tick late)
+     * @param numberOfSlots
+     *            - number of slots, rounded up to a power of two
+     */
+    TimerWheel(long tickMils, int numberOfSlots) {
+        int size = Integer.highestOneBit(Math.max(numberOfSlots, 2) - 1) << 1;
+        this.tickMils = tickMils;
+        this.mask = size - 1;
+        this.slots = new Timer[size];
+        for (int i = 0; i < size; i++) {
+            // sentinel of circular list
+            Timer head = new Timer() {
+                @Override
+                protected void expire() {
+                }
+            };
+            head.next = head;
+            head.prev = head;
+            slots[i] = head;
+        }
+        this.lastTick = now() / tickMils;
+    }
+
+    /**
+     * @return the clock of the wheel in milliseconds (monotonic, not related to wall time)
+     */
+    static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Adds a timer to the wheel, the timer does not expire until its deadline is set
+     */
+    void add(Timer timer) {
+        synchronized (this) {
+            if (timer.next == null) {
+                park(timer);
+            }
+        }
+    }
+
+    /**
+     * Removes the timer from the wheel, it will not expire after that
+     */
+    void remove(Timer timer) {
+        synchronized (this) {
+            if (timer.next != null) {
+                unlink(timer);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Timer> expired = new ArrayList<>();
+        List<Timer> notExpired = new ArrayList<>();
+        while (!finished) {
+            try {
+                Thread.sleep(tickMils);
+            } catch (InterruptedException e) {
+                break;
+            }
+            synchronized (this) {
+                long now = now();
+                long currentTick = now / tickMils;
+                // after a long pause (e.g. GC) several slots might need processing, but one revolution is enough
+                for (long tick = Math.max(lastTick + 1, currentTick - mask); tick <= currentTick; tick++) {
+                    processSlot((int)(tick & mask), now, expired, notExpired);
+                }
+                lastTick = Math.max(lastTick, currentTick);
+                // linked only after all slots are processed, so that they go after the last processed tick and are not
+                // found again by this pass
+                for (Timer timer : notExpired) {
+                    long deadline = timer.deadline;
+                    if (deadline != 0) {
+                        link(timer, deadline);
+                    } else {
+                        park(timer);
+                    }
+                }
+                notExpired.clear();
+            }
+            for (Timer timer : expired) {
+                try {
+                    timer.expire();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    void stop() {
+        finished = true;
+    }
+
+    /**
+     * Empties the slot, timers which deadline has passed go to expired, others to notExpired
+     */
+    private void processSlot(int slot, long now, List<Timer> expired, List<Timer> notExpired) {
+        Timer head = slots[slot];
+        Timer timer = head.next;
+        while (timer != head) {
+            Timer next = timer.next;
+            unlink(timer);
+            // check time of a timer which is not in the wheel, so that the owner can not relink it
+            timer.checkTime = Long.MAX_VALUE;
+            long deadline = timer.deadline;
+            if (deadline != 0 && deadline <= now) {
+                expired.add(timer);
+            } else {
+                notExpired.add(timer);
+            }
+            timer = next;
+        }
+    }
+
+    /**
+     * Links inactive timer one revolution ahead
+     */
+    private void park(Timer timer) {
+        link(timer, (lastTick + mask) * tickMils);
+    }
+
+    /**
+     * Links the timer into the slot where it will be checked at checkTime, or at the nearest tick which is after the
+     * last processed tick and within one revolution
+     */
+    private void link(Timer timer, long checkTime) {
+        long tick = Math.min(Math.max(checkTime / tickMils, lastTick + 1), lastTick + mask);
+        timer.checkTime = tick * tickMils;
+        Timer head = slots[(int)(tick & mask)];
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+    }
+
+    private void unlink(Timer timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.next = null;
+        timer.prev = null;
+    }
+
+    /**
+     * Deadline of one owner (e.g. a connection)
+     */
+    abstract static class Timer {
+
+        // 0 - not active
+        private volatile long deadline;
+        private volatile long checkTime;
+        // guarded by the wheel
+        private Timer next;
+        private Timer prev;
+
+        /**
+         * Sets the deadline, the timer expires when the deadline passes unless it changes again before that
+         *
+         * @param deadline
+         *            - time by now() clock, 0 - not active
+         */
+        final void setDeadline(TimerWheel wheel, long deadline) {
+            this.deadline = deadline;
+            if (deadline != 0 && deadline < checkTime) {
+                synchronized (wheel) {
+                    // not in the wheel - being processed or expired, then the wheel reads the new deadline itself
+                    if (next != null && this.deadline != 0 && this.deadline < checkTime) {
+                        wheel.unlink(this);
+                        wheel.link(this, this.deadline);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Makes the timer inactive, it stays in the wheel
+         */
+        final void clearDeadline() {
+            deadline = 0;
+        }
+
+        /**
+         * Called by the thread of the wheel when the deadline passed, the timer is removed from the wheel
+         */
+        protected abstract void expire();
+    }
+
+}
@@ -0,0 +1,138 @@
+package serguei.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import serguei.http.utils.Utils;
+
+/**
+ * Splices raw bytes of a TLS connection between the client and a backend without terminating TLS
+ *
+ * The backend is chosen by the server from SNI of ClientHello, ClientHello itself (and anything else read while
+ * parsing it) is sent to the backend first. Data is copied through large direct buffers taken from a pool, when the
+ * client socket has a channel the data goes from channel to channel without being copied to the Java heap.
+ *
+ * The client to backend direction is copied on the calling thread and the backend to client direction on the executor.
+ * When one side shuts down its output the output to the other side is shut down as well, both sockets are closed when
+ * both directions are finished or one of them fails.
+ */
+class TlsPassthrough {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final DirectBufferPool bufferPool = new DirectBufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    private final Socket clientSocket;
+    private final ReadableByteChannel clientInput;
+    private final ByteBuffer received;
+    private final InetSocketAddress backendAddress;
+    private final int connectTimeoutMils;
+    private final CountDownLatch backendToClientFinished = new CountDownLatch(1);
+    private volatile SocketChannel backend;
+    private volatile boolean closed;
+
+    /**
+     * @param clientSocket
+     *            - client connection
+     * @param clientInput
+     *            - data received from the client starting from ClientHello
+     * @param received
+     *            - data received from the client before clientInput (can be null)
+     * @param backendAddress
+     *            - where to connect
+     * @param connectTimeoutMils
+     *            - timeout of connecting to the backend
+     */
+    TlsPassthrough(Socket clientSocket, ReadableByteChannel clientInput, ByteBuffer received,
+            InetSocketAddress backendAddress, int connectTimeoutMils) {
+        this.clientSocket = clientSocket;
+        this.clientInput = clientInput;
+        this.received = received;
+        this.backendAddress = backendAddress;
+        this.connectTimeoutMils = connectTimeoutMils;
+    }
+
+    /**
+     * Connects to the backend and copies data until the connection is finished
+     */
+    void run(Executor executor) throws IOException {
+        try {
+            // there are no request boundaries, the connection stays open as long as the client and the backend want it
+            clientSocket.setSoTimeout(0);
+            backend = SocketChannel.open();
+            if (closed) {
+                return;
+            }
+            backend.socket().connect(backendAddress, connectTimeoutMils);
+            backend.socket().setTcpNoDelay(clientSocket.getTcpNoDelay());
+            final WritableByteChannel clientOutput = clientSocket.getChannel() != null ? clientSocket.getChannel()
+                    : Channels.newChannel(clientSocket.getOutputStream());
+            if (received != null) {
+                while (received.hasRemaining()) {
+                    backend.write(received);
+                }
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        copy(backend, clientOutput);
+                        clientSocket.shutdownOutput();
+                    } catch (IOException e) {
+                        close();
+                    } finally {
+                        backendToClientFinished.countDown();
+                    }
+                }
+            });
+            try {
+                copy(clientInput, backend);
+                backend.shutdownOutput();
+            } catch (IOException e) {
+                // the client or the backend reset the connection
+                close();
+            }
+            backendToClientFinished.await();
+        } catch (RejectedExecutionException e) {
+            // the server is stopping
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Closes both connections, copying of data in both directions fails after that
+     */
+    void close() {
+        closed = true;
+        Utils.closeQuietly(backend);
+        Utils.closeQuietly(clientSocket);
+    }
+
+    private static void copy(ReadableByteChannel input, WritableByteChannel output) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            while (input.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+                buffer.clear();
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+}
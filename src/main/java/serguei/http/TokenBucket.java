@@ -0,0 +1,102 @@
+package serguei.http;
+
+/**
+ * Token bucket limiting number of bytes (or other units, e.g. requests) per second
+ *
+ * Bytes are taken without waiting, the bucket can go into debt and the caller is told how long to wait for the debt to
+ * be paid, so a bucket shared by many connections (e.g. of one client or of the whole server) needs only a short lock
+ * and never blocks. A bucket for bandwidth starts empty, so the rate is not exceeded from the start; tokens saved while
+ * it is idle allow a burst of up to the capacity.
+ */
+final class TokenBucket {
+
+    private static final long NANOS_IN_SECOND = 1_000_000_000L;
+    private static final long MIN_CAPACITY = 1024;
+
+    private final long ratePerSecond;
+    private final long capacity;
+    private long tokens;
+    private long updatedNanos;
+
+    /**
+     * @param bytesPerSecond
+     *            - the rate, must be more than zero
+     */
+    TokenBucket(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be more than zero: " + bytesPerSecond);
+        }
+        this.ratePerSecond = bytesPerSecond;
+        // a tenth of a second of traffic
+        this.capacity = Math.max(bytesPerSecond / 10, MIN_CAPACITY);
+        this.updatedNanos = System.nanoTime();
+    }
+
+    /**
+     * Creates a full bucket
+     *
+     * @param ratePerSecond
+     *            - the rate, must be more than zero
+     * @param capacity
+     *            - the largest burst
+     */
+    TokenBucket(long ratePerSecond, long capacity) {
+        if (ratePerSecond <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Rate and capacity must be more than zero: " + ratePerSecond + ", "
+                    + capacity);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.updatedNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the largest number of bytes worth taking at once
+     */
+    long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Takes tokens for the bytes
+     *
+     * @return time in nanoseconds the caller must wait before transferring the bytes, 0 - no need to wait
+     */
+    synchronized long take(long bytes) {
+        refill();
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : -tokens * NANOS_IN_SECOND / ratePerSecond;
+    }
+
+    /**
+     * Takes tokens only if there are enough of them
+     *
+     * @return true if the tokens were taken
+     */
+    synchronized boolean tryTake(long count) {
+        refill();
+        if (tokens >= count) {
+            tokens -= count;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long elapsed = now - updatedNanos;
+        long nanosToFill = (capacity - tokens) * NANOS_IN_SECOND / ratePerSecond;
+        if (elapsed >= nanosToFill) {
+            tokens = capacity;
+            updatedNanos = now;
+        } else {
+            long added = elapsed * ratePerSecond / NANOS_IN_SECOND;
+            tokens += added;
+            // fractions of tokens are not lost
+            updatedNanos += added * NANOS_IN_SECOND / ratePerSecond;
+        }
+    }
+
+}
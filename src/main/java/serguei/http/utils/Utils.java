@@ -7,6 +7,8 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
@@ -18,6 +20,10 @@ public final class Utils {
     private static final String IPV4_PATTERN_STRING = "(([1-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])\\.){1}"
             + "(([0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])\\.){2}" + "([0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])";
     private static final Pattern IPV4_PATTERN = Pattern.compile("^" + IPV4_PATTERN_STRING + "$");
+    private static final String IPV4_OCTET_STRING = "([0-9]|[1-9][0-9]|1[0-9]{2}|2[0-4][0-9]|25[0-5])";
+    // unlike IPV4_PATTERN allows addresses like 0.0.0.0 which are not host names but are used in network masks
+    private static final Pattern IPV4_ANY_PATTERN = Pattern
+            .compile("^(" + IPV4_OCTET_STRING + "\\.){3}" + IPV4_OCTET_STRING + "$");
     private static final Pattern IPV6_STD_PATTERN = Pattern.compile("^[0-9a-fA-F]{1,4}(:[0-9a-fA-F]{1,4}){7}$");
     private static final String IPV6_COMPRESSED_PATTERN_STR = "(([0-9A-Fa-f]{1,4}(:[0-9A-Fa-f]{1,4}){0,5})?)::(([0-9A-Fa-f]{1,4}(:[0-9A-Fa-f]{1,4}){0,5})?)";
     private static final Pattern IPV6_COMPRESSED_PATTERN = Pattern.compile("^" + IPV6_COMPRESSED_PATTERN_STR + "$");
@@ -140,6 +146,22 @@ public final class Utils {
         return IPV6_STD_PATTERN.matcher(host).matches() || isIPv6HexCompressedAddress(host);
     }
 
+    /**
+     * Converts IP address literal to bytes without resolving any names
+     * 
+     * @return 4 bytes of IPv4 address or 16 bytes of IPv6 address (which can be in square brackets), null if the value
+     *         is not an IP address
+     */
+    public static byte[] ipAddressToBytes(String value) {
+        String host = value;
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        } else if (IPV4_ANY_PATTERN.matcher(host).matches()) {
+            return toAddressBytes(host);
+        }
+        return isIPv6Address(host) ? toAddressBytes(host) : null;
+    }
+
     public static X509Certificate readPemFile(InputStream inputStream) throws IOException, CertificateException {
         StringBuilder data = new StringBuilder();
         BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
@@ -154,6 +176,15 @@ public final class Utils {
         return (X509Certificate)factory.generateCertificate(new ByteArrayInputStream(certBytes));
     }
 
+    private static byte[] toAddressBytes(String literal) {
+        try {
+            // a literal is parsed, there is no lookup
+            return InetAddress.getByName(literal).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
     private static boolean isIPv6HexCompressedAddress(String value) {
         int colonCount = 0;
         for (int i = 0; i < value.length(); i++) {
@@ -0,0 +1,289 @@
+package serguei.http;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.function.Function;
+
+import javax.net.ssl.SSLSession;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits JDK Flight Recorder events about lifecycle of a connection.
+ *
+ * One instance is created per connection and only when at least one of the events is enabled in a running recording,
+ * so there is no cost when Flight Recorder is not recording.
+ *
+ * This is compiled separately from the rest of the sources (src/main/jfr) because jdk.jfr is not a part of Java 8 API,
+ * HttpServer loads it by name through Factory and does without it when it is not there or jdk.jfr is not available.
+ */
+final class FlightRecorderMetrics implements HttpServerMetrics {
+
+    private static final String CATEGORY = "HTTP Server";
+
+    private final String remoteAddress;
+    private long bytesReceived;
+    private long bytesSent;
+    private long receiveThrottledNanos;
+    private long sendThrottledNanos;
+
+    private FlightRecorderMetrics(String remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
+    /**
+     * @return metrics for a new connection or null if none of the events is enabled
+     */
+    static HttpServerMetrics forConnection(Socket socket) {
+        if (new ConnectionAcceptedEvent().isEnabled() || new TlsHandshakeEvent().isEnabled()
+                || new RequestHeadEvent().isEnabled() || new RequestHandledEvent().isEnabled()
+                || new ConnectionClosedEvent().isEnabled()) {
+            return new FlightRecorderMetrics(addressAsString(socket.getRemoteSocketAddress()));
+        } else {
+            return null;
+        }
+    }
+
+    static final class Factory implements Function<Socket, HttpServerMetrics> {
+
+        @Override
+        public HttpServerMetrics apply(Socket socket) {
+            return forConnection(socket);
+        }
+    }
+
+    @Override
+    public void connectionAccepted(long acceptToDispatchNanos) {
+        ConnectionAcceptedEvent event = new ConnectionAcceptedEvent();
+        if (event.isEnabled()) {
+            event.remoteAddress = remoteAddress;
+            event.acceptToDispatch = acceptToDispatchNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void connectionRejected(InetAddress remoteAddress) {
+        // rejected connections do not get instances of this class
+    }
+
+    @Override
+    public void tlsHandshakeCompleted(ClientHello clientHello, SSLSession session, boolean resumed,
+            long handshakeNanos) {
+        TlsHandshakeEvent event = new TlsHandshakeEvent();
+        if (event.isEnabled()) {
+            event.remoteAddress = remoteAddress;
+            event.handshake = handshakeNanos;
+            event.protocol = session.getProtocol();
+            event.cipher = session.getCipherSuite();
+            event.sni = clientHello != null ? clientHello.getSniHostName() : null;
+            event.resumed = resumed;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void requestHeadersParsed(HttpRequestHeaders requestHeaders, long parseNanos, boolean reusedConnection) {
+        RequestHeadEvent event = new RequestHeadEvent();
+        if (event.isEnabled()) {
+            event.remoteAddress = remoteAddress;
+            event.method = requestHeaders.getMethod();
+            event.path = requestHeaders.getPath();
+            event.parse = parseNanos;
+            event.reusedConnection = reusedConnection;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void requestRejected(HttpRequestHeaders requestHeaders) {
+        // the request is in RequestHead event
+    }
+
+    @Override
+    public void requestCompleted(HttpRequest request, long handlerNanos, long bytesReceived, long bytesSent) {
+        this.bytesReceived += bytesReceived;
+        this.bytesSent += bytesSent;
+        RequestHandledEvent event = new RequestHandledEvent();
+        if (event.isEnabled()) {
+            event.remoteAddress = remoteAddress;
+            event.method = request.getMethod();
+            event.path = request.headers().getPath();
+            event.handler = handlerNanos;
+            event.bytesReceived = bytesReceived;
+            event.bytesSent = bytesSent;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void connectionThrottled(long throttledNanos, boolean sending) {
+        if (sending) {
+            sendThrottledNanos += throttledNanos;
+        } else {
+            receiveThrottledNanos += throttledNanos;
+        }
+    }
+
+    @Override
+    public void connectionClosed(long connectionNanos, int requestCount) {
+        ConnectionClosedEvent event = new ConnectionClosedEvent();
+        if (event.isEnabled()) {
+            event.remoteAddress = remoteAddress;
+            event.connection = connectionNanos;
+            event.requestCount = requestCount;
+            event.bytesReceived = bytesReceived;
+            event.bytesSent = bytesSent;
+            event.receiveThrottled = receiveThrottledNanos;
+            event.sendThrottled = sendThrottledNanos;
+            event.commit();
+        }
+    }
+
+    private static String addressAsString(SocketAddress socketAddress) {
+        if (socketAddress instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress)socketAddress;
+            return address.getHostString() + ":" + address.getPort();
+        } else {
+            return String.valueOf(socketAddress);
+        }
+    }
+
+    @Name("serguei.http.ConnectionAccepted")
+    @Label("Connection Accepted")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class ConnectionAcceptedEvent extends Event {
+
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Accept to Dispatch")
+        @Description("Time between accepting the connection and starting to process it")
+        @Timespan(Timespan.NANOSECONDS)
+        long acceptToDispatch;
+    }
+
+    @Name("serguei.http.TlsHandshake")
+    @Label("TLS Handshake Completed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class TlsHandshakeEvent extends Event {
+
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Handshake Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long handshake;
+
+        @Label("Protocol")
+        String protocol;
+
+        @Label("Cipher Suite")
+        String cipher;
+
+        @Label("SNI")
+        String sni;
+
+        @Label("Session Resumed")
+        boolean resumed;
+    }
+
+    @Name("serguei.http.RequestHead")
+    @Label("Request Head Parsed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class RequestHeadEvent extends Event {
+
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Method")
+        String method;
+
+        @Label("Path")
+        String path;
+
+        @Label("Parse Duration")
+        @Description("Time between receiving the first byte of the request and reading all headers")
+        @Timespan(Timespan.NANOSECONDS)
+        long parse;
+
+        @Label("Reused Connection")
+        boolean reusedConnection;
+    }
+
+    @Name("serguei.http.RequestHandled")
+    @Label("Request Handled")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class RequestHandledEvent extends Event {
+
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Method")
+        String method;
+
+        @Label("Path")
+        String path;
+
+        @Label("Handler Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long handler;
+
+        @Label("Bytes Received")
+        @DataAmount
+        long bytesReceived;
+
+        @Label("Bytes Sent")
+        @DataAmount
+        long bytesSent;
+    }
+
+    @Name("serguei.http.ConnectionClosed")
+    @Label("Connection Closed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class ConnectionClosedEvent extends Event {
+
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Connection Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long connection;
+
+        @Label("Request Count")
+        int requestCount;
+
+        @Label("Bytes Received")
+        @DataAmount
+        long bytesReceived;
+
+        @Label("Bytes Sent")
+        @DataAmount
+        long bytesSent;
+
+        @Label("Receive Throttled")
+        @Description("Time reading waited because of bandwidth limits")
+        @Timespan(Timespan.NANOSECONDS)
+        long receiveThrottled;
+
+        @Label("Send Throttled")
+        @Description("Time writing waited because of bandwidth limits")
+        @Timespan(Timespan.NANOSECONDS)
+        long sendThrottled;
+    }
+
+}
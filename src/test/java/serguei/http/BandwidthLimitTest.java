@@ -0,0 +1,123 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BandwidthLimitTest {
+
+    private static final int PORT = 8080;
+    private static final int BODY_SIZE = 30_000;
+
+    private HttpServer server;
+
+    @After
+    public void clear() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void bucketShouldAskToWaitWhenEmpty() {
+        TokenBucket bucket = new TokenBucket(10_000);
+
+        long waitNanos = bucket.take(1000);
+
+        // the bucket starts empty, 1000 bytes at 10000 bytes per second is 100 ms
+        assertTrue("Wait was " + waitNanos, waitNanos > 90_000_000L && waitNanos <= 100_000_000L);
+        assertTrue(bucket.take(1000) > waitNanos);
+    }
+
+    @Test
+    public void bucketShouldNotSaveMoreThanCapacity() throws Exception {
+        TokenBucket bucket = new TokenBucket(100_000);
+        Thread.sleep(300);
+
+        assertEquals(0, bucket.take(bucket.getCapacity()));
+        assertTrue(bucket.take(1000) > 0);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldLimitReading() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(20_000, 0, 0, 0, 0, 0);
+        BandwidthLimiter.ConnectionLimits limits = limiter.connect(InetAddress.getLoopbackAddress(), null);
+        InputStream input = limits.wrap(new ByteArrayInputStream(new byte[BODY_SIZE]));
+        byte[] buffer = new byte[8192];
+        long start = System.currentTimeMillis();
+
+        int total = 0;
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            total += read;
+        }
+
+        long time = System.currentTimeMillis() - start;
+        assertEquals(BODY_SIZE, total);
+        assertTrue("Time was " + time, time >= 1400);
+        limits.release();
+    }
+
+    @Test
+    public void shouldShareBucketsOfClient() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter(0, 0, 0, 20_000, 0, 0);
+        BandwidthLimiter.ConnectionLimits limits1 = limiter.connect(InetAddress.getLoopbackAddress(), null);
+        BandwidthLimiter.ConnectionLimits limits2 = limiter.connect(InetAddress.getLoopbackAddress(), null);
+        BandwidthLimiter.ConnectionLimits limits3 = limiter.connect(InetAddress.getByName("10.0.0.1"), null);
+
+        assertEquals(2, limiter.getClientCount());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        OutputStream output1 = limits1.wrap(output);
+        OutputStream output2 = limits2.wrap(output);
+        long start = System.currentTimeMillis();
+        output1.write(new byte[10_000]);
+        output2.write(new byte[10_000]);
+        long time = System.currentTimeMillis() - start;
+        assertTrue("Time was " + time, time >= 900);
+
+        limits1.release();
+        assertEquals(2, limiter.getClientCount());
+        limits2.release();
+        limits3.release();
+        assertEquals(0, limiter.getClientCount());
+    }
+
+    @Test(timeout = 20000)
+    public void shouldLimitSendingToClientAndReportThrottledTime() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        server = new HttpServer(new HttpServerRequestHandler() {
+            @Override
+            public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                    throws IOException {
+                HttpResponseHeaders headers = HttpResponseHeaders.ok();
+                headers.setHeader("Content-Length", Integer.toString(BODY_SIZE));
+                headers.write(outputStream);
+                outputStream.write(new byte[BODY_SIZE]);
+            }
+        }, PORT);
+        server.setMetrics(metrics);
+        server.setConnectionBandwidthLimit(0, 20_000);
+        server.start(10, 200);
+
+        try (HttpClientConnection connection = new HttpClientConnection("localhost", PORT)) {
+            long start = System.currentTimeMillis();
+
+            HttpResponse response = connection.send(HttpRequestHeaders.getRequest("http://localhost/"));
+
+            assertEquals(200, response.getStatusCode());
+            assertEquals(BODY_SIZE, response.readBodyAsBytes().length);
+            long time = System.currentTimeMillis() - start;
+            assertTrue("Time was " + time, time >= 1400);
+            assertTrue(metrics.getSendThrottledTime().getCount() > 0);
+            assertEquals(0, metrics.getReceiveThrottledTime().getCount());
+        }
+    }
+}
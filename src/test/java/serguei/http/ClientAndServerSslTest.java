@@ -2,9 +2,12 @@ package serguei.http;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 
+import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLProtocolException;
 import javax.net.ssl.X509TrustManager;
@@ -59,6 +62,51 @@ public class ClientAndServerSslTest {
         assertEquals(responseBody, response.readBodyAsString());
     }
 
+    @Test
+    public void shouldRepeatHandshakeAfterMultipartPartIsShorterThanDeclared() throws Exception {
+        server.setResponse(HttpResponseHeaders.ok(), responseBody.getBytes(BODY_CHARSET));
+        byte[] body = requestBody.getBytes(BODY_CHARSET);
+        MultipartFormDataRequestBody multipartBody = new MultipartFormDataRequestBody("BorderBorder");
+        multipartBody.add(new ByteArrayInputStream(body), body.length + 10, "file", "file.txt", "text/plain");
+        clientConnection.startHandshake();
+
+        try {
+            clientConnection.send(new HttpRequestHeaders(REQUEST_LINE, "Host: localhost"), multipartBody);
+            fail("Exception expected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        HttpResponse response = clientConnection.send(new HttpRequestHeaders(REQUEST_LINE, "Host: localhost"),
+                requestBody);
+        assertEquals(200, response.getStatusCode());
+        assertTrue(server.getLatestConnectionContext().isSsl());
+        assertEquals(requestBody, server.getLatestRequestBodyAsString());
+        assertEquals(responseBody, response.readBodyAsString());
+    }
+
+    @Test
+    public void shouldRepeatHandshakeAfterStreamIsShorterThanDeclaredLength() throws Exception {
+        server.setResponse(HttpResponseHeaders.ok(), responseBody.getBytes(BODY_CHARSET));
+        byte[] body = requestBody.getBytes(BODY_CHARSET);
+        clientConnection.startHandshake();
+
+        try {
+            clientConnection.send(new HttpRequestHeaders(REQUEST_LINE, "Host: localhost"),
+                    new ByteArrayInputStream(body), body.length + 10);
+            fail("Exception expected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        HttpResponse response = clientConnection.send(new HttpRequestHeaders(REQUEST_LINE, "Host: localhost"),
+                requestBody);
+        assertEquals(200, response.getStatusCode());
+        assertTrue(server.getLatestConnectionContext().isSsl());
+        assertEquals(requestBody, server.getLatestRequestBodyAsString());
+        assertEquals(responseBody, response.readBodyAsString());
+    }
+
     @Test
     public void shouldSendAndReceiveFromServerWhichOnlySupportsTls10() throws Exception {
         server.setResponse(HttpResponseHeaders.ok(), responseBody.getBytes(BODY_CHARSET), BodyCompression.NONE);
@@ -302,6 +350,27 @@ public class ClientAndServerSslTest {
         assertFalse(server.getLatestConnectionContext().getRequestedTlsSessionId().length > 0);
     }
 
+    @Test
+    public void shouldUseWildcardKeyStoreForMatchingSni() throws Exception {
+        server.shouldWarnWhenSniNotMatching(true);
+        server.addHostSpecificKeystore("*.tenant.com", keyStorePath(), "password", "test01");
+        server.setResponse(HttpResponseHeaders.ok(), new byte[0]);
+
+        clientConnection.startHandshake("shop.tenant.com");
+        HttpResponse response = clientConnection.send(new HttpRequestHeaders(REQUEST_LINE, "Host: localhost"));
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("shop.tenant.com", server.getLatestConnectionContext().getSni());
+    }
+
+    @Test(expected = SSLException.class)
+    public void shouldNotUseWildcardKeyStoreForTwoLabels() throws Exception {
+        server.shouldWarnWhenSniNotMatching(true);
+        server.addHostSpecificKeystore("*.tenant.com", keyStorePath(), "password", "test01");
+
+        clientConnection.startHandshake("eu.shop.tenant.com");
+    }
+
     private static String makeBody(String msg) {
         StringBuilder builder = new StringBuilder();
         for (int i = 0; i < 200; i++) {
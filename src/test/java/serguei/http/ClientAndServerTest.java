@@ -9,6 +9,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -157,6 +160,91 @@ public class ClientAndServerTest {
         assertEquals(responseBody, response.readBodyAsString());
     }
 
+    @Test
+    public void shouldSendBodyOfKnownLengthFromStream() throws Exception {
+        server.setResponse(HttpResponseHeaders.ok(), responseBody.getBytes(BODY_CHARSET), BodyCompression.NONE);
+        HttpRequestHeaders headers = new HttpRequestHeaders(REQUEST_LINE, "Host: localhost");
+        byte[] body = requestBody.getBytes(BODY_CHARSET);
+        InputStream inputStream = new ByteArrayInputStream(Utils.concat(body, "extra".getBytes(BODY_CHARSET)));
+
+        HttpResponse response = clientConnection.send(headers, inputStream, body.length);
+
+        assertEquals(requestBody, server.getLatestRequestBodyAsString());
+        assertEquals(Integer.toString(body.length), server.getLatestRequestHeaders().getHeader("Content-Length"));
+        assertNull(server.getLatestRequestHeaders().getHeader("Transfer-Encoding"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals(responseBody, response.readBodyAsString());
+        assertEquals("extra".length(), inputStream.available());
+    }
+
+    @Test
+    public void shouldSendBodyOfKnownLengthFromChannel() throws Exception {
+        server.setResponse(HttpResponseHeaders.ok(), responseBody.getBytes(BODY_CHARSET), BodyCompression.NONE);
+        HttpRequestHeaders headers = new HttpRequestHeaders(REQUEST_LINE, "Host: localhost");
+        byte[] body = requestBody.getBytes(BODY_CHARSET);
+
+        HttpResponse response = clientConnection.send(headers, Channels.newChannel(new ByteArrayInputStream(body)),
+                body.length);
+
+        assertEquals(requestBody, server.getLatestRequestBodyAsString());
+        assertEquals(Integer.toString(body.length), server.getLatestRequestHeaders().getHeader("Content-Length"));
+        assertEquals(responseBody, response.readBodyAsString());
+    }
+
+    @Test
+    public void shouldSendFile() throws Exception {
+        server.setResponse(HttpResponseHeaders.ok(), responseBody.getBytes(BODY_CHARSET), BodyCompression.NONE);
+        HttpRequestHeaders headers = new HttpRequestHeaders(REQUEST_LINE, "Host: localhost");
+        Path file = Files.createTempFile("request", ".txt");
+        try {
+            Files.write(file, requestBody.getBytes(BODY_CHARSET));
+
+            HttpResponse response = clientConnection.send(headers, file);
+
+            assertEquals(requestBody, server.getLatestRequestBodyAsString());
+            assertEquals(Long.toString(Files.size(file)), server.getLatestRequestHeaders().getHeader("Content-Length"));
+            assertEquals(responseBody, response.readBodyAsString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldFailWhenStreamIsShorterThanDeclaredLength() throws Exception {
+        HttpRequestHeaders headers = new HttpRequestHeaders(REQUEST_LINE, "Host: localhost");
+        byte[] body = requestBody.getBytes(BODY_CHARSET);
+
+        try {
+            clientConnection.send(headers, new ByteArrayInputStream(body), body.length + 10);
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertEquals("Request body is shorter than declared: " + body.length + " bytes instead of "
+                    + (body.length + 10), e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldCloseConnectionWhenMultipartPartIsShorterThanDeclared() throws Exception {
+        server.setResponse(HttpResponseHeaders.ok(), responseBody.getBytes(BODY_CHARSET));
+        byte[] body = requestBody.getBytes(BODY_CHARSET);
+        MultipartFormDataRequestBody multipartBody = new MultipartFormDataRequestBody("BorderBorder");
+        multipartBody.add(new ByteArrayInputStream(body), body.length + 10, "file", "file.txt", "text/plain");
+
+        try {
+            clientConnection.send(new HttpRequestHeaders(REQUEST_LINE, "Host: localhost"), multipartBody);
+            fail("Exception expected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the next request goes through a new connection and is not taken as the rest of the body
+        HttpResponse response = clientConnection.send(new HttpRequestHeaders(REQUEST_LINE, "Host: localhost"),
+                requestBody);
+        assertEquals(200, response.getStatusCode());
+        assertEquals(requestBody, server.getLatestRequestBodyAsString());
+        assertEquals(responseBody, response.readBodyAsString());
+    }
+
     @Test
     public void shouldSendAndReceiveGZippedDataFromServerChunked() throws Exception {
         server.setChunkedResponse(HttpResponseHeaders.ok(), responseBody.getBytes(BODY_CHARSET), BodyCompression.GZIP);
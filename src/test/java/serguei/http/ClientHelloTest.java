@@ -2,11 +2,13 @@ package serguei.http;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.junit.Test;
 
@@ -108,4 +110,24 @@ public class ClientHelloTest {
         assertTrue(clientHello.getRecordProtocolVersion().isUndefined());
     }
 
+    @Test
+    public void shouldReadClientHelloFromBufferWithoutConsumingIt() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(GOOGLE_HELLO);
+
+        ClientHello clientHello = ClientHello.read(buffer);
+
+        assertEquals("www.google.co.uk", clientHello.getSniHostName());
+        assertEquals(new TlsVersion(3, 3), clientHello.getProtocolVersion());
+        assertEquals(0, buffer.position());
+        assertEquals(GOOGLE_HELLO.length, buffer.remaining());
+    }
+
+    @Test
+    public void shouldDetectWhenClientHelloIsComplete() {
+        assertFalse(ClientHello.isComplete(ByteBuffer.wrap(GOOGLE_HELLO, 0, 4)));
+        assertFalse(ClientHello.isComplete(ByteBuffer.wrap(GOOGLE_HELLO, 0, GOOGLE_HELLO.length - 1)));
+        assertTrue(ClientHello.isComplete(ByteBuffer.wrap(GOOGLE_HELLO)));
+        assertTrue(ClientHello.isComplete(ByteBuffer.wrap(RANDOM)));
+    }
+
 }
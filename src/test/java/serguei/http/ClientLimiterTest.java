@@ -0,0 +1,170 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ClientLimiterTest {
+
+    private static final int PORT = 8080;
+
+    private HttpServer server;
+
+    @After
+    public void clear() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void shouldLimitConnectionsOfClient() throws Exception {
+        ClientLimiter limiter = new ClientLimiter(2, 0);
+        Socket socket1 = new ClientSocket("10.0.0.1");
+        Socket socket2 = new ClientSocket("10.0.0.1");
+
+        assertTrue(limiter.acceptConnection(socket1));
+        assertTrue(limiter.acceptConnection(socket2));
+        assertFalse(limiter.acceptConnection(new ClientSocket("10.0.0.1")));
+        assertTrue(limiter.acceptConnection(new ClientSocket("10.0.0.2")));
+        limiter.connectionClosed(socket1);
+        limiter.connectionClosed(socket1);
+        assertTrue(limiter.acceptConnection(new ClientSocket("10.0.0.1")));
+        assertFalse(limiter.acceptConnection(new ClientSocket("10.0.0.1")));
+    }
+
+    @Test
+    public void shouldReleaseClosedSocketsOnSweep() throws Exception {
+        ClientLimiter limiter = new ClientLimiter(1, 0);
+        Socket socket = new ClientSocket("10.0.0.1");
+
+        assertTrue(limiter.acceptConnection(socket));
+        assertFalse(limiter.acceptConnection(new ClientSocket("10.0.0.1")));
+        socket.close();
+        limiter.sweep();
+        assertTrue(limiter.acceptConnection(new ClientSocket("10.0.0.1")));
+    }
+
+    @Test
+    public void shouldLimitRequestsOfClient() throws Exception {
+        ClientLimiter limiter = new ClientLimiter(0, 5);
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.acceptRequest(address));
+        }
+        assertFalse(limiter.acceptRequest(address));
+        assertTrue(limiter.acceptRequest(InetAddress.getByName("10.0.0.2")));
+        Thread.sleep(250);
+        assertTrue(limiter.acceptRequest(address));
+    }
+
+    @Test
+    public void shouldDropIdleClients() throws Exception {
+        ClientLimiter limiter = new ClientLimiter(2, 0, 0);
+        Socket socket1 = new ClientSocket("10.0.0.1");
+        Socket socket2 = new ClientSocket("10.0.0.2");
+        limiter.acceptConnection(socket1);
+        limiter.acceptConnection(socket2);
+
+        socket1.close();
+        limiter.sweep();
+
+        assertEquals(1, limiter.getClientCount());
+        socket2.close();
+        limiter.sweep();
+        assertEquals(0, limiter.getClientCount());
+    }
+
+    @Test(timeout = 10000)
+    public void serverShouldResetConnectionOverLimit() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        server = new HttpServer(new OkHandler(), PORT);
+        server.setMetrics(metrics);
+        server.setMaxConnectionsPerClient(1);
+        server.start(10, 200);
+
+        try (HttpClientConnection connection1 = new HttpClientConnection("localhost", PORT);
+                HttpClientConnection connection2 = new HttpClientConnection("localhost", PORT)) {
+            HttpResponse response = connection1.send(HttpRequestHeaders.getRequest("http://localhost/"));
+            assertEquals(200, response.getStatusCode());
+            response.drainBody();
+
+            try {
+                connection2.send(HttpRequestHeaders.getRequest("http://localhost/"));
+                fail("Connection over the limit must be closed");
+            } catch (IOException e) {
+                // expected
+            }
+
+            assertEquals(1, metrics.getConnectionsRejected());
+            response = connection1.send(HttpRequestHeaders.getRequest("http://localhost/"));
+            assertEquals(200, response.getStatusCode());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void serverShouldAnswerTooManyRequests() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        server = new HttpServer(new OkHandler(), PORT);
+        server.setMetrics(metrics);
+        server.setMaxRequestsPerSecondPerClient(2);
+        server.start(10, 200);
+
+        try (Socket socket = new Socket("localhost", PORT)) {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            for (int i = 0; i < 2; i++) {
+                output.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+                output.flush();
+                HttpResponse response = new HttpResponse(input);
+                assertEquals(200, response.getStatusCode());
+                response.drainBody();
+            }
+            output.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            output.flush();
+
+            HttpResponse response = new HttpResponse(input);
+
+            assertEquals(429, response.getStatusCode());
+            assertEquals("1", response.getHeader("Retry-After"));
+            response.drainBody();
+            assertEquals(-1, input.read());
+            assertEquals(1, metrics.getRequestsRejected());
+        }
+    }
+
+    private static class ClientSocket extends Socket {
+
+        private final InetAddress address;
+
+        private ClientSocket(String address) throws IOException {
+            this.address = InetAddress.getByName(address);
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return address;
+        }
+    }
+
+    private static class OkHandler implements HttpServerRequestHandler {
+
+        @Override
+        public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                throws IOException {
+            HttpResponseHeaders headers = HttpResponseHeaders.ok();
+            headers.setHeader("Content-Length", "2");
+            headers.write(outputStream);
+            outputStream.write("ok".getBytes());
+        }
+    }
+}
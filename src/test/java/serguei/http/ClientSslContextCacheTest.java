@@ -0,0 +1,128 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.Test;
+
+public class ClientSslContextCacheTest {
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final Supplier<SSLContext> factory = new Supplier<SSLContext>() {
+        @Override
+        public SSLContext get() {
+            created.incrementAndGet();
+            try {
+                return SSLContext.getInstance("TLS");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    @Test
+    public void shouldReuseContextForSameOrigin() {
+        ClientSslContextCache cache = new ClientSslContextCache(10);
+
+        SSLContext first = cache.get("www.example.com:443", false, null, null, null, factory);
+        SSLContext second = cache.get("www.example.com:443", false, null, null, null, factory);
+
+        assertSame(first, second);
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void shouldUseSeparateContextsForOriginsAndConfigurations() {
+        ClientSslContextCache cache = new ClientSslContextCache(10);
+
+        SSLContext context = cache.get("www.example.com:443", false, null, null, null, factory);
+
+        assertNotSame(context, cache.get("www.example.com:8443", false, null, null, null, factory));
+        assertNotSame(context, cache.get("www.example.org:443", false, null, null, null, factory));
+        assertNotSame(context, cache.get("www.example.com:443", true, null, null, null, factory));
+        assertNotSame(context, cache.get("www.example.com:443", false, keyStorePath(), "password", "test01", factory));
+        assertEquals(5, created.get());
+    }
+
+    @Test
+    public void shouldRecreateContextWhenKeyStoreFileChanges() throws Exception {
+        ClientSslContextCache cache = new ClientSslContextCache(10);
+        File keyStore = File.createTempFile("client", ".jks");
+        try {
+            SSLContext context = cache.get("www.example.com:443", false, keyStore.getPath(), "password", "test01",
+                    factory);
+            assertSame(context, cache.get("www.example.com:443", false, keyStore.getPath(), "password", "test01",
+                    factory));
+
+            assertTrue(keyStore.setLastModified(keyStore.lastModified() - 10000));
+
+            assertNotSame(context, cache.get("www.example.com:443", false, keyStore.getPath(), "password", "test01",
+                    factory));
+        } finally {
+            keyStore.delete();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotBlockOtherOriginsWhileCreatingContext() throws Exception {
+        final ClientSslContextCache cache = new ClientSslContextCache(10);
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cache.get("slow:443", false, null, null, null, new Supplier<SSLContext>() {
+                    @Override
+                    public SSLContext get() {
+                        creating.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            // finishing
+                        }
+                        return factory.get();
+                    }
+                });
+            }
+        });
+        thread.start();
+        assertTrue(creating.await(5, TimeUnit.SECONDS));
+
+        try {
+            assertNotNull(cache.get("fast:443", false, null, null, null, factory));
+        } finally {
+            release.countDown();
+            thread.join();
+        }
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void shouldDropLeastRecentlyUsedContexts() {
+        ClientSslContextCache cache = new ClientSslContextCache(2);
+
+        SSLContext first = cache.get("a:443", false, null, null, null, factory);
+        cache.get("b:443", false, null, null, null, factory);
+        cache.get("a:443", false, null, null, null, factory);
+        cache.get("c:443", false, null, null, null, factory);
+
+        assertEquals(2, cache.size());
+        assertSame(first, cache.get("a:443", false, null, null, null, factory));
+        assertEquals(3, created.get());
+        cache.get("b:443", false, null, null, null, factory);
+        assertEquals(4, created.get());
+    }
+
+    private String keyStorePath() {
+        return getClass().getResource("/test.jks").getFile();
+    }
+
+}
@@ -0,0 +1,87 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+import org.junit.Test;
+
+public class ConnectionContextTest {
+
+    private final List<String> sessionCalls = new ArrayList<>();
+
+    @Test
+    public void shouldNotTouchSessionUntilValuesAreRequested() {
+        ConnectionContext context = new ConnectionContext(new ConnectedSocket(), session(), false, null);
+
+        assertTrue(context.isSsl());
+        assertTrue(sessionCalls.isEmpty());
+    }
+
+    @Test
+    public void shouldReadSessionValuesOnce() {
+        ConnectionContext context = new ConnectionContext(new ConnectedSocket(), session(), true, null);
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(TlsVersion.TLSv12, context.getNegotiatedTlsProtocol());
+            assertArrayEquals(new byte[] {1, 2, 3}, context.getTlsSessionId());
+            assertNull(context.getTlsCertificates());
+        }
+        assertEquals("", context.getSni());
+        assertNull(context.getRequestedTlsSessionId());
+        assertTrue(context.isTlsSessionResumed());
+        assertEquals(3, sessionCalls.size());
+    }
+
+    @Test
+    public void shouldReturnNullsForPlainConnection() {
+        ConnectionContext context = new ConnectionContext(new ConnectedSocket(), null, false, null);
+
+        assertFalse(context.isSsl());
+        assertNull(context.getNegotiatedTlsProtocol());
+        assertNull(context.getNegotiatedCipher());
+        assertNull(context.getTlsSessionId());
+        assertNull(context.getSni());
+        assertNull(context.getTlsCertificates());
+        assertNull(context.getRequestedTlsSessionId());
+    }
+
+    private SSLSession session() {
+        return (SSLSession)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {SSLSession.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        sessionCalls.add(method.getName());
+                        switch (method.getName()) {
+                            case "getProtocol":
+                                return "TLSv1.2";
+                            case "getId":
+                                return new byte[] {1, 2, 3};
+                            case "getPeerCertificates":
+                                throw new SSLPeerUnverifiedException("No certificates");
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+                });
+    }
+
+    private static class ConnectedSocket extends Socket {
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return new InetSocketAddress("127.0.0.1", 12345);
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ConnectionTimeoutTest {
+
+    private static final int PORT = 8080;
+    private static final String REQUEST = "GET /ok HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+    private HttpServer server;
+
+    @After
+    public void clear() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldCloseConnectionWhichSendsHeadersTooSlowly() throws Exception {
+        createServer(new OkHandler());
+        server.setHeaderTimeoutMils(500);
+        server.setKeepAliveTimeoutMils(5000);
+        server.start(10, 200);
+
+        try (Socket socket = new Socket("localhost", PORT)) {
+            OutputStream output = socket.getOutputStream();
+            long start = System.currentTimeMillis();
+            boolean closed = false;
+            // each byte arrives in time for keep-alive timeout, but all headers do not
+            for (int i = 0; i < REQUEST.length() && !closed; i++) {
+                try {
+                    output.write(REQUEST.charAt(i));
+                    output.flush();
+                    Thread.sleep(100);
+                } catch (IOException e) {
+                    closed = true;
+                }
+            }
+            if (!closed) {
+                closed = socket.getInputStream().read() == -1;
+            }
+
+            assertTrue(closed);
+            assertTrue(System.currentTimeMillis() - start < 3000);
+        } catch (IOException e) {
+            // reset by the server
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldCloseIdleConnection() throws Exception {
+        createServer(new OkHandler());
+        server.setKeepAliveTimeoutMils(300);
+        server.start(10, 200);
+
+        try (Socket socket = new Socket("localhost", PORT)) {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            output.write(REQUEST.getBytes());
+            output.flush();
+            HttpResponse response = new HttpResponse(input);
+            assertEquals(200, response.getStatusCode());
+            response.drainBody();
+            long start = System.currentTimeMillis();
+
+            assertEquals(-1, input.read());
+            long idle = System.currentTimeMillis() - start;
+            assertTrue(idle >= 250);
+            assertTrue(idle < 3000);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldKeepConnectionWhileHandlerIsWorking() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        createServer(new HttpServerRequestHandler() {
+            @Override
+            public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                    throws IOException {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                HttpResponseHeaders.ok().write(outputStream);
+                outputStream.write("done".getBytes());
+            }
+        });
+        server.setTimeoutMils(300);
+        server.start(10, 200);
+
+        try (HttpClientConnection connection = new HttpClientConnection("localhost", PORT)) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        // release now
+                    }
+                    latch.countDown();
+                }
+            }).start();
+
+            HttpResponse response = connection.send(HttpRequestHeaders.getRequest("http://localhost/slow"));
+
+            assertEquals(200, response.getStatusCode());
+            assertEquals("done", response.readBodyAsString());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldServeSeveralRequestsOnConnection() throws Exception {
+        createServer(new OkHandler());
+        server.setKeepAliveTimeoutMils(1000);
+        server.setHeaderTimeoutMils(1000);
+        server.start(10, 200);
+
+        try (HttpClientConnection connection = new HttpClientConnection("localhost", PORT)) {
+            for (int i = 0; i < 5; i++) {
+                HttpResponse response = connection.send(HttpRequestHeaders.getRequest("http://localhost/ok"));
+                assertEquals(200, response.getStatusCode());
+                assertEquals("ok", response.readBodyAsString());
+                Thread.sleep(200);
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void wheelShouldCatchUpAfterStall() throws Exception {
+        TimerWheel wheel = new TimerWheel(10, 64);
+        new Thread(wheel).start();
+        try {
+            // idle timers which wait in one slot, about one revolution (640 ms) ahead
+            for (int i = 0; i < 1000; i++) {
+                wheel.add(new TimerWheel.Timer() {
+                    @Override
+                    protected void expire() {
+                    }
+                });
+            }
+            final AtomicInteger expired = new AtomicInteger();
+            TimerWheel.Timer staller = new TimerWheel.Timer() {
+                @Override
+                protected void expire() {
+                    try {
+                        // the wheel falls behind by many ticks, the slot of idle timers is passed during the stall
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    expired.incrementAndGet();
+                }
+            };
+            wheel.add(staller);
+            staller.setDeadline(wheel, TimerWheel.now() + 600);
+            while (expired.get() == 0) {
+                Thread.sleep(10);
+            }
+            TimerWheel.Timer probe = new TimerWheel.Timer() {
+                @Override
+                protected void expire() {
+                    expired.incrementAndGet();
+                }
+            };
+
+            long start = TimerWheel.now();
+            wheel.add(probe);
+            probe.setDeadline(wheel, TimerWheel.now() + 50);
+            while (expired.get() < 2) {
+                Thread.sleep(10);
+            }
+
+            assertTrue("Took " + (TimerWheel.now() - start), TimerWheel.now() - start < 300);
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void wheelShouldExpireTimerOnlyAfterDeadline() throws Exception {
+        TimerWheel wheel = new TimerWheel(10, 16);
+        new Thread(wheel).start();
+        try {
+            final AtomicInteger expired = new AtomicInteger();
+            TimerWheel.Timer timer = new TimerWheel.Timer() {
+                @Override
+                protected void expire() {
+                    expired.incrementAndGet();
+                }
+            };
+            wheel.add(timer);
+            // far deadline which is moved forward does not expire
+            for (int i = 0; i < 20; i++) {
+                timer.setDeadline(wheel, TimerWheel.now() + 1000);
+                Thread.sleep(20);
+            }
+            assertEquals(0, expired.get());
+            timer.clearDeadline();
+            Thread.sleep(300);
+            assertEquals(0, expired.get());
+
+            timer.setDeadline(wheel, TimerWheel.now() + 50);
+            Thread.sleep(300);
+
+            assertEquals(1, expired.get());
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    private void createServer(HttpServerRequestHandler handler) {
+        server = new HttpServer(handler, PORT);
+    }
+
+    private static class OkHandler implements HttpServerRequestHandler {
+
+        @Override
+        public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                throws IOException {
+            HttpResponseHeaders headers = HttpResponseHeaders.ok();
+            headers.setHeader("Content-Length", "2");
+            headers.write(outputStream);
+            outputStream.write("ok".getBytes());
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExpectContinueTest {
+
+    private static final int PORT = 8080;
+    private static final int SSL_PORT = 8443;
+    private static final int RAW_SERVER_PORT = 8081;
+    private static final String BODY = "This is the body of the upload";
+    private static final String CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n";
+
+    private HttpServer server;
+
+    @Before
+    public void setup() throws Exception {
+        server = new HttpServer(new UploadHandler(), PORT, SSL_PORT, keyStorePath(), "password", "test01");
+        server.start(10, 200);
+    }
+
+    @After
+    public void clear() {
+        server.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void serverShouldSendContinueWhenHandlerReadsBody() throws Exception {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            output.write(("POST /upload HTTP/1.1\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: "
+                    + BODY.length() + "\r\n\r\n").getBytes());
+            output.flush();
+
+            assertEquals(CONTINUE, readString(input, CONTINUE.length()));
+
+            output.write(BODY.getBytes());
+            output.flush();
+            HttpResponse response = new HttpResponse(input);
+            assertEquals(200, response.getStatusCode());
+            assertEquals(BODY, response.readBodyAsString());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void serverShouldNotSendContinueWhenHandlerRejectsRequest() throws Exception {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            output.write(("POST /reject HTTP/1.1\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: "
+                    + BODY.length() + "\r\n\r\n").getBytes());
+            output.flush();
+
+            HttpResponse response = new HttpResponse(input);
+
+            assertEquals(413, response.getStatusCode());
+            response.drainBody();
+            // the body was not asked for, so the connection cannot be used for the next request
+            assertEquals(-1, input.read());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void serverShouldIgnoreExpectOfHttp10Request() throws Exception {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            output.write(("POST /upload HTTP/1.0\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: "
+                    + BODY.length() + "\r\n\r\n" + BODY).getBytes());
+            output.flush();
+
+            HttpResponse response = new HttpResponse(input);
+
+            assertEquals(200, response.getStatusCode());
+            assertEquals(BODY, response.readBodyAsString());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void clientShouldSendBodyAfterContinue() throws Exception {
+        try (HttpClientConnection connection = new HttpClientConnection("localhost", PORT)) {
+            connection.setExpectContinueTimeoutMillis(5000);
+            HttpRequestHeaders headers = HttpRequestHeaders.postRequest("http://localhost/upload");
+
+            HttpResponse response = connection.send(headers, new ByteArrayInputStream(BODY.getBytes()),
+                    BODY.length());
+
+            assertEquals("100-continue", headers.getHeader("Expect"));
+            assertEquals(200, response.getStatusCode());
+            assertEquals(BODY, response.readBodyAsString());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void clientShouldNotSendBodyWhenRequestIsRejected() throws Exception {
+        try (HttpClientConnection connection = new HttpClientConnection("localhost", PORT)) {
+            connection.setExpectContinueTimeoutMillis(5000);
+            final AtomicBoolean bodyRead = new AtomicBoolean();
+            InputStream body = new ByteArrayInputStream(BODY.getBytes()) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    bodyRead.set(true);
+                    return super.read(b, off, len);
+                }
+            };
+
+            HttpResponse response = connection.send(HttpRequestHeaders.postRequest("http://localhost/reject"), body,
+                    BODY.length());
+
+            assertEquals(413, response.getStatusCode());
+            response.drainBody();
+            assertFalse(bodyRead.get());
+            // the next request goes through a new connection
+            response = connection.send(HttpRequestHeaders.postRequest("http://localhost/upload"), BODY);
+            assertEquals(200, response.getStatusCode());
+            assertEquals(BODY, response.readBodyAsString());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void clientShouldRepeatTlsHandshakeAfterRequestIsRejected() throws Exception {
+        try (HttpClientConnection connection = new HttpClientConnection("localhost", SSL_PORT)) {
+            connection.setExpectContinueTimeoutMillis(5000);
+            connection.startHandshake("www.test.com");
+
+            HttpResponse response = connection.send(HttpRequestHeaders.postRequest("http://localhost/reject"),
+                    new ByteArrayInputStream(BODY.getBytes()), BODY.length());
+
+            assertEquals(413, response.getStatusCode());
+            response.drainBody();
+            // the next request goes through a new connection, which must not be in clear text
+            response = connection.send(HttpRequestHeaders.postRequest("http://localhost/upload"), BODY);
+            assertEquals(200, response.getStatusCode());
+            assertEquals(BODY, response.readBodyAsString());
+            assertNotNull(connection.getNegotiatedTlsProtocol());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void clientShouldSendBodyWhenServerDoesNotAnswer() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(RAW_SERVER_PORT)) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // a server which does not know about Expect header and sends 100 Continue late
+                    try (Socket socket = serverSocket.accept()) {
+                        InputStream input = new BufferedInputStream(socket.getInputStream());
+                        HttpRequest request = new HttpRequest(input);
+                        String body = request.readBodyAsString();
+                        OutputStream output = socket.getOutputStream();
+                        output.write(CONTINUE.getBytes());
+                        output.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length() + "\r\n\r\n" + body)
+                                .getBytes());
+                        output.flush();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            thread.start();
+            try (HttpClientConnection connection = new HttpClientConnection("localhost", RAW_SERVER_PORT)) {
+                connection.setExpectContinueTimeoutMillis(200);
+
+                HttpResponse response = connection.send(HttpRequestHeaders.postRequest("http://localhost/upload"),
+                        BODY);
+
+                assertEquals(200, response.getStatusCode());
+                assertEquals(BODY, response.readBodyAsString());
+            }
+            thread.join();
+        }
+    }
+
+    private static String readString(InputStream input, int length) throws IOException {
+        byte[] data = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            int read = input.read(data, pos, length - pos);
+            if (read == -1) {
+                break;
+            }
+            pos += read;
+        }
+        return new String(data, 0, pos);
+    }
+
+    private String keyStorePath() {
+        return getClass().getResource("/test.jks").getFile();
+    }
+
+    private static class UploadHandler implements HttpServerRequestHandler {
+
+        @Override
+        public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                throws IOException {
+            if (request.getUrl().getPath().equals("/reject")) {
+                HttpResponseHeaders headers = new HttpResponseHeaders("HTTP/1.1 413 Payload Too Large",
+                        "Content-Length: 0");
+                headers.write(outputStream);
+            } else {
+                byte[] body = request.readBodyAsBytes();
+                HttpResponseHeaders headers = HttpResponseHeaders.ok();
+                headers.setHeader("Content-Length", Integer.toString(body.length));
+                headers.write(outputStream);
+                outputStream.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HostNameIndexTest {
+
+    private final HostNameIndex<String> index = new HostNameIndex<>();
+
+    @Test
+    public void shouldFindExactName() {
+        index.put("www.example.com", "exact");
+
+        assertEquals("exact", index.get("www.example.com"));
+        assertNull(index.get("example.com"));
+        assertNull(index.get("mail.example.com"));
+    }
+
+    @Test
+    public void shouldMatchWildcardWithOneLabel() {
+        index.put("*.example.com", "wildcard");
+
+        assertEquals("wildcard", index.get("www.example.com"));
+        assertEquals("wildcard", index.get("mail.example.com"));
+        assertNull(index.get("example.com"));
+        assertNull(index.get("a.b.example.com"));
+        assertNull(index.get("www.example.org"));
+    }
+
+    @Test
+    public void shouldPreferExactNameToWildcard() {
+        index.put("*.example.com", "wildcard");
+        index.put("www.example.com", "exact");
+
+        assertEquals("exact", index.get("www.example.com"));
+        assertEquals("wildcard", index.get("mail.example.com"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void shouldIgnoreCaseAndTrailingDot() {
+        index.put("WWW.Example.com", "exact");
+        index.put("*.Tenant.NET.", "wildcard");
+
+        assertEquals("exact", index.get("www.example.COM"));
+        assertEquals("exact", index.get("www.example.com."));
+        assertEquals("wildcard", index.get("Shop.tenant.net"));
+    }
+
+    @Test
+    public void shouldReplaceValueForSameName() {
+        index.put("www.example.com", "first");
+        index.put("www.example.com", "second");
+
+        assertEquals("second", index.get("www.example.com"));
+        assertEquals(1, index.values().size());
+    }
+
+    @Test
+    public void shouldReturnNullForEmptyName() {
+        index.put("*.example.com", "wildcard");
+
+        assertNull(index.get(""));
+        assertNull(index.get(null));
+    }
+
+}
@@ -0,0 +1,47 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.Test;
+
+public class HttpDateTest {
+
+    @Test
+    public void shouldFormatCurrentDate() {
+        long before = System.currentTimeMillis() / 1000;
+        String value = HttpDate.now().getValue();
+        long after = System.currentTimeMillis() / 1000;
+
+        long parsed = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        assertTrue(parsed >= before && parsed <= after);
+        assertTrue(value.matches("[A-Z][a-z]{2}, \\d{2} [A-Z][a-z]{2} \\d{4} \\d{2}:\\d{2}:\\d{2} GMT"));
+        assertEquals(value, new String(HttpDate.now().getBytes()));
+    }
+
+    @Test
+    public void shouldReuseValueWithinSecond() {
+        HttpDate first;
+        HttpDate second;
+        long start;
+        do {
+            start = System.currentTimeMillis() / 1000;
+            first = HttpDate.now();
+            second = HttpDate.now();
+        } while (System.currentTimeMillis() / 1000 != start);
+
+        assertSame(first.getBytes(), second.getBytes());
+    }
+
+    @Test
+    public void shouldSetDateHeader() {
+        HttpResponseHeaders headers = HttpResponseHeaders.ok();
+
+        headers.setDateHeader();
+
+        assertEquals(HttpDate.now().getValue().length(), headers.getHeader("Date").length());
+    }
+
+}
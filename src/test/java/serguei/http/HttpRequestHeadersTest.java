@@ -316,4 +316,96 @@ public class HttpRequestHeadersTest {
         assertSame(headerValue, newHeaders.getHeader(headerName));
         assertSame(headerName, newHeaders.listHeaderNames().get(0));
     }
+
+    @Test
+    public void shouldNotChangeCopiesWhenOriginalChanges() throws HttpException {
+        HttpRequestHeaders origHeaders = new HttpRequestHeaders("GET / HTTP/1.1", "Header1: Value1",
+                "Header2: Value1");
+        HttpRequestHeaders newHeaders = new HttpRequestHeaders(origHeaders);
+
+        origHeaders.addHeader("Header1", "Value2");
+        origHeaders.setHeader("Header2", "Value2");
+        origHeaders.removeHeader("Header2");
+        newHeaders.addHeader("Header3", "Value1");
+        HttpRequestHeaders secondCopy = new HttpRequestHeaders(newHeaders);
+        newHeaders.addHeader("Header1", "Value3");
+
+        assertEquals(Arrays.asList("Value1", "Value2"), origHeaders.getHeaders("Header1"));
+        assertNull(origHeaders.getHeader("Header2"));
+        assertEquals(Arrays.asList("Value1", "Value3"), newHeaders.getHeaders("header1"));
+        assertEquals("Value1", newHeaders.getHeader("HEADER2"));
+        assertEquals(Arrays.asList("Header1", "Header2", "Header3"), secondCopy.listHeaderNames());
+        assertEquals(Arrays.asList("Value1"), secondCopy.getHeaders("Header1"));
+    }
+
+    @Test
+    public void shouldKeepOrderOfManyHeaders() throws Exception {
+        HttpRequestHeaders headers = new HttpRequestHeaders("GET / HTTP/1.1");
+        StringBuilder expected = new StringBuilder("GET / HTTP/1.1" + LINE_BREAK);
+        for (int i = 0; i < 40; i++) {
+            headers.addHeader("x-header-" + i, "value" + i);
+        }
+        headers.addHeader("X-Header-3", "second");
+        headers.removeHeader("X-HEADER-10");
+        headers.setHeader("x-header-20", "new");
+        for (int i = 0; i < 40; i++) {
+            if (i == 3) {
+                expected.append("x-header-3: value3" + LINE_BREAK + "x-header-3: second" + LINE_BREAK);
+            } else if (i == 20) {
+                expected.append("x-header-20: new" + LINE_BREAK);
+            } else if (i != 10) {
+                expected.append("x-header-" + i + ": value" + i + LINE_BREAK);
+            }
+        }
+        expected.append(LINE_BREAK);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        headers.write(output);
+
+        assertEquals(expected.toString(), output.toString("ISO-8859-1"));
+        assertEquals(39, headers.listHeaderNames().size());
+        assertEquals("X-Header-39", headers.listHeaderNames().get(38));
+    }
+
+    @Test
+    public void shouldNotExposeValuesList() throws HttpException {
+        HttpRequestHeaders headers = new HttpRequestHeaders("GET / HTTP/1.1", "Header1: Value1", "Header1: Value2");
+
+        headers.getHeaders("Header1").add("Value3");
+
+        assertEquals(Arrays.asList("Value1", "Value2"), headers.getHeaders("Header1"));
+    }
+
+    @Test
+    public void shouldReturnConstantsForStandardMethodsAndVersions() throws Exception {
+        HttpRequestHeaders headers = new HttpRequestHeaders(
+                new ByteArrayInputStream(("POST /test HTTP/1.1" + LINE_BREAK + LINE_BREAK).getBytes("ASCII")));
+
+        assertSame(HttpMethod.POST, headers.getMethod());
+        assertSame(HttpVersion.HTTP_1_1, headers.getVersion());
+        assertEquals("/test", headers.getPath());
+        assertSame(HttpVersion.HTTP_1_0, new HttpRequestHeaders("GET / HTTP/1.0").getVersion());
+    }
+
+    @Test
+    public void shouldAcceptNonStandardMethodAndVersion() throws Exception {
+        HttpRequestHeaders headers = new HttpRequestHeaders("PROPFIND /dav HTTP/2.0");
+
+        assertEquals("PROPFIND", headers.getMethod());
+        assertEquals("HTTP/2.0", headers.getVersion());
+    }
+
+    @Test
+    public void shouldRejectMalformedRequestLines() {
+        String[] lines = {"GET /", "GET", "GET  / HTTP/1.1", "GET / HTTP/1.1 extra", " GET / HTTP/1.1", "G(T / HTTP/1.1",
+                "GET / HTTP/1", "GET / http/1.1", "GET / HTTP/1.x", "GET / HTTP/1.10"};
+        for (String line : lines) {
+            try {
+                new HttpRequestHeaders(line);
+                fail("Exception expected for " + line);
+            } catch (HttpException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(line));
+            }
+        }
+    }
 }
@@ -61,4 +61,75 @@ public class HttpRequestTest {
         assertEquals(Collections.emptyList(), headers);
     }
 
+
+    @Test
+    public void shouldParseFormValues() throws IOException {
+        String requestBody = "name=John+Smith&city=S%C3%A3o%20Paulo&empty=&novalue&=ignored&bad=100%&name=Jane";
+        String requestData = "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded"
+                + "\r\nContent-Length: " + requestBody.length() + "\r\n\r\n" + requestBody;
+        HttpRequest request = new HttpRequest(new ByteArrayInputStream(requestData.getBytes()));
+
+        RequestValues values = request.readBodyAsValues();
+
+        assertEquals("Jane", values.getValue("name"));
+        assertEquals(Arrays.asList("John Smith", "Jane"), values.getValues("name"));
+        assertEquals("S\u00e3o Paulo", values.getValue("city"));
+        assertEquals("", values.getValue("empty"));
+        assertEquals("100%", values.getValue("bad"));
+        assertNull(values.getValue("novalue"));
+        assertEquals(Collections.emptyList(), values.getValues("novalue"));
+        assertEquals(Arrays.asList("name", "city", "empty", "bad"), values.getNames());
+        assertEquals("text/plain", values.getContentType("city"));
+    }
+
+    @Test
+    public void shouldParseFormValuesLongerThanReadBuffer() throws IOException {
+        StringBuilder requestBody = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            requestBody.append("field").append(i % 10).append('=').append("value%20").append(i).append('&');
+        }
+        String requestData = "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + requestBody.length()
+                + "\r\n\r\n" + requestBody;
+        HttpRequest request = new HttpRequest(new ByteArrayInputStream(requestData.getBytes()));
+
+        RequestValues values = request.readBodyAsValues();
+
+        List<String> field3 = values.getValues("field3");
+        assertEquals(100, field3.size());
+        assertEquals("value 3", field3.get(0));
+        assertEquals("value 993", field3.get(99));
+        assertEquals("value 999", values.getValue("field9"));
+    }
+
+    @Test
+    public void shouldReturnNoFormValuesWithoutBody() throws IOException {
+        String requestData = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        HttpRequest request = new HttpRequest(new ByteArrayInputStream(requestData.getBytes()));
+
+        RequestValues values = request.readBodyAsValues();
+
+        assertNull(values.getValue("name"));
+        assertEquals(Collections.emptyList(), values.getNames());
+    }
+
+    @Test
+    public void shouldParseQueryValues() throws IOException {
+        String requestData = "GET /search?q=http+client&tag=a&tag=b%26c#results HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        HttpRequest request = new HttpRequest(new ByteArrayInputStream(requestData.getBytes()));
+
+        RequestValues values = request.getQueryValues();
+
+        assertEquals("http client", values.getValue("q"));
+        assertEquals(Arrays.asList("a", "b&c"), values.getValues("tag"));
+        assertEquals(Arrays.asList("q", "tag"), values.getNames());
+    }
+
+    @Test
+    public void shouldReturnNoQueryValuesWithoutQuery() throws IOException {
+        String requestData = "GET /search HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        HttpRequest request = new HttpRequest(new ByteArrayInputStream(requestData.getBytes()));
+
+        assertEquals(Collections.emptyList(), request.getQueryValues().getNames());
+    }
+
 }
@@ -0,0 +1,103 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+public class HttpResponseHeadTemplateTest {
+
+    private static final String LINE_BREAK = "\r\n";
+
+    @Test
+    public void shouldWriteHeadWithContentLength() throws Exception {
+        HttpResponseHeadTemplate template = new HttpResponseHeadTemplate(
+                new HttpResponseHeaders("HTTP/1.1 200 OK", "Content-Type: text/plain", "Cache-Control: no-cache"));
+        WriteCountingOutputStream output = new WriteCountingOutputStream();
+
+        template.write(output, 1234567);
+
+        assertEquals("HTTP/1.1 200 OK" + LINE_BREAK + "Content-Type: text/plain" + LINE_BREAK
+                + "Cache-Control: no-cache" + LINE_BREAK + "Content-Length: 1234567" + LINE_BREAK + LINE_BREAK,
+                output.toString("ISO-8859-1"));
+        assertEquals(1, output.writes);
+    }
+
+    @Test
+    public void shouldWriteZeroContentLength() throws Exception {
+        HttpResponseHeadTemplate template = new HttpResponseHeadTemplate(HttpResponseHeaders.ok());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        template.write(output, 0);
+
+        HttpResponseHeaders headers = new HttpResponseHeaders(new ByteArrayInputStream(output.toByteArray()));
+        assertEquals(200, headers.getStatusCode());
+        assertEquals(0, headers.getContentLength());
+    }
+
+    @Test
+    public void shouldWriteStaticHead() throws Exception {
+        HttpResponseHeadTemplate template = new HttpResponseHeadTemplate(HttpResponseHeaders.redirectTo("/new"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        template.write(output);
+
+        assertEquals("HTTP/1.1 302 Found" + LINE_BREAK + "Location: /new" + LINE_BREAK + LINE_BREAK,
+                output.toString("ISO-8859-1"));
+    }
+
+    @Test
+    public void shouldNotChangeWhenHeadersChange() throws Exception {
+        HttpResponseHeaders headers = HttpResponseHeaders.ok();
+        HttpResponseHeadTemplate template = new HttpResponseHeadTemplate(headers);
+        headers.setHeader("X-Changed", "yes");
+
+        HttpResponseHeaders copy = template.toHeaders();
+        copy.setHeader("X-Copy", "yes");
+
+        assertNull(template.toHeaders().getHeader("X-Changed"));
+        assertNull(template.toHeaders().getHeader("X-Copy"));
+        assertEquals(200, copy.getStatusCode());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotAddSecondContentLength() throws Exception {
+        HttpResponseHeadTemplate template = new HttpResponseHeadTemplate(
+                new HttpResponseHeaders("HTTP/1.1 200 OK", "Content-Length: 10"));
+
+        template.write(new ByteArrayOutputStream(), 10);
+    }
+
+    @Test
+    public void shouldAddDate() throws Exception {
+        HttpResponseHeadTemplate template = new HttpResponseHeadTemplate(HttpResponseHeaders.ok(), true);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        template.write(output, 5);
+
+        HttpResponseHeaders headers = new HttpResponseHeaders(new ByteArrayInputStream(output.toByteArray()));
+        assertEquals(5, headers.getContentLength());
+        assertNotNull(headers.getHeader("Date"));
+        assertNotNull(template.toHeaders().getHeader("Date"));
+        assertTrue(output.toString("ISO-8859-1").endsWith(" GMT" + LINE_BREAK + LINE_BREAK));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAddSecondDate() throws Exception {
+        new HttpResponseHeadTemplate(new HttpResponseHeaders("HTTP/1.1 200 OK", "Date: today"), true);
+    }
+
+    private static class WriteCountingOutputStream extends ByteArrayOutputStream {
+
+        private int writes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes++;
+            super.write(b, off, len);
+        }
+    }
+
+}
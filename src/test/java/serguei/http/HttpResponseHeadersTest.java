@@ -179,6 +179,59 @@ public class HttpResponseHeadersTest {
         assertEquals("HTTP/1.1", headers.getVersion());
     }
 
+    @Test
+    public void shouldWriteAllValuesAsIso88591WithOneWrite() throws IOException {
+        HttpResponseHeaders headers = new HttpResponseHeaders("HTTP/1.1 200 OK", "Set-Cookie: a=1", "Set-Cookie: b=2",
+                "X-Name: caf\u00e9 \u20ac");
+        final int[] writes = new int[1];
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                writes[0]++;
+                super.write(b, off, len);
+            }
+        };
+
+        headers.write(outputStream);
+
+        assertEquals("HTTP/1.1 200 OK" + LINE_BREAK + "Set-Cookie: a=1" + LINE_BREAK + "Set-Cookie: b=2" + LINE_BREAK
+                + "X-Name: caf\u00e9 ?" + LINE_BREAK + LINE_BREAK, outputStream.toString("ISO-8859-1"));
+        assertEquals(1, writes[0]);
+    }
+
+    @Test
+    public void shouldReturnConstantsForStandardStatusLine() throws IOException {
+        String data = "HTTP/1.1 404 Not Found" + LINE_BREAK + LINE_BREAK;
+
+        HttpResponseHeaders headers = new HttpResponseHeaders(new ByteArrayInputStream(data.getBytes("ASCII")));
+
+        assertSame(HttpVersion.HTTP_1_1, headers.getVersion());
+        assertSame(HttpStatus.reason(404), headers.getReason());
+        assertEquals(404, headers.getStatusCode());
+    }
+
+    @Test
+    public void shouldKeepNonStandardReasonAndVersion() throws HttpException {
+        HttpResponseHeaders headers = new HttpResponseHeaders("HTTP/2 200 Fine Thanks");
+
+        assertEquals("HTTP/2", headers.getVersion());
+        assertEquals(200, headers.getStatusCode());
+        assertEquals("Fine Thanks", headers.getReason());
+    }
+
+    @Test
+    public void shouldRejectMalformedStatusCodes() {
+        String[] lines = {"HTTP/1.1", "HTTP/1.1 20", "HTTP/1.1 2000 OK", "HTTP/1.1 2x0 OK", "HTTP/1.1  200 OK"};
+        for (String line : lines) {
+            try {
+                new HttpResponseHeaders(line);
+                fail("Exception expected for " + line);
+            } catch (HttpException e) {
+                // expected
+            }
+        }
+    }
+
     private String writeToString(HttpResponseHeaders headers) throws IOException {
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         headers.write(outputStream);
@@ -3,13 +3,20 @@ package serguei.http;
 import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Test;
 
+import serguei.http.utils.Utils;
+
 public class HttpResponseTest {
 
     @Test
@@ -60,4 +67,53 @@ public class HttpResponseTest {
         assertEquals(Collections.emptyList(), headers);
     }
 
+
+    @Test
+    public void shouldWriteBodyToFile() throws IOException {
+        byte[] responseBody = Utils.buildDataArray(200000);
+        byte[] responseData = Utils.concat(("HTTP/1.1 200 OK\r\nContent-Length: " + responseBody.length + "\r\n\r\n")
+                .getBytes(), responseBody, "extra data".getBytes());
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(responseData);
+        HttpResponse response = new HttpResponse(inputStream);
+        Path file = Files.createTempFile("response", ".bin");
+        try {
+            long written = response.writeBodyTo(file);
+
+            assertEquals(responseBody.length, written);
+            assertArrayEquals(responseBody, Files.readAllBytes(file));
+            assertEquals("extra data".length(), inputStream.available());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldWriteChunkedAndCompressedBodyToChannel() throws IOException {
+        String responseBody = Utils.multiplyString("This is a compressed response. ", 1000);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutput = new GZIPOutputStream(new ChunkedOutputStream(gzipped, 1000, true))) {
+            gzipOutput.write(responseBody.getBytes());
+        }
+        byte[] responseData = Utils.concat(
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Encoding: gzip\r\n\r\n".getBytes(),
+                gzipped.toByteArray());
+        HttpResponse response = new HttpResponse(new ByteArrayInputStream(responseData));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        long written = response.writeBodyTo(Channels.newChannel(output));
+
+        assertEquals(responseBody.length(), written);
+        assertEquals(responseBody, new String(output.toByteArray()));
+    }
+
+    @Test
+    public void shouldWriteNothingWhenThereIsNoBody() throws IOException {
+        String responseData = "HTTP/1.1 204 OK\r\nContent-Length: 0\r\n\r\n";
+        HttpResponse response = new HttpResponse(new ByteArrayInputStream(responseData.getBytes()));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        assertEquals(0, response.writeBodyTo(Channels.newChannel(output)));
+        assertEquals(0, output.size());
+    }
+
 }
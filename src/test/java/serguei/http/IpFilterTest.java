@@ -0,0 +1,125 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class IpFilterTest {
+
+    private static final int PORT = 8080;
+
+    @Test
+    public void shouldDenyListedNetworks() throws Exception {
+        IpFilter filter = new IpFilter(null, Arrays.asList("10.0.0.0/8", "192.168.1.7", "2001:db8::/32"));
+
+        assertFalse(filter.isAllowed(address("10.1.2.3")));
+        assertFalse(filter.isAllowed(address("192.168.1.7")));
+        assertFalse(filter.isAllowed(address("2001:db8:1::5")));
+        assertTrue(filter.isAllowed(address("11.0.0.1")));
+        assertTrue(filter.isAllowed(address("192.168.1.8")));
+        assertTrue(filter.isAllowed(address("2001:db9::1")));
+    }
+
+    @Test
+    public void shouldAllowOnlyListedNetworks() throws Exception {
+        IpFilter filter = new IpFilter(Arrays.asList("127.0.0.0/8", "[::1]"), null);
+
+        assertTrue(filter.isAllowed(address("127.0.0.1")));
+        assertTrue(filter.isAllowed(address("::1")));
+        assertFalse(filter.isAllowed(address("8.8.8.8")));
+        assertFalse(filter.isAllowed(address("::2")));
+    }
+
+    @Test
+    public void shouldUseMostSpecificNetwork() throws Exception {
+        IpFilter filter = new IpFilter(Arrays.asList("10.0.0.0/8", "10.1.2.0/24"),
+                Arrays.asList("10.1.0.0/16", "0.0.0.0/0"));
+
+        assertTrue(filter.isAllowed(address("10.2.0.1")));
+        assertFalse(filter.isAllowed(address("10.1.3.1")));
+        assertTrue(filter.isAllowed(address("10.1.2.1")));
+        assertFalse(filter.isAllowed(address("172.16.0.1")));
+    }
+
+    @Test
+    public void shouldDenyNetworkInBothLists() throws Exception {
+        IpFilter filter = new IpFilter(Arrays.asList("10.0.0.0/8"), Arrays.asList("10.0.0.0/8"));
+
+        assertFalse(filter.isAllowed(address("10.0.0.1")));
+    }
+
+    @Test
+    public void shouldHandleManyNetworks() throws Exception {
+        List<String> denied = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            denied.add("10." + (i >> 8 & 255) + "." + (i & 255) + ".0/24");
+        }
+        IpFilter filter = new IpFilter(null, denied);
+
+        assertFalse(filter.isAllowed(address("10.195.79.1")));
+        assertTrue(filter.isAllowed(address("10.196.0.1")));
+    }
+
+    @Test
+    public void shouldRejectInvalidNetworks() {
+        for (String network : new String[] { "localhost", "10.0.0.0/33", "10.0.0.0/x", "::1/129", "300.0.0.1" }) {
+            try {
+                new IpFilter(null, Collections.singletonList(network));
+                fail(network + " must be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void serverShouldRejectConnectionsWhichAreNotAllowed() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        HttpServer server = new HttpServer(new HttpServerRequestHandler() {
+            @Override
+            public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                    throws IOException {
+                HttpResponseHeaders headers = HttpResponseHeaders.ok();
+                headers.setHeader("Content-Length", "0");
+                headers.write(outputStream);
+            }
+        }, PORT);
+        server.setMetrics(metrics);
+        server.setIpFilter(new IpFilter(null, Arrays.asList("127.0.0.0/8", "::1")));
+        try {
+            server.start(10, 200);
+
+            try (HttpClientConnection connection = new HttpClientConnection("localhost", PORT)) {
+                connection.send(HttpRequestHeaders.getRequest("http://localhost/"));
+                fail("Connection must be rejected");
+            } catch (IOException e) {
+                // expected
+            }
+            assertEquals(1, server.getConnectionsRejectedByIpFilter());
+            assertEquals(1, metrics.getConnectionsRejected());
+            assertEquals(0, server.getConnectionsCreated());
+
+            // reload at runtime
+            server.setIpFilter(new IpFilter(Arrays.asList("127.0.0.0/8", "::1"), null));
+            try (HttpClientConnection connection = new HttpClientConnection("localhost", PORT)) {
+                HttpResponse response = connection.send(HttpRequestHeaders.getRequest("http://localhost/"));
+                assertEquals(200, response.getStatusCode());
+            }
+            assertEquals(1, server.getConnectionsRejectedByIpFilter());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static InetAddress address(String literal) throws Exception {
+        return InetAddress.getByName(literal);
+    }
+}
@@ -0,0 +1,129 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyStoreReloadTest {
+
+    private static final int PORT = 8080;
+    private static final int SSL_PORT = 8443;
+    private static final String SNI = "www.tenant.com";
+
+    private HttpServer server;
+    private File keyStoreFile;
+
+    @Before
+    public void setup() throws Exception {
+        keyStoreFile = File.createTempFile("tenant", ".jks");
+        Files.copy(Paths.get(keyStorePath()), keyStoreFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        server = new HttpServer(new OkRequestHandler(), PORT, SSL_PORT, keyStorePath(), "password", "test01");
+        server.addHostSpecificKeystore(SNI, keyStoreFile.getPath(), "password", "test01");
+        // without tickets a new context can not resume sessions of the old one, which shows that it was replaced,
+        // tickets are switched off for the whole JVM by the surefire execution which runs this test (see pom.xml)
+        assumeTrue("false".equals(System.getProperty("jdk.tls.server.enableSessionTicketExtension")));
+    }
+
+    @After
+    public void clear() {
+        server.stop();
+        HttpClientConnection.clearSslContexts();
+        keyStoreFile.delete();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldUseNewContextAfterReload() throws Exception {
+        server.start();
+        assertFalse(sendRequest());
+        assertTrue(sendRequest());
+
+        server.reloadKeyStores();
+
+        assertFalse(sendRequest());
+        assertTrue(sendRequest());
+    }
+
+    @Test(timeout = 30000)
+    public void shouldKeepEstablishedConnectionsAfterReload() throws Exception {
+        server.start();
+        try (HttpClientConnection connection = new HttpClientConnection("localhost", SSL_PORT)) {
+            connection.startHandshake(SNI);
+            assertEquals(200, connection.send(HttpRequestHeaders.getRequest("http://localhost/")).getStatusCode());
+
+            server.reloadKeyStores();
+
+            assertEquals(200, connection.send(HttpRequestHeaders.getRequest("http://localhost/")).getStatusCode());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void shouldReloadModifiedFile() throws Exception {
+        server.setKeyStoreWatchInterval(100);
+        server.start();
+        assertFalse(sendRequest());
+        assertTrue(sendRequest());
+
+        assertTrue(keyStoreFile.setLastModified(keyStoreFile.lastModified() + 10000));
+        Thread.sleep(500);
+
+        assertFalse(sendRequest());
+    }
+
+    @Test(timeout = 30000)
+    public void shouldKeepOldCertificatesWhenReloadFails() throws Exception {
+        server.start();
+        assertFalse(sendRequest());
+
+        try (OutputStream outputStream = new FileOutputStream(keyStoreFile)) {
+            outputStream.write("not a key store".getBytes());
+        }
+        try {
+            server.reloadKeyStores();
+            fail("Exception expected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertTrue(sendRequest());
+    }
+
+    /**
+     * @return true if TLS session was resumed
+     */
+    private boolean sendRequest() throws IOException {
+        try (HttpClientConnection connection = new HttpClientConnection("localhost", SSL_PORT)) {
+            connection.startHandshake(SNI);
+            HttpResponse response = connection.send(HttpRequestHeaders.getRequest("http://localhost/"));
+            assertEquals(200, response.getStatusCode());
+            response.drainBody();
+            return connection.isTlsSessionResumed();
+        }
+    }
+
+    private String keyStorePath() {
+        return getClass().getResource("/test.jks").getFile();
+    }
+
+    private static class OkRequestHandler implements HttpServerRequestHandler {
+
+        @Override
+        public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                throws IOException {
+            HttpResponseHeaders headers = HttpResponseHeaders.ok();
+            headers.setHeader("Content-Length", "0");
+            headers.write(outputStream);
+        }
+    }
+
+}
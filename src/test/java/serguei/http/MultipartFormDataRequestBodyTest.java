@@ -2,6 +2,12 @@ package serguei.http;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import org.junit.Test;
 
 import serguei.http.utils.Utils;
@@ -38,4 +44,63 @@ public class MultipartFormDataRequestBodyTest {
         assertEquals(Utils.concatWithDelimiter(REQUEST_DATA, "\r\n"), new String(result, "UTF-8"));
     }
 
+
+    @Test
+    public void shouldStreamPartsFromStreamAndFile() throws Exception {
+        Path file = Files.createTempFile("multipart", ".txt");
+        try {
+            Files.write(file, fileContent.getBytes("UTF-8"));
+            MultipartFormDataRequestBody body = new MultipartFormDataRequestBody(border);
+            body.add(new ByteArrayInputStream(text.getBytes("UTF-8")), text.length(), "text", null, null);
+            body.add(file, "file1", "t1.txt", "text/plain");
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+            body.writeTo(output);
+
+            String expected = Utils.concatWithDelimiter(REQUEST_DATA, "\r\n");
+            assertEquals(expected, new String(output.toByteArray(), "UTF-8"));
+            assertEquals(expected.length(), body.getContentLength());
+            assertEquals("multipart/form-data; boundary=" + border, body.getContentType());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldNotKnowLengthWhenStreamLengthIsUnknown() throws Exception {
+        MultipartFormDataRequestBody body = new MultipartFormDataRequestBody(border);
+        body.add(text, "text");
+        body.add(new ByteArrayInputStream(fileContent.getBytes("UTF-8")), -1, "file1", "t1.txt", "text/plain");
+
+        assertEquals(-1, body.getContentLength());
+        assertEquals(Utils.concatWithDelimiter(REQUEST_DATA, "\r\n"), new String(body.getBody(), "UTF-8"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailWhenStreamIsShorterThanDeclared() throws Exception {
+        MultipartFormDataRequestBody body = new MultipartFormDataRequestBody(border);
+        body.add(new ByteArrayInputStream(text.getBytes("UTF-8")), text.length() + 1, "text", null, null);
+
+        body.writeTo(new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void shouldBeParsedByServer() throws Exception {
+        MultipartFormDataRequestBody body = new MultipartFormDataRequestBody(border);
+        body.add(text, "text");
+        body.add(new ByteArrayInputStream(fileContent.getBytes("UTF-8")), fileContent.length(), "file1", "t1.txt",
+                "text/plain");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(("POST / HTTP/1.1\r\nHost: localhost\r\nContent-Type: " + body.getContentType()
+                + "\r\nContent-Length: " + body.getContentLength() + "\r\n\r\n").getBytes("UTF-8"));
+        body.writeTo(output);
+
+        HttpRequest request = new HttpRequest(new ByteArrayInputStream(output.toByteArray()));
+        RequestValues values = request.readBodyAsValues();
+
+        assertEquals(text, values.getValue("text"));
+        assertEquals(fileContent, values.getValue("file1"));
+        assertEquals("t1.txt", values.getFileName("file1"));
+    }
+
 }
@@ -0,0 +1,123 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import javax.net.ssl.SSLHandshakeException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NonBlockingTlsHandshakeTest {
+
+    private static final int PORT = 8080;
+    private static final int SSL_PORT = 8443;
+    private static final String PATH = "/test/file.txt";
+
+    private HttpServer server;
+    private EchoRequestHandler requestHandler = new EchoRequestHandler();
+    private HttpClientConnection clientConnection;
+
+    @Before
+    public void setup() throws Exception {
+        server = new HttpServer(requestHandler, PORT, SSL_PORT, keyStorePath(), "password", "test01");
+        server.setNonBlockingTlsHandshake(true);
+        server.setTimeoutMils(2000);
+        clientConnection = new HttpClientConnection("localhost", SSL_PORT);
+    }
+
+    @After
+    public void clear() {
+        clientConnection.close();
+        server.stop();
+        HttpClientConnection.clearSslContexts();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldSendAndReceiveAfterNonBlockingHandshake() throws Exception {
+        String sni = "www.fitltd.com";
+        String body = makeBody(100000);
+        server.start();
+
+        clientConnection.startHandshake(sni);
+        for (int i = 0; i < 3; i++) {
+            HttpResponse response = clientConnection
+                    .send(new HttpRequestHeaders("POST " + PATH + " HTTP/1.1", "Host: localhost"), body);
+
+            assertEquals(200, response.getStatusCode());
+            assertEquals(body, response.readBodyAsString());
+        }
+        assertTrue(requestHandler.connectionContext.isSsl());
+        assertEquals(sni, requestHandler.connectionContext.getSni());
+        assertNotNull(requestHandler.connectionContext.getNegotiatedTlsProtocol());
+        assertTrue(requestHandler.connectionContext.getNegotiatedCipher().length() > 0);
+    }
+
+    @Test(timeout = 30000)
+    public void shouldUseSelectedTlsProtocol() throws Exception {
+        server.setTlsProtocol(TlsVersion.TLSv12);
+        server.start();
+
+        clientConnection.startHandshake("www.fitltd.com");
+        HttpResponse response = clientConnection.send(HttpRequestHeaders.getRequest("http://localhost" + PATH));
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals(TlsVersion.TLSv12, clientConnection.getNegotiatedTlsProtocol());
+    }
+
+    @Test(timeout = 30000, expected = SSLHandshakeException.class)
+    public void shouldFailWhenServerRequiresSniAndAbsent() throws Exception {
+        server.shouldFailWhenNoSni(true);
+        server.start();
+
+        clientConnection.startHandshake("");
+    }
+
+    @Test(timeout = 30000)
+    public void shouldCloseConnectionWhenHandshakeTakesTooLong() throws Exception {
+        server.start();
+
+        try (Socket socket = new Socket("localhost", SSL_PORT)) {
+            socket.setSoTimeout(20000);
+            InputStream inputStream = socket.getInputStream();
+            long startTime = System.currentTimeMillis();
+
+            assertEquals(-1, inputStream.read());
+            assertTrue(System.currentTimeMillis() - startTime >= 1500);
+        }
+    }
+
+    private static String makeBody(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char)('a' + i % 26));
+        }
+        return builder.toString();
+    }
+
+    private String keyStorePath() {
+        return getClass().getResource("/test.jks").getFile();
+    }
+
+    private static class EchoRequestHandler implements HttpServerRequestHandler {
+
+        private volatile ConnectionContext connectionContext;
+
+        @Override
+        public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                throws IOException {
+            this.connectionContext = connectionContext;
+            byte[] body = request.readBodyAsBytes();
+            HttpResponseHeaders headers = HttpResponseHeaders.ok();
+            headers.setHeader("Content-Length", Integer.toString(body.length));
+            headers.write(outputStream);
+            outputStream.write(body);
+        }
+    }
+
+}
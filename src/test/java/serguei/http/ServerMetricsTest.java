@@ -0,0 +1,110 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+public class ServerMetricsTest {
+
+    private static final int PORT = 8080;
+
+    @Test
+    public void shouldPutValuesIntoBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(0);
+        histogram.record(1_000);
+        histogram.record(1_001);
+        histogram.record(4_000);
+        histogram.record(5_000);
+        histogram.record(Long.MAX_VALUE / 2);
+
+        assertEquals(6, histogram.getCount());
+        assertEquals(2, histogram.getBucketCount(0));
+        assertEquals(1, histogram.getBucketCount(1));
+        assertEquals(1, histogram.getBucketCount(2));
+        assertEquals(1, histogram.getBucketCount(3));
+        assertEquals(1, histogram.getBucketCount(histogram.getBucketNumber()));
+        long[] cumulative = histogram.getCumulativeCounts();
+        assertEquals(2, cumulative[0]);
+        assertEquals(5, cumulative[3]);
+        assertEquals(6, cumulative[histogram.getBucketNumber()]);
+    }
+
+    @Test
+    public void shouldExportInPrometheusFormat() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.connectionAccepted(3_000);
+        metrics.requestHeadersParsed(null, 2_000, false);
+        metrics.requestHeadersParsed(null, 2_000, true);
+        metrics.requestCompleted(null, 1_000_000, 100, 200);
+        PrometheusMetricsExporter exporter = new PrometheusMetricsExporter();
+
+        metrics.export(exporter);
+
+        String text = exporter.getText();
+        assertTrue(text.contains("# TYPE http_server_connections_accepted_total counter\n"));
+        assertTrue(text.contains("http_server_connections_accepted_total 1\n"));
+        assertTrue(text.contains("http_server_connections_active 1\n"));
+        assertTrue(text.contains("http_server_requests_total 2\n"));
+        assertTrue(text.contains("http_server_keep_alive_reuses_total 1\n"));
+        assertTrue(text.contains("http_server_received_bytes_total 100\n"));
+        assertTrue(text.contains("http_server_sent_bytes_total 200\n"));
+        assertTrue(text.contains("# TYPE http_server_handler_seconds histogram\n"));
+        assertTrue(text.contains("http_server_header_parse_seconds_bucket{le=\"2.0E-6\"} 2\n"));
+        assertTrue(text.contains("http_server_handler_seconds_bucket{le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("http_server_handler_seconds_sum 0.001\n"));
+        assertTrue(text.contains("http_server_handler_seconds_count 1\n"));
+    }
+
+    @Test(timeout = 60000)
+    public void shouldRecordMetricsOfServer() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        HttpServer server = new HttpServer(new OkRequestHandler(), PORT);
+        server.setMetrics(metrics);
+        try {
+            server.start();
+            try (HttpClientConnection connection = new HttpClientConnection("localhost", PORT)) {
+                for (int i = 0; i < 3; i++) {
+                    HttpResponse response = connection
+                            .send(HttpRequestHeaders.postRequest("http://localhost:" + PORT + "/"), "body");
+                    assertEquals(200, response.getStatusCode());
+                    response.drainBody();
+                }
+            }
+            long start = System.currentTimeMillis();
+            while (metrics.getConnectionsClosed() == 0 && System.currentTimeMillis() - start < 5000) {
+                Thread.sleep(10);
+            }
+        } finally {
+            server.stop();
+        }
+
+        assertEquals(1, metrics.getConnectionsAccepted());
+        assertEquals(1, metrics.getConnectionsClosed());
+        assertEquals(3, metrics.getRequests());
+        assertEquals(2, metrics.getKeepAliveReuses());
+        assertEquals(3, metrics.getHandlerTime().getCount());
+        assertEquals(3, metrics.getHeaderParseTime().getCount());
+        assertEquals(1, metrics.getAcceptToDispatchTime().getCount());
+        assertTrue(metrics.getBytesReceived() > 0);
+        assertTrue(metrics.getBytesSent() > 0);
+    }
+
+    private static class OkRequestHandler implements HttpServerRequestHandler {
+
+        @Override
+        public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                throws IOException {
+            request.readBodyAsBytes();
+            HttpResponseHeaders headers = HttpResponseHeaders.ok();
+            headers.setHeader("Content-Length", "2");
+            headers.write(outputStream);
+            outputStream.write("OK".getBytes());
+        }
+    }
+
+}
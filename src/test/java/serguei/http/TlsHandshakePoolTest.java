@@ -0,0 +1,150 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TlsHandshakePoolTest {
+
+    private static final int PORT = 8080;
+    private static final int SSL_PORT = 8443;
+
+    private HttpServer server;
+    private HttpClientConnection clientConnection;
+
+    @Before
+    public void setup() throws Exception {
+        server = new HttpServer(new OkRequestHandler(), PORT, SSL_PORT, keyStorePath(), "password", "test01");
+        clientConnection = new HttpClientConnection("localhost", SSL_PORT);
+    }
+
+    @After
+    public void clear() {
+        clientConnection.close();
+        server.stop();
+        HttpClientConnection.clearSslContexts();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldProcessRequestsAfterHandshakeOnPool() throws Exception {
+        server.setTlsHandshakeThreads(2, 10);
+        server.start();
+
+        sendRequests();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldProcessRequestsAfterNonBlockingHandshakeWithTasksOnPool() throws Exception {
+        server.setTlsHandshakeThreads(2, 10);
+        server.setNonBlockingTlsHandshake(true);
+        server.start();
+
+        sendRequests();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldUseHandshakeTimeoutInsteadOfConnectionTimeout() throws Exception {
+        server.setTimeoutMils(60000);
+        server.setTlsHandshakeTimeoutMils(500);
+        server.start();
+
+        try (Socket socket = new Socket("localhost", SSL_PORT)) {
+            socket.setSoTimeout(20000);
+            long startTime = System.currentTimeMillis();
+
+            assertEquals(-1, socket.getInputStream().read());
+            assertTrue(System.currentTimeMillis() - startTime < 10000);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void shouldLimitWholeHandshakeOnPool() throws Exception {
+        server.setTlsHandshakeThreads(1, 10);
+        server.setTlsHandshakeTimeoutMils(1000);
+        server.start();
+
+        assertClosedWhileSendingSlowly();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldLimitWholeHandshakeOnConnectionThread() throws Exception {
+        server.setTlsHandshakeTimeoutMils(1000);
+        server.start();
+
+        assertClosedWhileSendingSlowly();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldCloseConnectionWhenHandshakeQueueIsFull() throws Exception {
+        server.setTlsHandshakeThreads(1, 1);
+        server.setTlsHandshakeTimeoutMils(20000);
+        server.start();
+
+        try (Socket inHandshake = new Socket("localhost", SSL_PORT);
+                Socket queued = new Socket("localhost", SSL_PORT)) {
+            Thread.sleep(200);
+            try (Socket rejected = new Socket("localhost", SSL_PORT)) {
+                rejected.setSoTimeout(5000);
+
+                assertEquals(-1, rejected.getInputStream().read());
+            }
+        }
+    }
+
+    /**
+     * Sends the beginning of ClientHello a byte at a time, faster than the handshake timeout, the server must close
+     * the connection when the timeout passes from the start of the handshake
+     */
+    private void assertClosedWhileSendingSlowly() throws Exception {
+        try (Socket socket = new Socket("localhost", SSL_PORT)) {
+            long startTime = System.currentTimeMillis();
+            // TLS record with ClientHello of 512 bytes
+            byte[] record = {0x16, 0x03, 0x01, 0x02, 0x00, 0x01};
+            OutputStream output = socket.getOutputStream();
+            try {
+                for (int i = 0; i < 40; i++) {
+                    output.write(i < record.length ? record[i] : 0);
+                    output.flush();
+                    Thread.sleep(200);
+                }
+                fail("Connection must be closed by handshake timeout");
+            } catch (IOException e) {
+                // closed by the server
+            }
+            assertTrue(System.currentTimeMillis() - startTime < 5000);
+        }
+    }
+
+    private void sendRequests() throws IOException {
+        clientConnection.startHandshake("www.fitltd.com");
+        for (int i = 0; i < 2; i++) {
+            HttpResponse response = clientConnection.send(HttpRequestHeaders.getRequest("http://localhost/path"));
+
+            assertEquals(200, response.getStatusCode());
+            assertEquals("OK", response.readBodyAsString());
+        }
+    }
+
+    private String keyStorePath() {
+        return getClass().getResource("/test.jks").getFile();
+    }
+
+    private static class OkRequestHandler implements HttpServerRequestHandler {
+
+        @Override
+        public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                throws IOException {
+            HttpResponseHeaders headers = HttpResponseHeaders.ok();
+            headers.setHeader("Content-Length", "2");
+            headers.write(outputStream);
+            outputStream.write("OK".getBytes());
+        }
+    }
+
+}
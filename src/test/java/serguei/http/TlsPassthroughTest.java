@@ -0,0 +1,139 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TlsPassthroughTest {
+
+    private static final int PORT = 8080;
+    private static final int SSL_PORT = 8443;
+    private static final int BACKEND_PORT = 8081;
+    private static final int BACKEND_SSL_PORT = 8444;
+    private static final String PATH = "/test/file.txt";
+
+    private HttpServer server;
+    private HttpServer backend;
+    private EchoRequestHandler serverHandler = new EchoRequestHandler("server");
+    private EchoRequestHandler backendHandler = new EchoRequestHandler("backend");
+
+    @Before
+    public void setup() throws Exception {
+        server = new HttpServer(serverHandler, PORT, SSL_PORT, keyStorePath(), "password", "test01");
+        server.setTimeoutMils(2000);
+        server.addPassthroughBackend("*.backend.com", new InetSocketAddress("localhost", BACKEND_SSL_PORT));
+        backend = new HttpServer(backendHandler, BACKEND_PORT, BACKEND_SSL_PORT, keyStorePath(), "password",
+                "test01");
+        backend.start();
+    }
+
+    @After
+    public void clear() {
+        server.stop();
+        backend.stop();
+        HttpClientConnection.clearSslContexts();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldPassConnectionThroughToBackend() throws Exception {
+        server.start();
+
+        sendAndCheck("www.backend.com", "backend");
+        assertTrue(backendHandler.connectionContext.isSsl());
+        assertEquals("www.backend.com", backendHandler.connectionContext.getSni());
+    }
+
+    @Test(timeout = 30000)
+    public void shouldPassConnectionThroughAfterNonBlockingRead() throws Exception {
+        server.setNonBlockingTlsHandshake(true);
+        server.start();
+
+        sendAndCheck("www.backend.com", "backend");
+    }
+
+    @Test(timeout = 30000)
+    public void shouldPassConnectionThroughFromHandshakePool() throws Exception {
+        server.setTlsHandshakeThreads(2, 10);
+        server.start();
+
+        sendAndCheck("www.backend.com", "backend");
+    }
+
+    @Test(timeout = 30000)
+    public void shouldTerminateTlsWhenSniDoesNotMatch() throws Exception {
+        server.start();
+
+        sendAndCheck("www.fitltd.com", "server");
+        sendAndCheck("", "server");
+        assertNull(backendHandler.connectionContext);
+    }
+
+    @Test(timeout = 30000)
+    public void shouldCloseClientConnectionWhenBackendIsNotAvailable() throws Exception {
+        backend.stop();
+        server.start();
+
+        try (HttpClientConnection connection = new HttpClientConnection("localhost", SSL_PORT)) {
+            connection.startHandshake("www.backend.com");
+            fail("Exception expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private void sendAndCheck(String sni, String expectedServer) throws IOException {
+        String body = makeBody(300000);
+        try (HttpClientConnection connection = new HttpClientConnection("localhost", SSL_PORT)) {
+            connection.startHandshake(sni);
+            for (int i = 0; i < 3; i++) {
+                HttpResponse response = connection
+                        .send(new HttpRequestHeaders("POST " + PATH + " HTTP/1.1", "Host: localhost"), body);
+
+                assertEquals(200, response.getStatusCode());
+                assertEquals(expectedServer, response.getHeader("X-Server"));
+                assertEquals(body, response.readBodyAsString());
+            }
+        }
+    }
+
+    private static String makeBody(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char)('a' + i % 26));
+        }
+        return builder.toString();
+    }
+
+    private String keyStorePath() {
+        return getClass().getResource("/test.jks").getFile();
+    }
+
+    private static class EchoRequestHandler implements HttpServerRequestHandler {
+
+        private final String name;
+        private volatile ConnectionContext connectionContext;
+
+        public EchoRequestHandler(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                throws IOException {
+            this.connectionContext = connectionContext;
+            byte[] body = request.readBodyAsBytes();
+            HttpResponseHeaders headers = HttpResponseHeaders.ok();
+            headers.setHeader("Content-Length", Integer.toString(body.length));
+            headers.setHeader("X-Server", name);
+            headers.write(outputStream);
+            outputStream.write(body);
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TlsSessionResumptionTest {
+
+    private static final int PORT = 8080;
+    private static final int SSL_PORT = 8443;
+
+    private HttpServer server;
+    private ContextRecordingHandler requestHandler = new ContextRecordingHandler();
+    private ServerMetrics metrics = new ServerMetrics();
+
+    @Before
+    public void setup() throws Exception {
+        server = new HttpServer(requestHandler, PORT, SSL_PORT, keyStorePath(), "password", "test01");
+        server.setMetrics(metrics);
+    }
+
+    @After
+    public void clear() {
+        server.stop();
+        HttpClientConnection.clearSslContexts();
+    }
+
+    @Test(timeout = 30000)
+    public void shouldResumeSessionOnSecondConnection() throws Exception {
+        server.start();
+
+        assertFalse(sendRequest("www.fitltd.com"));
+        assertFalse(requestHandler.connectionContext.isTlsSessionResumed());
+        assertTrue(sendRequest("www.fitltd.com"));
+        assertTrue(requestHandler.connectionContext.isTlsSessionResumed());
+
+        assertEquals(2, metrics.getTlsHandshakes());
+        assertEquals(1, metrics.getTlsResumedHandshakes());
+        assertEquals(0.5, metrics.getTlsResumptionRate(), 0.001);
+        PrometheusMetricsExporter exporter = new PrometheusMetricsExporter();
+        metrics.export(exporter);
+        assertTrue(exporter.getText().contains("http_server_tls_resumed_handshakes_total 1\n"));
+    }
+
+    @Test(timeout = 30000)
+    public void shouldNotResumeSessionOfDifferentOrigin() throws Exception {
+        server.start();
+
+        assertFalse(sendRequest("www.fitltd.com"));
+        assertFalse(sendRequest("www.test.com"));
+        assertTrue(sendRequest("www.fitltd.com"));
+    }
+
+    @Test(timeout = 30000)
+    public void shouldResumeSessionFromCacheWhenTicketsAreOff() throws Exception {
+        assumeTicketsAreOff();
+        server.setTlsSessionCache(100, 3600);
+        server.start();
+
+        sendRequest();
+        sendRequest();
+
+        assertTrue(requestHandler.connectionContext.isTlsSessionResumed());
+    }
+
+    @Test(timeout = 30000)
+    public void shouldNotResumeSessionAfterTimeout() throws Exception {
+        assumeTicketsAreOff();
+        server.setTlsSessionCache(100, 1);
+        server.start();
+
+        sendRequest();
+        Thread.sleep(2100);
+        sendRequest();
+
+        assertFalse(requestHandler.connectionContext.isTlsSessionResumed());
+        assertEquals(0, metrics.getTlsResumedHandshakes());
+    }
+
+    @Test(timeout = 30000)
+    public void shouldResumeSessionWithNonBlockingHandshake() throws Exception {
+        server.setNonBlockingTlsHandshake(true);
+        server.start();
+
+        sendRequest();
+        sendRequest();
+
+        assertTrue(requestHandler.connectionContext.isTlsSessionResumed());
+    }
+
+    /**
+     * Tickets are switched off for the whole JVM by the surefire execution which runs this test (see pom.xml), it can
+     * not be done here as JDK reads the setting only once
+     */
+    private static void assumeTicketsAreOff() {
+        assumeTrue("false".equals(System.getProperty("jdk.tls.server.enableSessionTicketExtension")));
+    }
+
+    private void sendRequest() throws IOException {
+        sendRequest("www.fitltd.com");
+    }
+
+    /**
+     * @return true if the client resumed TLS session
+     */
+    private boolean sendRequest(String sni) throws IOException {
+        try (HttpClientConnection connection = new HttpClientConnection("localhost", SSL_PORT)) {
+            connection.startHandshake(sni);
+            HttpResponse response = connection.send(HttpRequestHeaders.getRequest("http://localhost/path"));
+            assertEquals(200, response.getStatusCode());
+            response.drainBody();
+            return connection.isTlsSessionResumed();
+        }
+    }
+
+    private String keyStorePath() {
+        return getClass().getResource("/test.jks").getFile();
+    }
+
+    private static class ContextRecordingHandler implements HttpServerRequestHandler {
+
+        private volatile ConnectionContext connectionContext;
+
+        @Override
+        public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                throws IOException {
+            this.connectionContext = connectionContext;
+            HttpResponseHeaders headers = HttpResponseHeaders.ok();
+            headers.setHeader("Content-Length", "0");
+            headers.write(outputStream);
+        }
+    }
+
+}
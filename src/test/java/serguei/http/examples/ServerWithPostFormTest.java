@@ -2,6 +2,8 @@ package serguei.http.examples;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -86,6 +88,28 @@ public class ServerWithPostFormTest {
         }
     }
 
+    @Test
+    public void shouldUploadImageFromStreamOfUnknownLength() throws Exception {
+        String text = "This is the text";
+        String boundary = "--------------------------943603c96ae956d7";
+        byte[] image = {20, 21, 22, 23, 24, 25};
+
+        MultipartFormDataRequestBody body = new MultipartFormDataRequestBody(boundary);
+        body.add(text, "text");
+        body.add(new ByteArrayInputStream(image), -1, "image", "image.jpg", "image/jpg");
+        HttpRequestHeaders headers = HttpRequestHeaders.postRequest("http://localhost:" + server.getPort() + "/upload");
+
+        try (HttpClientConnection client = new HttpClientConnection("localhost", server.getPort())) {
+            HttpResponse response = client.send(headers, body);
+            assertEquals(200, response.getStatusCode());
+            assertEquals("chunked", headers.getHeader("Transfer-Encoding"));
+            String responseBody = response.readBodyAsString();
+            assertTrue(responseBody.contains('"' + text + '"'));
+            response = client.send(HttpRequestHeaders.getRequest("http://localhost:" + server.getPort() + "/image.jpg"));
+            assertArrayEquals(image, response.readBodyAsBytes());
+        }
+    }
+
     @Test
     public void shouldInputValuesWithSpecialCharacters() throws Exception {
         String field1 = "This is field+1 value";
@@ -0,0 +1,89 @@
+package serguei.http;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FlightRecorderMetricsTest {
+
+    private static final int PORT = 8080;
+    private static final int SSL_PORT = 8443;
+
+    @Test(timeout = 60000)
+    public void shouldEmitEventsForConnectionAndRequests() throws Exception {
+        HttpServer server = new HttpServer(new OkRequestHandler(), PORT, SSL_PORT, keyStorePath(), "password", "test01");
+        File file = File.createTempFile("http-server", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"ConnectionAccepted", "TlsHandshake", "RequestHead", "RequestHandled",
+                    "ConnectionClosed"}) {
+                recording.enable("serguei.http." + name);
+            }
+            recording.start();
+            try {
+                server.start();
+                try (HttpClientConnection connection = new HttpClientConnection("localhost", SSL_PORT)) {
+                    connection.startHandshake("www.test.com");
+                    for (int i = 0; i < 2; i++) {
+                        HttpResponse response = connection
+                                .send(HttpRequestHeaders.getRequest("http://localhost:" + SSL_PORT + "/path"));
+                        assertEquals(200, response.getStatusCode());
+                        response.drainBody();
+                    }
+                }
+            } finally {
+                server.stop();
+            }
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+        file.delete();
+        Map<String, RecordedEvent> lastEvents = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (RecordedEvent event : events) {
+            String name = event.getEventType().getName();
+            lastEvents.put(name, event);
+            counts.merge(name, 1, Integer::sum);
+        }
+        assertEquals(Integer.valueOf(1), counts.get("serguei.http.ConnectionAccepted"));
+        assertEquals(Integer.valueOf(1), counts.get("serguei.http.TlsHandshake"));
+        assertEquals(Integer.valueOf(2), counts.get("serguei.http.RequestHead"));
+        assertEquals(Integer.valueOf(2), counts.get("serguei.http.RequestHandled"));
+        assertEquals(Integer.valueOf(1), counts.get("serguei.http.ConnectionClosed"));
+        assertEquals("www.test.com", lastEvents.get("serguei.http.TlsHandshake").getString("sni"));
+        assertNotNull(lastEvents.get("serguei.http.TlsHandshake").getString("cipher"));
+        assertEquals("GET", lastEvents.get("serguei.http.RequestHead").getString("method"));
+        assertTrue(lastEvents.get("serguei.http.RequestHead").getBoolean("reusedConnection"));
+        assertTrue(lastEvents.get("serguei.http.RequestHandled").getLong("bytesSent") > 0);
+        assertEquals(2, lastEvents.get("serguei.http.ConnectionClosed").getInt("requestCount"));
+    }
+
+    private String keyStorePath() {
+        return getClass().getResource("/test.jks").getFile();
+    }
+
+    private static class OkRequestHandler implements HttpServerRequestHandler {
+
+        @Override
+        public void process(ConnectionContext connectionContext, HttpRequest request, OutputStream outputStream)
+                throws IOException {
+            HttpResponseHeaders headers = HttpResponseHeaders.ok();
+            headers.setHeader("Content-Length", "2");
+            headers.write(outputStream);
+            outputStream.write("OK".getBytes());
+        }
+    }
+
+}